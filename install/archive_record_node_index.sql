@@ -0,0 +1,11 @@
+-- Optional index for the inventory lookup of the bag creation plugin.
+--
+-- The plugin searches the node by the field configured in <archiveIdEAD>. Without this column every node of every inventory is parsed for
+-- each search. Replace recordid with the configured field name in all places before running the script. The plugin detects the column by its
+-- name xml_<archiveIdEAD>, values longer than 255 characters are still searched without the index.
+--
+-- Requires the ALTER privilege on archive_record_node. The column is virtual, the database keeps it up to date when nodes are saved.
+
+alter table archive_record_node
+    add column xml_recordid varchar(255) generated always as (left(ExtractValue(data, '/xml/recordid'), 255)) virtual,
+    add index idx_xml_recordid (xml_recordid);
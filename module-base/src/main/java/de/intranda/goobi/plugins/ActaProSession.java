@@ -0,0 +1,217 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.reloading.FileChangedReloadingStrategy;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import io.goobi.api.job.actapro.model.ActaProApi;
+import io.goobi.api.job.actapro.model.AuthenticationToken;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import jakarta.ws.rs.client.ClientResponseFilter;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Connection to ActaPro shared by all runs in the JVM. The http client and its connections are reused and the authentication token is kept until
+ * it expires. If ActaPro rejects the token before, a new token is requested and the request is repeated once.
+ *
+ * The access data is read from plugin_intranda_administration_actapro_sync.xml, a new session is created when it changes. The client of the
+ * previous session is closed as soon as its running requests are finished.
+ */
+@Log4j2
+public class ActaProSession {
+
+    private static final String CONFIGURATION_FILE = "plugin_intranda_administration_actapro_sync.xml";
+
+    // request a new token shortly before the old one expires
+    private static final long EXPIRY_MARGIN_MILLIS = 30000;
+
+    private static final int TIMEOUT_SECONDS = 60;
+
+    private static XMLConfiguration configuration;
+
+    private static ActaProSession instance;
+
+    private final String authServiceUrl;
+    private final String authServiceHeader;
+    private final String authServiceUsername;
+    private final String authServicePassword;
+    private final String connectorUrl;
+
+    private final Client client;
+
+    // set by the response filter, if the last request of the current thread was rejected
+    private final ThreadLocal<Boolean> unauthorized = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private AuthenticationToken token;
+
+    private long tokenExpiry;
+
+    // number of requested tokens
+    @Getter
+    private int authentications;
+
+    // requests using the client at the moment
+    private int runningRequests;
+
+    // the session was replaced, the client is closed after the last running request
+    private boolean replaced;
+
+    @Getter
+    private boolean closed;
+
+    ActaProSession(String authServiceUrl, String authServiceHeader, String authServiceUsername, String authServicePassword, String connectorUrl) {
+        this.authServiceUrl = authServiceUrl;
+        this.authServiceHeader = authServiceHeader;
+        this.authServiceUsername = authServiceUsername;
+        this.authServicePassword = authServicePassword;
+        this.connectorUrl = connectorUrl;
+        client = ClientBuilder.newBuilder().connectTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS).readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS).build();
+        client.register((ClientResponseFilter) (request, response) -> {
+            if (response.getStatus() == 401) {
+                unauthorized.set(Boolean.TRUE);
+            }
+        });
+    }
+
+    /**
+     * Get the session for the current ActaPro configuration
+     *
+     * @return
+     * @throws ConfigurationException if the configuration file cannot be read
+     */
+    public static synchronized ActaProSession getInstance() throws ConfigurationException {
+        if (configuration == null) {
+            configuration = new XMLConfiguration(ConfigurationHelper.getInstance().getConfigurationFolder() + CONFIGURATION_FILE);
+            configuration.setListDelimiter('&');
+            configuration.setReloadingStrategy(new FileChangedReloadingStrategy());
+            configuration.setExpressionEngine(new XPathExpressionEngine());
+        }
+        String authServiceUrl = configuration.getString("/authentication/authServiceUrl");
+        String authServiceHeader = configuration.getString("/authentication/authServiceHeader");
+        String authServiceUsername = configuration.getString("/authentication/authServiceUsername");
+        String authServicePassword = configuration.getString("/authentication/authServicePassword");
+        String connectorUrl = configuration.getString("/connectorUrl");
+
+        if (instance == null || !instance.hasSettings(authServiceUrl, authServiceHeader, authServiceUsername, authServicePassword, connectorUrl)) {
+            if (instance != null) {
+                instance.replace();
+            }
+            instance = new ActaProSession(authServiceUrl, authServiceHeader, authServiceUsername, authServicePassword, connectorUrl);
+        }
+        return instance;
+    }
+
+    private boolean hasSettings(String authServiceUrl, String authServiceHeader, String authServiceUsername, String authServicePassword,
+            String connectorUrl) {
+        return Objects.equals(this.authServiceUrl, authServiceUrl) && Objects.equals(this.authServiceHeader, authServiceHeader)
+                && Objects.equals(this.authServiceUsername, authServiceUsername) && Objects.equals(this.authServicePassword, authServicePassword)
+                && Objects.equals(this.connectorUrl, connectorUrl);
+    }
+
+    /**
+     * Download the json document of a node
+     *
+     * @param archiveId id of the node in ActaPro
+     * @return the document or null, if it was not found
+     */
+    public String getJsonDocument(String archiveId) {
+        if (!startRequest()) {
+            // the session was replaced and closed after the caller got it
+            try {
+                return getInstance().getJsonDocument(archiveId);
+            } catch (ConfigurationException e) {
+                log.error(e);
+                return null;
+            }
+        }
+        try {
+            AuthenticationToken current = getToken();
+            if (current == null) {
+                return null;
+            }
+            unauthorized.set(Boolean.FALSE);
+            String value = ActaProApi.getJsonDocumentAsString(client, current, connectorUrl, archiveId);
+            if (value == null && unauthorized.get()) {
+                // the token was revoked or expired early
+                current = renewToken(current);
+                if (current != null) {
+                    value = ActaProApi.getJsonDocumentAsString(client, current, connectorUrl, archiveId);
+                }
+            }
+            unauthorized.remove();
+            return value;
+        } finally {
+            finishRequest();
+        }
+    }
+
+    /**
+     * Mark the session as replaced by a session with new settings. The client is closed now or after the last running request.
+     */
+    synchronized void replace() {
+        replaced = true;
+        if (runningRequests == 0) {
+            close();
+        }
+    }
+
+    private synchronized boolean startRequest() {
+        if (closed) {
+            return false;
+        }
+        runningRequests++;
+        return true;
+    }
+
+    private synchronized void finishRequest() {
+        runningRequests--;
+        if (replaced && runningRequests == 0) {
+            close();
+        }
+    }
+
+    private void close() {
+        if (!closed) {
+            closed = true;
+            client.close();
+        }
+    }
+
+    private synchronized AuthenticationToken getToken() {
+        if (token == null || System.currentTimeMillis() > tokenExpiry) {
+            authenticate();
+        }
+        return token;
+    }
+
+    /**
+     * Replace a rejected token. If another thread got a new token in the meantime, this one is used.
+     */
+    private synchronized AuthenticationToken renewToken(AuthenticationToken rejected) {
+        if (token == rejected) {
+            authenticate();
+        }
+        return token;
+    }
+
+    private void authenticate() {
+        token = ActaProApi.authenticate(client, authServiceHeader, authServiceUrl, authServiceUsername, authServicePassword);
+        authentications++;
+        if (token == null) {
+            log.error("Authentication at {} failed", authServiceUrl);
+            tokenExpiry = 0;
+        } else if (token.getExpiresIn() != null) {
+            tokenExpiry = System.currentTimeMillis() + token.getExpiresIn() * 1000L - EXPIRY_MARGIN_MILLIS;
+        } else {
+            // no expiry date known, keep the token until it is rejected
+            tokenExpiry = Long.MAX_VALUE;
+        }
+    }
+}
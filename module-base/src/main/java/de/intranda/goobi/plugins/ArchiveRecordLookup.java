@@ -0,0 +1,131 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.commons.dbutils.QueryRunner;
+
+import de.sub.goobi.persistence.managers.MySQLHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Finds the record group of an archive node by the value of a metadata field.
+ *
+ * The node data is stored as xml, searching it with ExtractValue parses every node of every record group. If the table archive_record_node
+ * contains a generated column {@code xml_<field>} for the field, the indexed column is used to find the candidates and only these are compared
+ * with ExtractValue. The column is created by an administrator with install/archive_record_node_index.sql, the plugin only detects it. Found
+ * record groups are cached for a few minutes, so repeated lookups of the same node within a batch do not access the database.
+ */
+@Log4j2
+public final class ArchiveRecordLookup {
+
+    private static final int CACHE_SIZE = 10000;
+
+    // nodes can be moved to another record group, cached titles are only used for this time
+    private static final long CACHE_LIFETIME = TimeUnit.MINUTES.toMillis(10);
+
+    // length of the generated column, values are truncated to this length
+    private static final int COLUMN_LENGTH = 255;
+
+    // field names are used as part of the column name and cannot be bound as parameter
+    private static final Pattern FIELD_NAME = Pattern.compile("[A-Za-z][A-Za-z0-9_]{0,50}");
+
+    // field name and value -> title of the record group
+    private static final Map<String, CachedTitle> recordGroups = Collections.synchronizedMap(new LinkedHashMap<String, CachedTitle>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedTitle> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
+    // fields with a generated column, fields without column are checked again on the next lookup
+    private static final Set<String> indexedFields = ConcurrentHashMap.newKeySet();
+
+    private ArchiveRecordLookup() {
+    }
+
+    /**
+     * Get the title of the record group containing the node with the given field value
+     *
+     * @param field name of the field in the node data
+     * @param value
+     * @return the title or null, if no node was found
+     */
+    public static String findRecordGroup(String field, String value) {
+        String key = field + '\t' + value;
+        CachedTitle cached = recordGroups.get(key);
+        if (cached != null && System.currentTimeMillis() - cached.created < CACHE_LIFETIME) {
+            return cached.title;
+        }
+        String title;
+        try (Connection connection = MySQLHelper.getInstance().getConnection()) {
+            QueryRunner run = new QueryRunner();
+            if (isIndexed(run, connection, field)) {
+                // the column only contains the first characters, the exact value is compared for the found candidates
+                title = run.query(connection, "select title from archive_record_group where id = (select archive_record_group_id from archive_record_node "
+                        + "where " + getColumnName(field) + " = left(?, " + COLUMN_LENGTH + ") and ExtractValue(data, ?) = ? limit 1)",
+                        MySQLHelper.resultSetToStringHandler, value, "/xml/" + field, value);
+            } else {
+                title = run.query(connection, "select title from archive_record_group where id = (select archive_record_group_id from archive_record_node "
+                        + "where ExtractValue(data, ?) = ? limit 1)", MySQLHelper.resultSetToStringHandler, "/xml/" + field, value);
+            }
+        } catch (SQLException e) {
+            // the column might have been removed
+            indexedFields.remove(field);
+            log.error(e);
+            return null;
+        }
+        if (title == null) {
+            recordGroups.remove(key);
+        } else {
+            recordGroups.put(key, new CachedTitle(title, System.currentTimeMillis()));
+        }
+        return title;
+    }
+
+    /**
+     * Remove all cached record groups, e.g. after nodes were moved
+     */
+    public static void clearCache() {
+        recordGroups.clear();
+        indexedFields.clear();
+    }
+
+    static String getColumnName(String field) {
+        return "xml_" + field;
+    }
+
+    private static boolean isIndexed(QueryRunner run, Connection connection, String field) throws SQLException {
+        if (!FIELD_NAME.matcher(field).matches()) {
+            return false;
+        }
+        if (indexedFields.contains(field)) {
+            return true;
+        }
+        boolean indexed = run.query(connection, "select column_name from information_schema.columns where table_schema = database() "
+                + "and table_name = 'archive_record_node' and column_name = ?", MySQLHelper.resultSetToStringHandler, getColumnName(field)) != null;
+        if (indexed) {
+            indexedFields.add(field);
+        }
+        return indexed;
+    }
+
+    private static class CachedTitle {
+        private final String title;
+        private final long created;
+
+        private CachedTitle(String title, long created) {
+            this.title = title;
+            this.created = created;
+        }
+    }
+}
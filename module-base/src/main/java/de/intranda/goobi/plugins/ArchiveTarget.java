@@ -0,0 +1,125 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Destination of an archive file. The content is written into a temporary file first, it gets its final name only after the archive is complete.
+ */
+public interface ArchiveTarget {
+
+    /**
+     * @return stream to write the archive
+     * @throws IOException
+     */
+    OutputStream open() throws IOException;
+
+    /**
+     * Called after the stream was closed successfully, the archive gets its final name
+     * 
+     * @throws IOException
+     */
+    void commit() throws IOException;
+
+    /**
+     * Called if the archive could not be created completely
+     */
+    void abort();
+
+    /**
+     * Write the archive into a local file
+     */
+    @Log4j2
+    class LocalFile implements ArchiveTarget {
+
+        private final Path file;
+        private final Path tempFile;
+
+        public LocalFile(Path file) {
+            this.file = file;
+            tempFile = file.resolveSibling(file.getFileName().toString() + ".tmp");
+        }
+
+        @Override
+        public OutputStream open() throws IOException {
+            return Files.newOutputStream(tempFile);
+        }
+
+        @Override
+        public void commit() throws IOException {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        @Override
+        public void abort() {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                log.error(e);
+            }
+        }
+    }
+
+    /**
+     * Upload the archive while it is written. The data is stored with the suffix .part on the server and renamed after the upload is complete.
+     * 
+     * The archive is not stored locally, so a failed upload cannot be repeated or continued. The incomplete file is removed from the server and
+     * the bag must be created again.
+     */
+    @Log4j2
+    class Upload implements ArchiveTarget {
+
+        private final ConnectionConfiguration connection;
+        private final String remoteName;
+        private ArchiveUploader uploader;
+
+        public Upload(ConnectionConfiguration connection, String remoteName) {
+            this.connection = connection;
+            this.remoteName = remoteName;
+        }
+
+        @Override
+        public OutputStream open() throws IOException {
+            uploader = ArchiveUploader.open(connection);
+            return BagMetrics.getInstance().countUploadedBytes(uploader.newOutputStream(remoteName + ".part"));
+        }
+
+        @Override
+        public void commit() throws IOException {
+            try {
+                uploader.rename(remoteName + ".part", remoteName);
+            } finally {
+                uploader.close();
+            }
+        }
+
+        @Override
+        public void abort() {
+            if (uploader == null) {
+                return;
+            }
+            String partName = remoteName + ".part";
+            try {
+                uploader.delete(partName);
+            } catch (IOException e) {
+                // the connection may be broken, try again with a new one
+                try (ArchiveUploader newUploader = ArchiveUploader.open(connection)) {
+                    newUploader.delete(partName);
+                } catch (IOException e1) {
+                    log.error("Incomplete file {} cannot be removed from the server: {}", partName, e1.getMessage());
+                }
+            } finally {
+                try {
+                    uploader.close();
+                } catch (IOException e) {
+                    log.error(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package de.intranda.goobi.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Connection to the remote server of the long term archive
+ */
+public interface ArchiveUploader extends Closeable {
+
+    /**
+     * Open a stream to write a file into the remote folder. Existing files are overwritten.
+     * 
+     * @param remoteName name of the file
+     * @return
+     * @throws IOException
+     */
+    OutputStream newOutputStream(String remoteName) throws IOException;
+
+    /**
+     * Open a stream to append data to the end of a remote file, used to continue an interrupted upload
+     * 
+     * @param remoteName name of the file
+     * @return
+     * @throws IOException
+     */
+    OutputStream newAppendingOutputStream(String remoteName) throws IOException;
+
+    /**
+     * Get the size of a remote file
+     * 
+     * @param remoteName name of the file
+     * @return size in bytes or -1, if the file does not exist
+     * @throws IOException
+     */
+    long getSize(String remoteName) throws IOException;
+
+    /**
+     * Rename a remote file, an existing file with the new name is replaced
+     * 
+     * @param from
+     * @param to
+     * @throws IOException
+     */
+    void rename(String from, String to) throws IOException;
+
+    /**
+     * Delete a remote file, nothing happens if it does not exist
+     * 
+     * @param remoteName name of the file
+     * @throws IOException
+     */
+    void delete(String remoteName) throws IOException;
+
+    /**
+     * Open a connection for the given configuration
+     * 
+     * @param cc
+     * @return
+     * @throws IOException
+     */
+    static ArchiveUploader open(ConnectionConfiguration cc) throws IOException {
+        if (cc.isFtp()) {
+            return new FtpArchiveUploader(cc);
+        }
+        return new SftpArchiveUploader(cc);
+    }
+}
@@ -0,0 +1,167 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.goobi.beans.ProjectFileGroup;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.Getter;
+
+/**
+ * Settings of the bag creation and submission read from the configuration block of a project and step. The configuration is evaluated once and
+ * shared by all plugin instances of the same project and step until the configuration file changes.
+ *
+ * The returned objects must not be modified.
+ */
+@Getter
+public class BagConfiguration {
+
+    // plugin name, project title and step title -> settings
+    private static final Map<String, BagConfiguration> cache = new ConcurrentHashMap<>();
+
+    // modification date of the configuration file when the settings were read
+    private final long lastModified;
+
+    // configuration block, used for the ruleset extension
+    private final SubnodeConfiguration config;
+
+    private final List<ProjectFileGroup> fileGroups;
+
+    // rights information
+    private final String rightsOwner;
+    private final String rightsOwnerLogo;
+    private final String rightsOwnerSiteURL;
+    private final String rightsOwnerContact;
+    private final String metsRightsLicense;
+    private final String metsRightsSponsor;
+    private final String metsRightsSponsorLogo;
+    private final String metsRightsSponsorSiteURL;
+
+    // links
+    private final String digiprovPresentation;
+    private final String digiprovPresentationAnchor;
+    private final String digiprovReference;
+    private final String digiprovReferenceAnchor;
+    private final String iiifUrl;
+    private final String sruUrl;
+
+    // manifestation metadata
+    private final String organizationName;
+    private final String organizationAddress;
+    private final String organizationIdentifier;
+    private final String contactName;
+    private final String contactEmail;
+    private final String softwareName;
+    private final String profileIdentifier;
+
+    // archive metadata
+    private final String archiveIdFieldMets;
+    private final String archiveIdFieldEad;
+    private final int archiveMetadataTimeout;
+
+    // processing
+    private final int numberOfThreads;
+    private final boolean useChecksumCache;
+    private final boolean directArchive;
+    private final String stagingMode;
+    private final String archiveFormat;
+    private final boolean streamingMets;
+
+    private final ConnectionConfiguration connection;
+
+    private final PerformanceHistory performanceHistory;
+
+    BagConfiguration(SubnodeConfiguration config, long lastModified) {
+        this.lastModified = lastModified;
+        this.config = config;
+
+        List<ProjectFileGroup> groups = new ArrayList<>();
+        for (HierarchicalConfiguration hc : config.configurationsAt("/filegroups/group")) {
+            ProjectFileGroup group = new ProjectFileGroup();
+            group.setName(hc.getString("@fileGrpName", ""));
+            group.setPath(hc.getString("@prefix", ""));
+            group.setMimetype(hc.getString("@mimeType", ""));
+            group.setSuffix(hc.getString("@suffix", ""));
+            group.setFolder(hc.getString("@folder", ""));
+            group.setUseOriginalFiles(hc.getBoolean("@useOriginalFileExtension", false));
+            groups.add(group);
+        }
+        fileGroups = Collections.unmodifiableList(groups);
+
+        rightsOwner = config.getString("/metsParameter/rightsOwner", "");
+        rightsOwnerLogo = config.getString("/metsParameter/rightsOwnerLogo", "");
+        rightsOwnerSiteURL = config.getString("/metsParameter/rightsOwnerSiteURL", "");
+        rightsOwnerContact = config.getString("/metsParameter/rightsOwnerContact", "");
+        metsRightsLicense = config.getString("/metsParameter/metsRightsLicense", "");
+        metsRightsSponsor = config.getString("/metsParameter/metsRightsSponsor", "");
+        metsRightsSponsorLogo = config.getString("/metsParameter/metsRightsSponsorLogo", "");
+        metsRightsSponsorSiteURL = config.getString("/metsParameter/metsRightsSponsorSiteURL", "");
+
+        digiprovPresentation = config.getString("/metsParameter/digiprovPresentation", "");
+        digiprovPresentationAnchor = config.getString("/metsParameter/digiprovPresentationAnchor", "");
+        digiprovReference = config.getString("/metsParameter/digiprovReference", "");
+        digiprovReferenceAnchor = config.getString("/metsParameter/digiprovReferenceAnchor", "");
+        iiifUrl = config.getString("/metsParameter/iiifUrl", "");
+        sruUrl = config.getString("/metsParameter/sruUrl", "");
+
+        organizationName = config.getString("/submissionParameter/organizationName", "");
+        organizationAddress = config.getString("/submissionParameter/organizationAddress", "");
+        organizationIdentifier = config.getString("/submissionParameter/organizationIdentifier", "");
+        contactName = config.getString("/submissionParameter/contactName", "");
+        contactEmail = config.getString("/submissionParameter/contactEmail", "");
+        softwareName = config.getString("/submissionParameter/softwareName", "");
+        profileIdentifier = config.getString("/submissionParameter/profileIdentifier", "");
+
+        archiveIdFieldMets = config.getString("/additionalMetadata/archiveIdMETS", "");
+        archiveIdFieldEad = config.getString("/additionalMetadata/archiveIdEAD", "");
+        archiveMetadataTimeout = config.getInt("/additionalMetadata/timeout", 300);
+
+        numberOfThreads = config.getInt("/processingParameter/threads", 1);
+        useChecksumCache = config.getBoolean("/processingParameter/checksumCache", false);
+        directArchive = config.getBoolean("/processingParameter/directArchive", false);
+        stagingMode = config.getString("/processingParameter/stagingMode", FolderBagWriter.STAGING_COPY);
+        archiveFormat = BagcreationStepPlugin.getArchiveFormat(config);
+        streamingMets = config.getBoolean("/processingParameter/streamingMets", false);
+        connection = ConnectionConfiguration.create(config);
+        performanceHistory = PerformanceHistory.create(config);
+    }
+
+    /**
+     * Get the settings for the project and step. They are only read again if the configuration file was changed.
+     *
+     * @param pluginName name of the plugin configuration
+     * @param step
+     * @return
+     */
+    public static BagConfiguration getInstance(String pluginName, Step step) {
+        long modified = getLastModified(pluginName);
+        String key = pluginName + '\t' + step.getProzess().getProjekt().getTitel() + '\t' + step.getTitel();
+        BagConfiguration settings = cache.get(key);
+        if (settings == null || modified < 0 || settings.lastModified != modified) {
+            settings = new BagConfiguration(ConfigPlugins.getProjectAndStepConfig(pluginName, step), modified);
+            cache.put(key, settings);
+        }
+        return settings;
+    }
+
+    private static long getLastModified(String pluginName) {
+        try {
+            return Files.getLastModifiedTime(Paths.get(ConfigurationHelper.getInstance().getConfigurationFolder(), "plugin_" + pluginName + ".xml"))
+                    .toMillis();
+        } catch (IOException e) {
+            // the settings are read again on each call
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package de.intranda.goobi.plugins;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder event for a phase or a single file of the bag creation and submission. Events are created by {@link PhaseTimer}, which
+ * fills in the process and the identifier of the current run. Without an active recording, creating and committing an event costs almost nothing.
+ * By default events shorter than 1 ms are not recorded, the threshold can be changed in the recording settings.
+ */
+@Name("de.intranda.goobi.plugins.BagCreation")
+@Label("Bag Creation")
+@Category({ "Goobi", "Bag Creation" })
+@Description("Phase or generated file of the bag creation and submission")
+@StackTrace(false)
+@Threshold("1 ms")
+public class BagEvent extends Event {
+
+    public static final String REPRESENTATION = "representation";
+    public static final String METADATA_FILE = "metadataFile";
+    public static final String EAD = "ead";
+    public static final String ACTAPRO = "actaPro";
+
+    @Label("Process ID")
+    int processId;
+
+    @Label("Identifier")
+    String identifier;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("File Group")
+    String fileGroup;
+
+    @Label("File")
+    String file;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    public void setFileGroup(String fileGroup) {
+        this.fileGroup = fileGroup;
+    }
+
+    public void setFile(Object file) {
+        this.file = file == null ? null : file.toString();
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public void addBytes(long bytes) {
+        this.bytes += bytes;
+    }
+}
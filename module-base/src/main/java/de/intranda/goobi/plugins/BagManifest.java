@@ -0,0 +1,126 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Collects size and checksum of all payload files of a bag and creates the bag declaration, bag-info.txt and the manifest files from them. The
+ * payload files do not need to be read again to create the manifests.
+ */
+public class BagManifest {
+
+    private final Path bagitRoot;
+
+    // checksums of all payload files, the key is the path relative to the bag root
+    private final Map<String, String> checksums = new ConcurrentHashMap<>();
+
+    // size of all payload files, the key is the path relative to the bag root
+    private final Map<String, Long> payloadFiles = new TreeMap<>();
+
+    /**
+     *
+     * @param bagitRoot root folder of the bag, all files are addressed relative to this folder
+     */
+    public BagManifest(Path bagitRoot) {
+        this.bagitRoot = bagitRoot;
+    }
+
+    /**
+     * Register a file written into the bag. Only files within the data folder are part of the payload.
+     *
+     * @param file location of the file inside of the bag folder
+     * @param size
+     */
+    public void addFile(Path file, long size) {
+        String bagPath = getBagPath(file);
+        if (bagPath.startsWith("data/")) {
+            synchronized (payloadFiles) {
+                payloadFiles.put(bagPath, size);
+            }
+        }
+    }
+
+    /**
+     * Register the checksum of a file written into the bag
+     *
+     * @param file location of the file inside of the bag folder
+     * @param checksum sha256 checksum as hex string
+     */
+    public void addChecksum(Path file, String checksum) {
+        checksums.put(getBagPath(file), checksum);
+    }
+
+    /**
+     * @return size of all registered payload files
+     */
+    public long getPayloadSize() {
+        long size = 0;
+        synchronized (payloadFiles) {
+            for (Long fileSize : payloadFiles.values()) {
+                size += fileSize;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Create the content of bagit.txt, bag-info.txt, manifest-sha256.txt and tagmanifest-sha256.txt
+     *
+     * @param bagInfo metadata for bag-info.txt
+     * @return file name relative to the bag root and content of each tag file, in the order they should be written
+     * @throws IOException if a payload file has no checksum
+     */
+    public Map<String, byte[]> createTagFiles(Map<String, String> bagInfo) throws IOException {
+        String bagit = "BagIt-Version: 1.0\nTag-File-Character-Encoding: UTF-8\n";
+
+        StringBuilder info = new StringBuilder();
+        for (Entry<String, String> entry : bagInfo.entrySet()) {
+            info.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        StringBuilder manifest = new StringBuilder();
+        synchronized (payloadFiles) {
+            if (!bagInfo.containsKey("Bagging-Date")) {
+                info.append("Bagging-Date: ").append(LocalDate.now().toString()).append('\n');
+            }
+            if (!bagInfo.containsKey("Payload-Oxum")) {
+                info.append("Payload-Oxum: ").append(getPayloadSize()).append('.').append(payloadFiles.size()).append('\n');
+            }
+            for (String file : payloadFiles.keySet()) {
+                String checksum = checksums.get(file);
+                if (checksum == null) {
+                    throw new IOException("No checksum available for " + file);
+                }
+                manifest.append(checksum).append(' ').append(file).append('\n');
+            }
+        }
+
+        Map<String, byte[]> tagFiles = new TreeMap<>();
+        tagFiles.put("bagit.txt", bagit.getBytes(StandardCharsets.UTF_8));
+        tagFiles.put("bag-info.txt", info.toString().getBytes(StandardCharsets.UTF_8));
+        tagFiles.put("manifest-sha256.txt", manifest.toString().getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder tagManifest = new StringBuilder();
+        for (Entry<String, byte[]> entry : tagFiles.entrySet()) {
+            tagManifest.append(DigestUtils.sha256Hex(entry.getValue())).append(' ').append(entry.getKey()).append('\n');
+        }
+        Map<String, byte[]> result = new LinkedHashMap<>(tagFiles);
+        result.put("tagmanifest-sha256.txt", tagManifest.toString().getBytes(StandardCharsets.UTF_8));
+        return result;
+    }
+
+    /**
+     * path of the file relative to the bag root folder
+     */
+    public String getBagPath(Path file) {
+        return bagitRoot.relativize(file).toString().replace('\\', '/');
+    }
+}
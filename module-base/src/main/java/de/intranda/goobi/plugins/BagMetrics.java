@@ -0,0 +1,284 @@
+package de.intranda.goobi.plugins;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Collects the phase durations and transferred bytes of all runs and publishes them as MXBean in the platform MBean server, where they can be
+ * read with JConsole or any JMX exporter.
+ */
+@Log4j2
+public class BagMetrics implements BagMetricsMXBean {
+
+    public static final String OBJECT_NAME = "de.intranda.goobi.plugins:type=BagCreation";
+
+    private static final long[] HASH_LATENCY_BOUNDS = { 1, 10, 100, 1000, 10000, 60000 };
+
+    private static final int SLOW_FILE_LIMIT = 50;
+
+    private static final BagMetrics INSTANCE = register(new BagMetrics());
+
+    private final LongAdder runs = new LongAdder();
+
+    private final Map<String, PhaseStatistic> phases = new ConcurrentHashMap<>();
+
+    // phase durations of the last finished run, replaced as a whole so that phases of older runs are not mixed in
+    private volatile Map<String, Long> lastRun = Collections.emptyMap();
+
+    private final LongAdder bytesHashed = new LongAdder();
+
+    private final LongAdder bytesCopied = new LongAdder();
+
+    private final LongAdder bytesTarred = new LongAdder();
+
+    private final LongAdder bytesUploaded = new LongAdder();
+
+    private final LongAdder filesHashed = new LongAdder();
+
+    private final AtomicLongArray hashLatency = new AtomicLongArray(HASH_LATENCY_BOUNDS.length + 1);
+
+    private volatile long slowFileThresholdMillis = 10000;
+
+    private final Deque<String> slowFiles = new ArrayDeque<>();
+
+    BagMetrics() {
+    }
+
+    public static BagMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private static BagMetrics register(BagMetrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            try {
+                server.registerMBean(metrics, name);
+            } catch (InstanceAlreadyExistsException e) {
+                // registered by a previous class loader of the plugin
+                server.unregisterMBean(name);
+                server.registerMBean(metrics, name);
+            }
+        } catch (JMException e) {
+            log.error(e);
+        }
+        return metrics;
+    }
+
+    /**
+     * Add the duration of a finished phase
+     *
+     * @param phase
+     * @param millis
+     */
+    public void addPhase(String phase, long millis) {
+        phases.computeIfAbsent(phase, p -> new PhaseStatistic()).add(millis);
+    }
+
+    /**
+     * Count a finished run and remember the durations of its phases
+     *
+     * @param timer
+     */
+    public void finishRun(PhaseTimer timer) {
+        timer.stop();
+        runs.increment();
+        lastRun = Collections.unmodifiableMap(new TreeMap<>(timer.getDurations()));
+    }
+
+    /**
+     * Record the checksum calculation of a payload file, files that take longer than the threshold are logged
+     *
+     * @param file
+     * @param size number of bytes read
+     * @param nanos duration of reading and hashing
+     */
+    public void addHashedFile(Path file, long size, long nanos) {
+        bytesHashed.add(size);
+        filesHashed.increment();
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < HASH_LATENCY_BOUNDS.length && millis > HASH_LATENCY_BOUNDS[bucket]) {
+            bucket++;
+        }
+        hashLatency.incrementAndGet(bucket);
+        if (millis > slowFileThresholdMillis) {
+            log.warn("Slow file: reading {} ({} bytes) took {} ms", file, size, millis);
+            synchronized (slowFiles) {
+                slowFiles.addFirst(file + " (" + size + " bytes, " + millis + " ms)");
+                if (slowFiles.size() > SLOW_FILE_LIMIT) {
+                    slowFiles.removeLast();
+                }
+            }
+        }
+    }
+
+    public void addBytesCopied(long bytes) {
+        bytesCopied.add(bytes);
+    }
+
+    public void addBytesTarred(long bytes) {
+        bytesTarred.add(bytes);
+    }
+
+    public void addBytesUploaded(long bytes) {
+        bytesUploaded.add(bytes);
+    }
+
+    /**
+     * Count all bytes written into the stream as uploaded
+     */
+    public OutputStream countUploadedBytes(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesUploaded.add(len);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesUploaded.increment();
+            }
+        };
+    }
+
+    @Override
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCount() {
+        Map<String, Long> result = new TreeMap<>();
+        phases.forEach((phase, statistic) -> result.put(phase, statistic.count.get()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseTotalMillis() {
+        Map<String, Long> result = new TreeMap<>();
+        phases.forEach((phase, statistic) -> result.put(phase, statistic.total.get()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMaxMillis() {
+        Map<String, Long> result = new TreeMap<>();
+        phases.forEach((phase, statistic) -> result.put(phase, statistic.max.get()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getLastRunMillis() {
+        return new TreeMap<>(lastRun);
+    }
+
+    @Override
+    public long getBytesHashed() {
+        return bytesHashed.sum();
+    }
+
+    @Override
+    public long getBytesCopied() {
+        return bytesCopied.sum();
+    }
+
+    @Override
+    public long getBytesTarred() {
+        return bytesTarred.sum();
+    }
+
+    @Override
+    public long getBytesUploaded() {
+        return bytesUploaded.sum();
+    }
+
+    @Override
+    public long getFilesHashed() {
+        return filesHashed.sum();
+    }
+
+    @Override
+    public long[] getHashLatencyBucketBoundsMillis() {
+        return HASH_LATENCY_BOUNDS.clone();
+    }
+
+    @Override
+    public long[] getHashLatencyBuckets() {
+        long[] result = new long[hashLatency.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = hashLatency.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public long getSlowFileThresholdMillis() {
+        return slowFileThresholdMillis;
+    }
+
+    @Override
+    public void setSlowFileThresholdMillis(long millis) {
+        slowFileThresholdMillis = millis;
+    }
+
+    @Override
+    public List<String> getSlowFiles() {
+        synchronized (slowFiles) {
+            return new ArrayList<>(slowFiles);
+        }
+    }
+
+    @Override
+    public void reset() {
+        runs.reset();
+        phases.clear();
+        lastRun = Collections.emptyMap();
+        bytesHashed.reset();
+        bytesCopied.reset();
+        bytesTarred.reset();
+        bytesUploaded.reset();
+        filesHashed.reset();
+        for (int i = 0; i < hashLatency.length(); i++) {
+            hashLatency.set(i, 0);
+        }
+        synchronized (slowFiles) {
+            slowFiles.clear();
+        }
+    }
+
+    private static class PhaseStatistic {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private void add(long millis) {
+            count.incrementAndGet();
+            total.addAndGet(millis);
+            max.accumulateAndGet(millis, Math::max);
+        }
+    }
+}
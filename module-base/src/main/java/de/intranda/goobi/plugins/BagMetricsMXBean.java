@@ -0,0 +1,85 @@
+package de.intranda.goobi.plugins;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metrics of the bag creation and submission, published as de.intranda.goobi.plugins:type=BagCreation. All values are collected since the
+ * plugin was loaded or since the last {@link #reset()}.
+ */
+public interface BagMetricsMXBean {
+
+    /**
+     * @return number of finished bag creation and submission runs
+     */
+    long getRuns();
+
+    /**
+     * @return number of executions of each phase
+     */
+    Map<String, Long> getPhaseCount();
+
+    /**
+     * @return sum of the durations of each phase in milliseconds
+     */
+    Map<String, Long> getPhaseTotalMillis();
+
+    /**
+     * @return longest duration of each phase in milliseconds
+     */
+    Map<String, Long> getPhaseMaxMillis();
+
+    /**
+     * @return duration of each phase in the last finished run that contained it, in milliseconds
+     */
+    Map<String, Long> getLastRunMillis();
+
+    /**
+     * @return bytes read to calculate the checksum of payload files
+     */
+    long getBytesHashed();
+
+    /**
+     * @return bytes of payload files copied into the bag
+     */
+    long getBytesCopied();
+
+    /**
+     * @return bytes written into tar files
+     */
+    long getBytesTarred();
+
+    /**
+     * @return bytes transferred to the archive server or the local export folder
+     */
+    long getBytesUploaded();
+
+    /**
+     * @return number of payload files with a calculated checksum
+     */
+    long getFilesHashed();
+
+    /**
+     * @return upper bounds of the hash latency buckets in milliseconds, the last bucket has no upper bound
+     */
+    long[] getHashLatencyBucketBoundsMillis();
+
+    /**
+     * @return number of files in each hash latency bucket, one more entry than {@link #getHashLatencyBucketBoundsMillis()}
+     */
+    long[] getHashLatencyBuckets();
+
+    long getSlowFileThresholdMillis();
+
+    /**
+     * @param millis files taking longer to read and hash are reported as slow files
+     */
+    void setSlowFileThresholdMillis(long millis);
+
+    /**
+     * @return the last slow files with their size and duration
+     */
+    List<String> getSlowFiles();
+
+    void reset();
+}
@@ -23,7 +23,6 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 
-import org.apache.commons.configuration.SubnodeConfiguration;
 import org.apache.commons.lang.StringUtils;
 import org.goobi.beans.Process;
 import org.goobi.beans.Step;
@@ -33,11 +32,8 @@ import org.goobi.production.enums.PluginType;
 import org.goobi.production.enums.StepReturnValue;
 import org.goobi.production.plugin.interfaces.IStepPluginVersion2;
 
-import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.exceptions.SwapException;
-import io.goobi.workflow.api.connection.FtpUtils;
-import io.goobi.workflow.api.connection.SftpUtils;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
@@ -62,23 +58,26 @@ public class BagSubmissionStepPlugin implements IStepPluginVersion2 {
     @Getter
     private String returnPath;
 
-    private String userName;
-    private String password;
-    private String sftpKeyfile;
-    private String hostname;
-    private int port = 22;
-    private String sftpPathToKnownHostsFile;
-    private String sftpRemoteFolder;
-    private String localFolder;
+    private ConnectionConfiguration connection;
 
-    private String connectionType;
+    private String archiveFormat;
+
+    private PerformanceHistory performanceHistory;
 
     @Override
     public PluginReturnValue run() {
+        if (connection.isStreaming()) {
+            // the tar file was already uploaded during the bag creation
+            log.info("Streaming submission is enabled, the bag was delivered by the bag creation step");
+            return PluginReturnValue.FINISH;
+        }
         String identifier = null;
         Path tarFile = null;
+        PhaseTimer timer = new PhaseTimer();
+        timer.setProcessId(process.getId());
         // open mets file, get doi
         try {
+            timer.start(PhaseTimer.METADATA);
             Fileformat fileformat = process.readMetadataFile();
 
             // find doi metadata
@@ -107,10 +106,11 @@ public class BagSubmissionStepPlugin implements IStepPluginVersion2 {
                 // no identifier found, cancel
                 return PluginReturnValue.ERROR;
             }
+            timer.setIdentifier(identifier);
 
             // check if tar file exists
 
-            tarFile = Paths.get(process.getProcessDataDirectory(), identifier.replace("/", "_") + "_bag.tar");
+            tarFile = Paths.get(process.getProcessDataDirectory(), identifier.replace("/", "_") + "_bag." + archiveFormat);
             //  rename file before upload
             if (!StorageProvider.getInstance().isFileExists(tarFile)) {
                 // file not found, cancel
@@ -120,53 +120,49 @@ public class BagSubmissionStepPlugin implements IStepPluginVersion2 {
         } catch (UGHException | IOException | SwapException e) {
             log.error(e);
         }
-        if (StringUtils.isNotBlank(localFolder)) {
+        timer.start(PhaseTimer.UPLOAD);
+        if (StringUtils.isNotBlank(connection.getLocalFolder())) {
 
-            Path tempFile = Paths.get(localFolder, process.getTitel() + ".tmp");
+            Path tempFile = Paths.get(connection.getLocalFolder(), process.getTitel() + ".tmp");
 
-            Path destination = Paths.get(localFolder, tarFile.getFileName().toString());
+            Path destination = Paths.get(connection.getLocalFolder(), tarFile.getFileName().toString());
             try {
                 StorageProvider.getInstance().copyFile(tarFile, tempFile);
                 StorageProvider.getInstance().move(tempFile, destination);
+                BagMetrics.getInstance().addBytesUploaded(StorageProvider.getInstance().getFileSize(destination));
             } catch (IOException e) {
                 log.error(e);
+                BagMetrics.getInstance().finishRun(timer);
                 return PluginReturnValue.ERROR;
             }
 
-        } else if ("ftp".equalsIgnoreCase(connectionType)) {
-            try (FtpUtils connection = new FtpUtils(userName, password, hostname, port)) {
-                // upload file
-                connection.changeRemoteFolder(sftpRemoteFolder);
-                connection.uploadFile(tarFile);
-            } catch (Exception e) {
-                log.error(e);
-                return PluginReturnValue.ERROR;
-            }
-        } else if (StringUtils.isBlank(sftpKeyfile)) {
-            try (SftpUtils connection = new SftpUtils(userName, password, hostname, port, sftpPathToKnownHostsFile)) {
-                // upload file
-                connection.changeRemoteFolder(sftpRemoteFolder);
-                connection.uploadFile(tarFile);
-            } catch (Exception e) {
-                log.error(e);
-                return PluginReturnValue.ERROR;
-            }
         } else {
-            try (SftpUtils connection = new SftpUtils(userName, sftpKeyfile, password, hostname, port, sftpPathToKnownHostsFile)) {
-                // upload file
-                connection.changeRemoteFolder(sftpRemoteFolder);
-                connection.uploadFile(tarFile);
-            } catch (Exception e) {
+            try {
+                // upload file, an interrupted upload is continued on the next attempt
+                ResumableUpload upload = new ResumableUpload(connection);
+                upload.setPhaseTimer(timer);
+                upload.upload(tarFile);
+            } catch (IOException e) {
                 log.error(e);
+                BagMetrics.getInstance().finishRun(timer);
                 return PluginReturnValue.ERROR;
             }
         }
         // delete local zip file
+        timer.start(PhaseTimer.CLEANUP);
+        long archiveSize = 0;
         try {
+            archiveSize = StorageProvider.getInstance().getFileSize(tarFile);
             StorageProvider.getInstance().deleteFile(tarFile);
         } catch (IOException e) {
             log.error(e);
         }
+        BagMetrics.getInstance().finishRun(timer);
+        log.info("Bag submission of {} finished: {}", identifier, timer);
+        RunSummary summary = new RunSummary(RunSummary.SUBMISSION, timer);
+        summary.setTotalBytes(archiveSize);
+        summary.setPeakDiskUsage(archiveSize);
+        performanceHistory.save(process, summary);
 
         return PluginReturnValue.FINISH;
     }
@@ -197,18 +193,12 @@ public class BagSubmissionStepPlugin implements IStepPluginVersion2 {
         this.step = step;
         process = step.getProzess();
 
-        SubnodeConfiguration myconfig = ConfigPlugins.getProjectAndStepConfig("intranda_step_bagcreation", step);
-
-        connectionType = myconfig.getString("/connection/type");
-        userName = myconfig.getString("/connection/username");
-        password = myconfig.getString("/connection/password");
-        sftpKeyfile = myconfig.getString("/connection/keyfile");
-        hostname = myconfig.getString("/connection/hostname");
-        sftpPathToKnownHostsFile = myconfig.getString("/connection/knownHostsFile");
-        port = myconfig.getInt("/connection/port");
-        sftpRemoteFolder = myconfig.getString("/connection/remoteFolder");
+        // same settings as the bag creation, shared with its instances
+        BagConfiguration settings = BagConfiguration.getInstance("intranda_step_bagcreation", step);
 
-        localFolder = myconfig.getString("/exportFolder", null);
+        connection = settings.getConnection();
+        archiveFormat = settings.getArchiveFormat();
+        performanceHistory = settings.getPerformanceHistory();
     }
 
     @Override
@@ -0,0 +1,87 @@
+package de.intranda.goobi.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Target for all files of a bag. The files are addressed by their location inside of the bag folder structure, the implementation decides if
+ * they are written into a temporary folder or directly into the archive file.
+ */
+public interface BagWriter extends Closeable {
+
+    /**
+     * Open a stream to write a file into the bag. The stream must be closed before the next file is opened, unless
+     * {@link #isParallelWriteSupported()} returns true.
+     * 
+     * @param file location of the file inside of the bag folder
+     * @param size number of bytes that will be written
+     * @return
+     * @throws IOException
+     */
+    OutputStream newOutputStream(Path file, long size) throws IOException;
+
+    /**
+     * Prepare adding multiple files to the bag without copying their content, for example by cloning all files of a folder at once.
+     * {@link #linkFile(Path, Path, long)} is still called for each file afterwards.
+     * 
+     * @param sources original files
+     * @param files locations of the files inside of the bag folder, in the same order as the sources. A null entry means that the file is not
+     *            added to the bag
+     */
+    void prepareLinks(List<Path> sources, List<Path> files);
+
+    /**
+     * Try to add a file to the bag without copying its content, for example by creating a hard link
+     * 
+     * @param source original file
+     * @param file location of the file inside of the bag folder
+     * @param size size of the source file
+     * @return true, if the file was added, false if it must be copied
+     */
+    boolean linkFile(Path source, Path file, long size);
+
+    /**
+     * Register the checksum of a file written into the payload of the bag
+     * 
+     * @param file
+     * @param checksum sha256 checksum as hex string
+     */
+    void addChecksum(Path file, String checksum);
+
+    /**
+     * Get the creation date of a file written into the bag
+     * 
+     * @param file
+     * @return
+     */
+    String getCreationTime(Path file);
+
+    /**
+     * @return true, if multiple files can be written at the same time
+     */
+    boolean isParallelWriteSupported();
+
+    /**
+     * @return size of all files within the payload folder
+     * @throws IOException
+     */
+    long getPayloadSize() throws IOException;
+
+    /**
+     * @return size of the files stored in the temporary bag folder, linked files are not counted
+     */
+    long getStagedSize();
+
+    /**
+     * Write the bag declaration, bag-info.txt and the manifest files and create the archive file
+     * 
+     * @param bagInfo metadata for bag-info.txt
+     * @throws IOException
+     */
+    void finish(Map<String, String> bagInfo) throws IOException;
+
+}
@@ -18,30 +18,36 @@
 
 package de.intranda.goobi.plugins;
 
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.URLEncoder;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.Connection;
-import java.sql.SQLException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.UUID;
-import java.util.stream.Stream;
-
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.configuration.ConfigurationException;
-import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.SubnodeConfiguration;
-import org.apache.commons.configuration.XMLConfiguration;
-import org.apache.commons.configuration.reloading.FileChangedReloadingStrategy;
-import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
-import org.apache.commons.dbutils.QueryRunner;
 import org.apache.commons.lang3.StringUtils;
 import org.goobi.beans.Process;
 import org.goobi.beans.Project;
@@ -49,7 +55,6 @@ import org.goobi.beans.ProjectFileGroup;
 import org.goobi.beans.Step;
 import org.goobi.interfaces.IArchiveManagementAdministrationPlugin;
 import org.goobi.interfaces.IEadEntry;
-import org.goobi.production.GoobiVersion;
 import org.goobi.production.enums.PluginGuiType;
 import org.goobi.production.enums.PluginReturnValue;
 import org.goobi.production.enums.PluginType;
@@ -57,31 +62,19 @@ import org.goobi.production.enums.StepReturnValue;
 import org.goobi.production.plugin.PluginLoader;
 import org.goobi.production.plugin.interfaces.IPlugin;
 import org.goobi.production.plugin.interfaces.IStepPluginVersion2;
-import org.jdom2.Attribute;
 import org.jdom2.Document;
-import org.jdom2.Element;
 import org.jdom2.JDOMException;
-import org.jdom2.Namespace;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 
 import de.intranda.goobi.plugins.persistence.ArchiveManagementManager;
-import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.export.download.ExportMets;
 import de.sub.goobi.helper.BagCreation;
-import de.sub.goobi.helper.NIOFileUtils;
 import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.VariableReplacer;
-import de.sub.goobi.helper.XmlTools;
 import de.sub.goobi.helper.exceptions.DAOException;
 import de.sub.goobi.helper.exceptions.SwapException;
-import de.sub.goobi.helper.files.TarUtils;
-import de.sub.goobi.persistence.managers.MySQLHelper;
-import io.goobi.api.job.actapro.model.ActaProApi;
-import io.goobi.api.job.actapro.model.AuthenticationToken;
-import jakarta.ws.rs.client.Client;
-import jakarta.ws.rs.client.ClientBuilder;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
@@ -101,17 +94,12 @@ import ugh.fileformats.mets.RulesetExtension;
 
 @PluginImplementation
 @Log4j2
-public class BagcreationStepPlugin extends ExportMets implements IStepPluginVersion2 {
-
-    private static final Namespace metsNamespace = Namespace.getNamespace("mets", "http://www.loc.gov/METS/");
-    private static final Namespace modsNamespace = Namespace.getNamespace("mods", "http://www.loc.gov/mods/v3");
-    private static final Namespace sipNamespace = Namespace.getNamespace("sip", "https://DILCIS.eu/XML/METS/SIPExtensionMETS");
-    private static final Namespace csipNamespace = Namespace.getNamespace("csip", "https://DILCIS.eu/XML/METS/CSIPExtensionMETS");
-    private static final Namespace xlinkNamespace = Namespace.getNamespace("xlink", "http://www.w3.org/1999/xlink");
-    private static final Namespace dvNamespace = Namespace.getNamespace("dv", "http://dfg-viewer.de/");
-    private static final Namespace xsiNamespace = Namespace.getNamespace("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+public class BagcreationStepPlugin extends ExportMets implements IStepPluginVersion2, GeneratedFileStore {
 
     private static final long serialVersionUID = 211912948222450125L;
+
+    public static final String ARCHIVE_FORMAT_TAR = "tar";
+    public static final String ARCHIVE_FORMAT_TAR_GZ = "tar.gz";
     @Getter
     private String title = "intranda_step_bagcreation";
     @Getter
@@ -133,7 +121,7 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
     @Getter
     private transient BagCreation bag;
 
-    private List<ProjectFileGroup> filegroups = new ArrayList<>();
+    private List<ProjectFileGroup> filegroups = Collections.emptyList();
 
     // rights information
     private String rightsOwner;
@@ -171,6 +159,38 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
 
     private String archiveIdFieldMets;
     private String archiveIdFieldEad;
+    // seconds to wait for the EAD export and the ActaPro download
+    private int archiveMetadataTimeout;
+
+    // number of files to copy and hash in parallel
+    private int numberOfThreads;
+
+    // keep checksums of unchanged files between runs
+    private boolean useChecksumCache;
+
+    private transient FixityCache fixityCache;
+
+    // size and checksum of all metadata files written during the current run
+    private transient Map<Path, PayloadFile> generatedFiles = new HashMap<>();
+
+    // write the bag directly into the tar file instead of creating a temporary folder
+    private boolean directArchive;
+
+    // copy, link or reflink payload files into the temporary bag folder
+    private String stagingMode;
+
+    private transient BagWriter bagWriter;
+
+    // tar or tar.gz
+    private String archiveFormat;
+
+    // convert the METS file element by element instead of loading the complete document
+    private boolean streamingMets;
+
+    // upload data, used to stream the tar file directly to the archive
+    private transient ConnectionConfiguration connection;
+
+    private transient PerformanceHistory performanceHistory;
 
     @Override
     public void initialize(Step step, String returnPath) {
@@ -180,46 +200,47 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
         project = process.getProjekt();
         prefs = process.getRegelsatz().getPreferences();
 
-        // read parameters from correct block in configuration file
-        config = ConfigPlugins.getProjectAndStepConfig(title, step);
-        List<HierarchicalConfiguration> grps = config.configurationsAt("/filegroups/group");
-        for (HierarchicalConfiguration hc : grps) {
-            ProjectFileGroup group = new ProjectFileGroup();
-            group.setName(hc.getString("@fileGrpName", ""));
-            group.setPath(hc.getString("@prefix", ""));
-            group.setMimetype(hc.getString("@mimeType", ""));
-            group.setSuffix(hc.getString("@suffix", ""));
-            group.setFolder(hc.getString("@folder", ""));
-            group.setUseOriginalFiles(hc.getBoolean("@useOriginalFileExtension", false));
-            filegroups.add(group);
-        }
-
-        rightsOwner = config.getString("/metsParameter/rightsOwner", "");
-        rightsOwnerLogo = config.getString("/metsParameter/rightsOwnerLogo", "");
-        rightsOwnerSiteURL = config.getString("/metsParameter/rightsOwnerSiteURL", "");
-        rightsOwnerContact = config.getString("/metsParameter/rightsOwnerContact", "");
-        metsRightsLicense = config.getString("/metsParameter/metsRightsLicense", "");
-        metsRightsSponsor = config.getString("/metsParameter/metsRightsSponsor", "");
-        metsRightsSponsorLogo = config.getString("/metsParameter/metsRightsSponsorLogo", "");
-        metsRightsSponsorSiteURL = config.getString("/metsParameter/metsRightsSponsorSiteURL", "");
-
-        digiprovPresentation = config.getString("/metsParameter/digiprovPresentation", "");
-        digiprovPresentationAnchor = config.getString("/metsParameter/digiprovPresentationAnchor", "");
-        digiprovReference = config.getString("/metsParameter/digiprovReference", "");
-        digiprovReferenceAnchor = config.getString("/metsParameter/digiprovReferenceAnchor", "");
-        iiifUrl = config.getString("/metsParameter/iiifUrl", "");
-        sruUrl = config.getString("/metsParameter/sruUrl", "");
-
-        organizationName = config.getString("/submissionParameter/organizationName", "");
-        organizationAddress = config.getString("/submissionParameter/organizationAddress", "");
-        organizationIdentifier = config.getString("/submissionParameter/organizationIdentifier", "");
-        contactName = config.getString("/submissionParameter/contactName", "");
-        contactEmail = config.getString("/submissionParameter/contactEmail", "");
-        softwareName = config.getString("/submissionParameter/softwareName", "");
-        profileIdentifier = config.getString("/submissionParameter/profileIdentifier", "");
-
-        archiveIdFieldMets = config.getString("/additionalMetadata/archiveIdMETS", "");
-        archiveIdFieldEad = config.getString("/additionalMetadata/archiveIdEAD", "");
+        // read parameters from correct block in configuration file, the settings are cached until the file changes
+        BagConfiguration settings = BagConfiguration.getInstance(title, step);
+        config = settings.getConfig();
+        filegroups = settings.getFileGroups();
+
+        rightsOwner = settings.getRightsOwner();
+        rightsOwnerLogo = settings.getRightsOwnerLogo();
+        rightsOwnerSiteURL = settings.getRightsOwnerSiteURL();
+        rightsOwnerContact = settings.getRightsOwnerContact();
+        metsRightsLicense = settings.getMetsRightsLicense();
+        metsRightsSponsor = settings.getMetsRightsSponsor();
+        metsRightsSponsorLogo = settings.getMetsRightsSponsorLogo();
+        metsRightsSponsorSiteURL = settings.getMetsRightsSponsorSiteURL();
+
+        digiprovPresentation = settings.getDigiprovPresentation();
+        digiprovPresentationAnchor = settings.getDigiprovPresentationAnchor();
+        digiprovReference = settings.getDigiprovReference();
+        digiprovReferenceAnchor = settings.getDigiprovReferenceAnchor();
+        iiifUrl = settings.getIiifUrl();
+        sruUrl = settings.getSruUrl();
+
+        organizationName = settings.getOrganizationName();
+        organizationAddress = settings.getOrganizationAddress();
+        organizationIdentifier = settings.getOrganizationIdentifier();
+        contactName = settings.getContactName();
+        contactEmail = settings.getContactEmail();
+        softwareName = settings.getSoftwareName();
+        profileIdentifier = settings.getProfileIdentifier();
+
+        archiveIdFieldMets = settings.getArchiveIdFieldMets();
+        archiveIdFieldEad = settings.getArchiveIdFieldEad();
+        archiveMetadataTimeout = settings.getArchiveMetadataTimeout();
+
+        numberOfThreads = settings.getNumberOfThreads();
+        useChecksumCache = settings.isUseChecksumCache();
+        directArchive = settings.isDirectArchive();
+        stagingMode = settings.getStagingMode();
+        archiveFormat = settings.getArchiveFormat();
+        streamingMets = settings.isStreamingMets();
+        connection = settings.getConnection();
+        performanceHistory = settings.getPerformanceHistory();
     }
 
     @Override
@@ -228,9 +249,22 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
         VariableReplacer vp = null;
         String archiveId = null;
         Map<String, FileList> files = new HashMap<>();
+        boolean bagCreated = false;
+        Path exportFolder = null;
+        Path archiveFile = null;
+        Future<ArchiveMetadata> archiveMetadata = null;
+        ExecutorService payloadExecutor = null;
+        Future<Void> payload = null;
+        PhaseTimer timer = new PhaseTimer();
+        timer.setProcessId(process.getId());
+        // source folders are read only once during the run
+        DirectorySnapshot snapshot = new DirectorySnapshot();
+        // mime types are detected once for each extension
+        MimeTypeResolver mimeTypeResolver = new MimeTypeResolver();
 
         try {
             // read metadata
+            timer.start(PhaseTimer.METADATA);
             Fileformat fileformat = process.readMetadataFile();
 
             DigitalDocument dd = fileformat.getDigitalDocument();
@@ -260,6 +294,7 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
                 // no identifier found, cancel export
                 return PluginReturnValue.ERROR;
             }
+            timer.setIdentifier(identifier);
 
             if (StringUtils.isNotBlank(archiveIdFieldMets) && StringUtils.isNotBlank(archiveIdFieldEad)) {
                 for (Metadata md : ds.getAllMetadata()) {
@@ -269,18 +304,42 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
                     }
                 }
             }
+            if (StringUtils.isNotBlank(archiveId)) {
+                // runs while the METS file is exported and the payload files are copied
+                archiveMetadata = prefetchArchiveMetadata(archiveId, timer);
+            }
 
             DocStruct physical = dd.getPhysicalDocStruct();
             // missing pagination, try to create a new one
             // if pagination is missing, we might have subfolder instead of files in master folder
 
-            createPagination(dd, ds, physical);
+            createPagination(dd, ds, physical, snapshot, mimeTypeResolver);
 
             bag = new BagCreation(
                     ConfigurationHelper.getInstance().getTemporaryFolder() + "/" + identifier.replace("/", "_") + "/" + identifier.replace("/", "_")
                             + "_bag");
             bag.createIEFolder(identifier.replace("/", "_"), "representations");
 
+            String archiveName = identifier.replace("/", "_") + "_bag." + archiveFormat;
+            archiveFile = Paths.get(process.getProcessDataDirectory(), archiveName);
+            boolean compress = ARCHIVE_FORMAT_TAR_GZ.equals(archiveFormat);
+            if (connection.isStreaming()) {
+                // deliver the tar file while it is written, the submission step has nothing left to do
+                TarBagWriter tarBagWriter = new TarBagWriter(bag.getBagitRoot(), createSubmissionTarget(archiveName), compress, numberOfThreads);
+                tarBagWriter.setPhaseTimer(timer);
+                bagWriter = tarBagWriter;
+            } else if (directArchive) {
+                TarBagWriter tarBagWriter = new TarBagWriter(bag.getBagitRoot(), new ArchiveTarget.LocalFile(archiveFile), compress, numberOfThreads);
+                tarBagWriter.setPhaseTimer(timer);
+                bagWriter = tarBagWriter;
+            } else {
+                FolderBagWriter folderBagWriter = new FolderBagWriter(bag, archiveFile, stagingMode);
+                folderBagWriter.setPhaseTimer(timer);
+                folderBagWriter.setCompressionThreads(numberOfThreads);
+                bagWriter = folderBagWriter;
+            }
+
+            timer.start(PhaseTimer.EXPORT);
             vp = new VariableReplacer(fileformat.getDigitalDocument(), prefs, process, null);
             // create export file
 
@@ -309,9 +368,12 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
                     FileList fl = new FileList();
                     fl.setFileGroupName(projectFileGroup.getName());
                     fl.setSourceFolder(sourceFolder);
-                    fl.setFiles(getFolderContent(sourceFolder));
+                    fl.setFiles(snapshot.getFiles(sourceFolder));
                     fl.setMimetype(projectFileGroup.getMimetype());
                     fl.setUseOrigFileExtension(projectFileGroup.isUseOriginalFiles());
+                    if (fl.isUseOrigFileExtension()) {
+                        mimeTypeResolver.resolveAll(fl.getFileGroupName(), fl.getFiles(), numberOfThreads);
+                    }
                     files.put(projectFileGroup.getName(), fl);
                     // generate filegroup
                     VirtualFileGroup virt = new VirtualFileGroup(projectFileGroup.getName(), projectFileGroup.getPath(),
@@ -325,22 +387,15 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
             virt.setIgnoreConfiguredMimetypeAndSuffix(true);
             exportFilefoExport.getDigitalDocument().getFileSet().addVirtualFileGroup(virt);
 
-            // copy meta.xml and meta_anchor.xml
-
-            Path otherMetadataFolder = Paths.get(bag.getOtherFolder().toString());
+            // meta.xml and meta_anchor.xml are copied into the other folder together with the payload files
             Path metaFile = Paths.get(process.getMetadataFilePath());
             Path metaAnchorFile = Paths.get(process.getMetadataFilePath().replace(".xml", "_anchor.xml"));
             List<Path> metadataFiles = new ArrayList<>();
-            StorageProvider.getInstance().createDirectories(otherMetadataFolder);
             if (StorageProvider.getInstance().isFileExists(metaFile)) {
-                Path destination = Paths.get(otherMetadataFolder.toString(), "meta.xml");
-                StorageProvider.getInstance().copyFile(metaFile, destination);
-                metadataFiles.add(destination);
+                metadataFiles.add(metaFile);
             }
             if (StorageProvider.getInstance().isFileExists(metaAnchorFile)) {
-                Path destination = Paths.get(otherMetadataFolder.toString(), "meta_anchor.xml");
-                StorageProvider.getInstance().copyFile(metaAnchorFile, destination);
-                metadataFiles.add(destination);
+                metadataFiles.add(metaAnchorFile);
             }
 
             FileList metadata = new FileList();
@@ -349,269 +404,282 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
             metadata.setFiles(metadataFiles);
             files.put("Other", metadata);
 
+            if (useChecksumCache) {
+                fixityCache = FixityCache.load(Paths.get(process.getProcessDataDirectory(), "fixity_cache.txt"));
+            }
+
+            // copy files into the bag while the METS file is exported, size and checksum are collected while copying
+            payloadExecutor = Executors.newSingleThreadExecutor();
+            payload = startPayloadIngest(payloadExecutor, files, snapshot, timer);
+            payloadExecutor.shutdown();
+
             // project parameter
             setProjectParameter(identifier, vp, exportFilefoExport);
 
-            // save file
-            exportFilefoExport.write(bag.getIeFolder().toString() + "/METS.xml");
+            // save file, it is only read by the conversion and written into the bag afterwards. MetsModsImportExport can only write into a file,
+            // so the exported document is parsed again. Use a local folder instead of the temporary folder, so the METS files are written only
+            // once into the bag and the anchor file does not get there at all
+            exportFolder = Files.createTempDirectory("bagcreation");
+            exportFilefoExport.write(exportFolder.resolve("METS.xml").toString());
 
         } catch (UGHException | IOException | SwapException e) {
             log.error(e);
         }
         // open exported file to enhance it
         try {
-            Document doc = XmlTools.getSAXBuilder().build(bag.getIeFolder().toString() + "/METS.xml");
-            Element mets = doc.getRootElement();
-
-            mets.addNamespaceDeclaration(sipNamespace);
-            mets.addNamespaceDeclaration(csipNamespace);
-            mets.setAttribute("TYPE", "Mixed"); // CSIP2
-            mets.setAttribute("PROFILE", "https://earksip.dilcis.eu/profile/E-ARK-SIP.xml"); // SIP2
-            mets.setAttribute("CONTENTINFORMATIONTYPE", "MIXED", csipNamespace); // CSIP4
+            if (exportFolder == null) {
+                throw new IOException("METS file was not exported");
+            }
+            timer.start(PhaseTimer.METS);
+            SipMetsConverter converter = createConverter();
+            converter.setPhaseTimer(timer);
+            converter.setMimeTypeResolver(mimeTypeResolver);
+
+            // a tar file can only be written by one thread, the anchor file is added after the payload files
+            if (!bagWriter.isParallelWriteSupported()) {
+                timer.start(PhaseTimer.PAYLOAD_WAIT);
+                waitForPayload(payload);
+                timer.start(PhaseTimer.METS);
+            }
 
             // check if anchor exists
-            Path anchorFile = Paths.get(bag.getIeFolder().toString(), "/METS_anchor.xml");
-            boolean anchorFileExists = false;
-            if (StorageProvider.getInstance().isFileExists(anchorFile)) {
-                changeAnchorFile(anchorFile);
-                anchorFileExists = true;
-                StorageProvider.getInstance().deleteFile(anchorFile);
+            Path anchorFile = exportFolder.resolve("METS_anchor.xml");
+            if (Files.exists(anchorFile)) {
+                converter.convertAnchor(anchorFile);
             }
 
-            // enhance existing agent, add additional user agent for submitting agent (SIP4 - SIP 31)
-            String creationDate = createUserAgent(mets);
+            // the converter needs size and checksum of all payload files
+            timer.start(PhaseTimer.PAYLOAD_WAIT);
+            waitForPayload(payload);
 
-            // enhance dmdSecs
-            String dmdIds = changeDmdSecs(mets, creationDate);
-
-            dmdIds = addActaProData(mets, creationDate, archiveId, dmdIds);
-
-            changeAmdSec(mets, creationDate, "", anchorFileExists);
-
-            changeFileSec(files, mets, creationDate);
+            // if actapro id exists
+            if (archiveMetadata != null) {
+                timer.start(PhaseTimer.ARCHIVE_METADATA);
+                converter.setIncludeArchiveMetadata(writeArchiveMetadata(archiveMetadata));
+            }
 
-            changeStructMap(mets, identifier, dmdIds);
+            // enhance exported file, save it as SIP METS file
+            timer.start(PhaseTimer.METS);
+            converter.convert(exportFolder.resolve("METS.xml"), identifier, files);
 
-            removeStructLinks(mets);
+            timer.start(PhaseTimer.MANIFEST);
+            createBag(identifier, createSummary(timer, files));
+            bagCreated = true;
 
-            cleanUpNamespacesAndSchemaLocation(mets);
-            // save enhanced file
-            XMLOutputter xmlOut = new XMLOutputter(Format.getPrettyFormat());
-            FileOutputStream fos = new FileOutputStream(bag.getIeFolder() + "/METS.xml");
-            xmlOut.output(doc, fos);
-            fos.close();
-
-            createBag(identifier);
+            if (fixityCache != null) {
+                fixityCache.save();
+                log.info("Checksum cache: {} hits, {} misses, {} bytes not read", fixityCache.getHits(), fixityCache.getMisses(),
+                        fixityCache.getBytesSaved());
+            }
 
         } catch (JDOMException | IOException e) {
             log.error(e);
         }
 
-        try {
-
-            //  bag.getBagitRoot().toString(), "data", identifier.replace("/", "_"
-
-            TarUtils.createTar(bag.getBagitRoot().getParent(),
-                    Paths.get(process.getProcessDataDirectory(), identifier.replace("/", "_") + "_bag.tar"));
-        } catch (IOException | SwapException e) {
-            log.error(e);
-        }
-
         // clean up temporary files after file was created
+        timer.start(PhaseTimer.CLEANUP);
+        if (archiveMetadata != null) {
+            archiveMetadata.cancel(true);
+        }
+        stopPayloadIngest(payloadExecutor, archiveMetadataTimeout);
+        // only needed for the performance history
+        long diskUsage = performanceHistory.isEnabled() ? getDiskUsage(exportFolder, archiveFile) : 0;
+        if (bagWriter != null) {
+            try {
+                bagWriter.close();
+            } catch (IOException e) {
+                log.error(e);
+            }
+        }
         if (!keepTempFiles) {
             Path folder = bag.getBagitRoot().getParent();
             StorageProvider.getInstance().deleteDir(folder);
         }
+        // the exported METS files are not part of the bag, they are removed in any case
+        if (exportFolder != null) {
+            StorageProvider.getInstance().deleteDir(exportFolder);
+        }
+        BagMetrics.getInstance().finishRun(timer);
+        log.info("Bag creation of {} finished: {}", identifier, timer);
+        RunSummary summary = createSummary(timer, files);
+        summary.setPeakDiskUsage(diskUsage);
+        performanceHistory.save(process, summary);
+        if (connection.isStreaming() && !bagCreated) {
+            // nothing was delivered
+            return PluginReturnValue.ERROR;
+        }
         return PluginReturnValue.FINISH;
     }
 
-    private String addActaProData(Element mets, String creationDate, String archiveId, String dmdIds) throws IOException {
-        // if actapro id exists
-        if (StringUtils.isNotBlank(archiveId)) {
-
-            Path eadFile = Paths.get(bag.getMetadataFolder().toString(), "descriptive", "ead.xml");
-            Path jsonFile = Paths.get(bag.getMetadataFolder().toString(), "descriptive", "node.json");
-
-            //   find ead file with the linked node id
-            String archiveEntry = findArchiveByNodeId(archiveIdFieldEad, archiveId);
-
-            // load record from database
-            IPlugin p = PluginLoader.getPluginByTitle(PluginType.Administration, "intranda_administration_archive_management");
-            IArchiveManagementAdministrationPlugin archive = (IArchiveManagementAdministrationPlugin) p;
-            archive.setDatabaseName(archiveEntry);
-            archive.loadSelectedDatabase();
-
-            // only store the node and its ancestors
+    /**
+     * Read the configured format of the archive file, tar is used if the value is unknown
+     * 
+     * @param config plugin configuration
+     * @return tar or tar.gz
+     */
+    public static String getArchiveFormat(SubnodeConfiguration config) {
+        String format = config.getString("/processingParameter/archiveFormat", ARCHIVE_FORMAT_TAR);
+        if (ARCHIVE_FORMAT_TAR_GZ.equalsIgnoreCase(format) || "tgz".equalsIgnoreCase(format)) {
+            return ARCHIVE_FORMAT_TAR_GZ;
+        }
+        return ARCHIVE_FORMAT_TAR;
+    }
 
-            // find node in archive
-            List<Integer> nodeIds = ArchiveManagementManager.simpleSearch(archive.getRecordGroup().getId(), archiveIdFieldEad, archiveId);
-            // nodelist should contain one id
+    /**
+     * Destination of the streamed tar file, either the local export folder or the remote folder on the archive server
+     */
+    private ArchiveTarget createSubmissionTarget(String archiveName) {
+        if (StringUtils.isNotBlank(connection.getLocalFolder())) {
+            return new ArchiveTarget.LocalFile(Paths.get(connection.getLocalFolder(), archiveName));
+        }
+        return new ArchiveTarget.Upload(connection, archiveName);
+    }
 
-            IEadEntry currentEntry = null;
-            for (IEadEntry entry : archive.getRootElement().getAllNodes()) {
-                if (nodeIds.contains(entry.getDatabaseId())) {
-                    currentEntry = entry;
-                    break;
-                }
-            }
+    /**
+     * Create converter for the exported METS file
+     */
+    private SipMetsConverter createConverter() {
+        SipMetsConverter converter = streamingMets ? new StreamingSipMetsConverter(bag, this) : new SipMetsConverter(bag, this);
+        converter.setSoftwareName(softwareName);
+        converter.setOrganizationName(organizationName);
+        converter.setOrganizationAddress(organizationAddress);
+        converter.setOrganizationIdentifier(organizationIdentifier);
+        converter.setContactName(contactName);
+        converter.setContactEmail(contactEmail);
+        return converter;
+    }
 
-            if (currentEntry != null) {
-                //  store file
-                if (!archiveEntry.endsWith(".xml")) {
-                    archiveEntry = archiveEntry + ".xml";
-                }
-                Document document = archive.createEadFileForNodeAndAncestors(currentEntry);
-                XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
-                try {
-                    outputter.output(document, Files.newOutputStream(eadFile));
-                } catch (IOException e) {
-                    log.error(e);
-                }
-            }
+    /**
+     * Start the EAD export and the ActaPro download in the background
+     *
+     * @param archiveId
+     * @param timer receives the events of the EAD export and the ActaPro download
+     * @return
+     */
+    private Future<ArchiveMetadata> prefetchArchiveMetadata(String archiveId, PhaseTimer timer) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(() -> fetchArchiveMetadata(archiveId, timer));
+        } finally {
+            // the thread ends after the task
+            executor.shutdown();
+        }
+    }
 
-            // download json document from actapro
-            try {
-                XMLConfiguration actaProConfig = new XMLConfiguration(
-                        ConfigurationHelper.getInstance().getConfigurationFolder() + "plugin_intranda_administration_actapro_sync.xml");
-                actaProConfig.setListDelimiter('&');
-                actaProConfig.setReloadingStrategy(new FileChangedReloadingStrategy());
-                actaProConfig.setExpressionEngine(new XPathExpressionEngine());
-                String authServiceUrl = actaProConfig.getString("/authentication/authServiceUrl");
-                String authServiceHeader = actaProConfig.getString("/authentication/authServiceHeader");
-                String authServiceUsername = actaProConfig.getString("/authentication/authServiceUsername");
-                String authServicePassword = actaProConfig.getString("/authentication/authServicePassword");
-                String connectorUrl = actaProConfig.getString("/connectorUrl");
-
-                try (Client client = ClientBuilder.newClient()) {
-                    AuthenticationToken token = ActaProApi.authenticate(client, authServiceHeader, authServiceUrl, authServiceUsername,
-                            authServicePassword);
-                    String value = ActaProApi.getJsonDocumentAsString(client, token, connectorUrl, archiveId);
-                    if (StringUtils.isNotBlank(value)) {
-                        // write to file
-                        Files.write(jsonFile, value.getBytes());
-                    }
-                }
+    /**
+     * Wait for the prefetched archive metadata and store the EAD record and the json document in the bag. If they are not available within the
+     * configured timeout, the bag is created without them.
+     *
+     * @param archiveMetadata
+     * @return true, if the archive metadata was stored
+     * @throws IOException
+     */
+    private boolean writeArchiveMetadata(Future<ArchiveMetadata> archiveMetadata) throws IOException {
+        ArchiveMetadata metadata;
+        try {
+            metadata = archiveMetadata.get(archiveMetadataTimeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            archiveMetadata.cancel(true);
+            log.error("Archive metadata was not available after {} seconds, the bag is created without it", archiveMetadataTimeout);
+            return false;
+        } catch (ExecutionException e) {
+            log.error("Archive metadata could not be loaded, the bag is created without it", e.getCause());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the archive metadata");
+        }
 
-            } catch (ConfigurationException e) {
-                log.error(e);
-            }
+        if (metadata.ead != null) {
+            writeFile(metadata.ead, Paths.get(bag.getMetadataFolder().toString(), "descriptive", "ead.xml"));
+        }
+        if (metadata.json != null) {
+            writeFile(metadata.json, Paths.get(bag.getMetadataFolder().toString(), "descriptive", "node.json"));
+        }
+        return true;
+    }
 
-            // add EAD.xml file to METS
-            String eadUuid = "uuid-" + UUID.randomUUID().toString();
-            Element eadDmd = new Element("dmdSec", metsNamespace);
-            eadDmd.setAttribute("CREATED", creationDate);
-            eadDmd.setAttribute("STATUS", "CURRENT");
-            eadDmd.setAttribute("ID", eadUuid);
-            Element mdRef = new Element("mdRef", metsNamespace);
-            mdRef.setAttribute("LOCTYPE", "URL");
-            mdRef.setAttribute("MDTYPE", "EAD");
-            mdRef.setAttribute("MDTYPEVERSION", "3");
-            mdRef.setAttribute("MIMETYPE", "text/xml");
-            mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
-
-            String filename = "metadata/descriptive/EAD.xml";
-            mdRef.setAttribute("href", filename, xlinkNamespace);
-            try {
-                mdRef.setAttribute("SIZE", "" + StorageProvider.getInstance().getFileSize(eadFile));
-            } catch (IOException e) {
-                log.error(e);
-            }
-            mdRef.setAttribute("CREATED", StorageProvider.getInstance().getFileCreationTime(eadFile));
-            mdRef.setAttribute("CHECKSUM", StorageProvider.getInstance().createSha256Checksum(eadFile));
-            eadDmd.addContent(mdRef);
-
-            for (int counter = 0; counter < mets.getChildren().size(); counter++) {
-                Element el = mets.getChildren().get(counter);
-                if ("amdSec".equals(el.getName())) {
-                    mets.addContent(counter, eadDmd);
-                    break;
-                }
-            }
+    /**
+     * Load the EAD record of the archive node and its ancestors and the json document from ActaPro
+     *
+     * @param archiveId
+     * @param timer receives the events of the EAD export and the ActaPro download
+     */
+    private ArchiveMetadata fetchArchiveMetadata(String archiveId, PhaseTimer timer) throws IOException {
+        ArchiveMetadata metadata = new ArchiveMetadata();
+
+        BagEvent eadEvent = timer.newEvent(BagEvent.EAD);
+        //   find ead file with the linked node id
+        String archiveEntry = ArchiveRecordLookup.findRecordGroup(archiveIdFieldEad, archiveId);
+        Document document = archiveEntry == null ? null : createEadDocument(archiveEntry, archiveId);
+        if (document != null) {
+            XMLOutputter xmlOut = new XMLOutputter(Format.getPrettyFormat());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            xmlOut.output(document, out);
+            metadata.ead = out.toByteArray();
+            eadEvent.setFile(archiveEntry);
+            eadEvent.setBytes(metadata.ead.length);
+        } else {
+            log.warn("Archive node {} was not found", archiveId);
+        }
+        eadEvent.commit();
 
-            // aff json file to METS
-            String jsonUuid = "uuid-" + UUID.randomUUID().toString();
-            Element jsonDmd = new Element("dmdSec", metsNamespace);
-            jsonDmd.setAttribute("CREATED", creationDate);
-            jsonDmd.setAttribute("STATUS", "CURRENT");
-            jsonDmd.setAttribute("ID", jsonUuid);
-            mdRef = new Element("mdRef", metsNamespace);
-            mdRef.setAttribute("LOCTYPE", "URL");
-            mdRef.setAttribute("MDTYPE", "EAD");
-            mdRef.setAttribute("MIMETYPE", "text/json");
-            mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
-
-            filename = "metadata/descriptive/node.json";
-            mdRef.setAttribute("href", filename, xlinkNamespace);
-            try {
-                mdRef.setAttribute("SIZE", "" + StorageProvider.getInstance().getFileSize(jsonFile));
-            } catch (IOException e) {
-                log.error(e);
-            }
-            mdRef.setAttribute("CREATED", StorageProvider.getInstance().getFileCreationTime(jsonFile));
-            mdRef.setAttribute("CHECKSUM", StorageProvider.getInstance().createSha256Checksum(jsonFile));
-            jsonDmd.addContent(mdRef);
-
-            for (int counter = 0; counter < mets.getChildren().size(); counter++) {
-                Element el = mets.getChildren().get(counter);
-                if ("amdSec".equals(el.getName())) {
-                    mets.addContent(counter, jsonDmd);
-                    break;
-                }
+        // download json document from actapro
+        BagEvent actaProEvent = timer.newEvent(BagEvent.ACTAPRO);
+        try {
+            // the session keeps client and token, so only the document is requested for each process
+            String value = ActaProSession.getInstance().getJsonDocument(archiveId);
+            if (StringUtils.isNotBlank(value)) {
+                metadata.json = value.getBytes();
+                actaProEvent.setFile(archiveId);
+                actaProEvent.setBytes(metadata.json.length);
             }
 
-            dmdIds = dmdIds + " " + eadUuid + " " + jsonUuid;
+        } catch (ConfigurationException e) {
+            log.error(e);
         }
-        return dmdIds;
+        actaProEvent.commit();
+        return metadata;
     }
 
-    private void changeAnchorFile(Path anchorFile) {
-        try {
-            // open file
-            Document anchorDoc = XmlTools.getSAXBuilder().build(anchorFile.toString());
-            Element mets = anchorDoc.getRootElement();
-            Element logicalDiv = mets.getChild("structMap", metsNamespace).getChild("div", metsNamespace);
-            Element mptr = logicalDiv.getChild("div", metsNamespace).getChild("mptr", metsNamespace);
-
-            String creationDate = createUserAgent(mets);
-
-            // amdSec
-            changeAmdSec(mets, creationDate, "-anchor", false);
-
-            // change dmdSec
-            Element dmdSec = mets.getChild("dmdSec", metsNamespace);
-            String dmdSecId = "MODS-" + dmdSec.getAttributeValue("ID");
-            dmdSec.setAttribute("ID", dmdSecId);
-            logicalDiv.setAttribute("DMDID", dmdSecId);
-            dmdSec.setAttribute("CREATED", creationDate); // CSIP19
-            dmdSec.setAttribute("STATUS", "CURRENT"); // CSIP20
-
-            // get mods element
-            Element mdWrap = dmdSec.getChild("mdWrap", metsNamespace);
-            Element xmlData = mdWrap.getChild("xmlData", metsNamespace);
-            Element mods = xmlData.getChild("mods", modsNamespace);
-            // create deep copy
-            Element copy = mods.clone();
-
-            // create external file, remove content from dmdSec, add file reference to dmdSec,
-            Element mdRef = createMetadataFile(copy, "metadata/", "descriptive/", dmdSecId,
-                    "http://www.loc.gov/mods/v3 http://www.loc.gov/standards/mods/v3/mods-3-7.xsd");
-            dmdSec.removeContent(mdWrap);
-            dmdSec.addContent(mdRef);
-
-            // update link in structMap
-            mptr.setAttribute("href", "../../../METS.xml", xlinkNamespace);
-
-        } catch (IOException | JDOMException e) {
-            log.error(e);
+    /**
+     * Create the EAD record of the node and its ancestors. It is only called after {@link ArchiveRecordLookup} found the node in the database.
+     *
+     * The EAD is created by the archive management library from the loaded tree, so the complete record group is loaded here and the memory
+     * usage depends on its size. The rows of archive_record_node only contain the field values, the mapping to EAD is part of the library.
+     *
+     * @param archiveEntry title of the record group containing the node
+     * @param archiveId
+     * @return the EAD document or null, if the node was not found
+     */
+    private Document createEadDocument(String archiveEntry, String archiveId) {
+        IPlugin p = PluginLoader.getPluginByTitle(PluginType.Administration, "intranda_administration_archive_management");
+        IArchiveManagementAdministrationPlugin archive = (IArchiveManagementAdministrationPlugin) p;
+        archive.setDatabaseName(archiveEntry);
+        archive.loadSelectedDatabase();
+
+        // find node in archive, the list should contain one id
+        Set<Integer> nodeIds = new HashSet<>(ArchiveManagementManager.simpleSearch(archive.getRecordGroup().getId(), archiveIdFieldEad, archiveId));
+        if (nodeIds.isEmpty()) {
+            return null;
+        }
+        for (IEadEntry entry : archive.getRootElement().getAllNodes()) {
+            if (nodeIds.contains(entry.getDatabaseId())) {
+                // only store the node and its ancestors
+                return archive.createEadFileForNodeAndAncestors(entry);
+            }
         }
+        return null;
     }
 
-    private void createPagination(DigitalDocument dd, DocStruct ds, DocStruct physical) {
+    private void createPagination(DigitalDocument dd, DocStruct ds, DocStruct physical, DirectorySnapshot snapshot,
+            MimeTypeResolver mimeTypeResolver) {
         try {
             if (physical.getAllChildren() == null || dd.getFileSet() == null || dd.getFileSet().getAllFiles().isEmpty()) {
                 Path masterfolder = Paths.get(process.getImagesOrigDirectory(false));
-                List<Path> list = getFolderContent(masterfolder);
+                List<Path> list = snapshot.getFiles(masterfolder);
                 if (!list.isEmpty()) {
+                    mimeTypeResolver.resolveAll(masterfolder.toString(), list, numberOfThreads);
                     DocStructType docStructPage = prefs.getDocStrctTypeByName("page");
                     MetadataType physmdt = prefs.getMetadataTypeByName("physPageNumber");
                     MetadataType logmdt = prefs.getMetadataTypeByName("logicalPageNumber");
@@ -619,7 +687,7 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
 
                     for (Path file : list) {
 
-                        String mimetype = NIOFileUtils.getMimeTypeFromFile(file);
+                        String mimetype = mimeTypeResolver.getMimeType(masterfolder.toString(), file);
                         DocStruct dsPage = dd.createDocStruct(docStructPage);
 
                         // physical page no
@@ -648,721 +716,221 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
         }
     }
 
-    private void createBag(String identifier) {
-        bag.addMetadata("Source-Organization", organizationName);
-        bag.addMetadata("Organization-Address", organizationAddress);
-        bag.addMetadata("Contact-Name", contactName);
-        bag.addMetadata("Contact-Email", contactEmail);
-        bag.addMetadata("Bagging-Software", softwareName);
-        bag.addMetadata("Process-ID", String.valueOf(process.getId()));
-        bag.addMetadata("External-Identifier", identifier.replace("/", "_") + "_bag");
-        bag.addMetadata("BagIt-Profile-Identifier", profileIdentifier);
-        try {
-            bag.addMetadata("Bag-Size", "" + StorageProvider.getInstance().getDirectorySize(bag.getIeFolder()));
-        } catch (IOException e) {
-            log.error(e);
-        }
-        bag.createBag();
-    }
-
-    private void removeStructLinks(Element mets) {
-        mets.removeChild("structLink", metsNamespace);
-    }
-
-    private void changeStructMap(Element mets, String identifier, String dmdIds) {
-        List<Element> structMaps = mets.getChildren("structMap", metsNamespace);
-        for (Element structMap : structMaps) {
-            if ("PHYSICAL".equals(structMap.getAttributeValue("TYPE"))) {
-                structMap.setAttribute("LABEL", "CSIP"); // CSIP82
-                structMap.setAttribute("ID", "uuid-" + UUID.randomUUID().toString()); // CSIP83
-                Element physSequence = structMap.getChild("div", metsNamespace); // CSIP84
-                physSequence.setAttribute("LABEL", identifier);
-                physSequence.removeAttribute("TYPE");
-
-                physSequence.removeContent();
-
-                Element metadataDiv = new Element("div", metsNamespace); // CSIP88
-                metadataDiv.setAttribute("LABEL", "Metadata"); // CSIP88
-                metadataDiv.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
-                metadataDiv.setAttribute("DMDID", dmdIds);
-                metadataDiv.setAttribute("ADMID", "RIGHTS DIGIPROV");
-
-                physSequence.addContent(metadataDiv);
-
-                // create a div lement for each fileGroup
-                Element fileSec = mets.getChild("fileSec", metsNamespace);
-                for (Element fileGrp : fileSec.getChildren()) {
-                    String fileGroupId = fileGrp.getAttributeValue("ID");
-                    String fileGroupLabel = fileGrp.getAttributeValue("USE");
-                    String href = fileGroupLabel.toLowerCase() + "/METS.xml";
-
-                    Element div = new Element("div", metsNamespace);
-                    div.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
-                    div.setAttribute("LABEL", fileGroupLabel);
-                    physSequence.addContent(div);
-                    if (fileGroupLabel.startsWith("Representations")) {
-                        Element mptr = new Element("mptr", metsNamespace);
-                        mptr.setAttribute("type", "simple", xlinkNamespace);
-                        mptr.setAttribute("href", href, xlinkNamespace);
-                        mptr.setAttribute("title", fileGroupId, xlinkNamespace);
-                        mptr.setAttribute("LOCTYPE", "URL");
-                        div.addContent(mptr);
-
-                    } else {
-                        Element fptr = new Element("fptr", metsNamespace);
-                        fptr.setAttribute("FILEID", fileGroupId);
-                        div.addContent(fptr);
-
-                    }
-                }
-            }
+    private RunSummary createSummary(PhaseTimer timer, Map<String, FileList> files) {
+        RunSummary summary = new RunSummary(RunSummary.CREATION, timer);
+        for (FileList fl : files.values()) {
+            summary.addFileList(fl);
         }
+        return summary;
     }
 
-    private void changeAmdSec(Element mets, String creationDate, String suffix, boolean anchorFileExists) {
-
-        Element amdSec = mets.getChild("amdSec", metsNamespace); // CSIP31
-        if (amdSec != null) {
-
-            Element digiprovMD = amdSec.getChild("digiprovMD", metsNamespace);
-            if (digiprovMD != null) {
-                digiprovMD.setAttribute("STATUS", "CURRENT"); // CSIP34
-                digiprovMD.setAttribute("CREATED", creationDate);
-                // generate separate files for content, create link to the file with mdRef // CSIP35 - CSIP44
-                Element mdWrap = digiprovMD.getChild("mdWrap", metsNamespace);
-                Element xmlData = mdWrap.getChild("xmlData", metsNamespace);
-                Element links = xmlData.getChild("links", dvNamespace);
-                // create deep copy
-                Element copy = links.clone();
-                try {
-                    Element mdRef = createMetadataFile(copy, "metadata/", "other/", "DIGIPROV" + suffix, "");
-                    mdRef.setAttribute("MDTYPE", "OTHER");
-                    mdRef.setAttribute("OTHERMDTYPE", "DVLINKS");
-
-                    digiprovMD.removeContent(mdWrap);
-                    digiprovMD.addContent(mdRef);
-                } catch (IOException e) {
-                    log.error(e);
-                }
-            }
-
-            Element rightsMD = amdSec.getChild("rightsMD", metsNamespace);
-            if (rightsMD != null) {
-                rightsMD.setAttribute("STATUS", "CURRENT"); // CSIP47
-                rightsMD.setAttribute("CREATED", creationDate);
-
-                // generate separate files for content, create link to the file with mdRef // CSIP48 - CSIP57
-                Element mdWrap = rightsMD.getChild("mdWrap", metsNamespace);
-                Element xmlData = mdWrap.getChild("xmlData", metsNamespace);
-                Element rights = xmlData.getChild("rights", dvNamespace);
-                // create deep copy
-                Element copy = rights.clone();
-                try {
-                    Element mdRef = createMetadataFile(copy, "metadata/", "other/", "DVRIGHTS" + suffix, "");
-                    mdRef.setAttribute("MDTYPE", "OTHER");
-                    mdRef.setAttribute("OTHERMDTYPE", "DVRIGHTS");
-                    rightsMD.removeContent(mdWrap);
-                    rightsMD.addContent(mdRef);
-                } catch (IOException e) {
-                    log.error(e);
-                }
-            }
-
-            if (anchorFileExists) {
-                // add entries for DIGIPROV-anchor and DVRIGHTS-anchor
-                String filename = "metadata/other/DVRIGHTS-anchor.xml";
-                Path file = Paths.get(bag.getIeFolder().toString(), filename);
-                if (StorageProvider.getInstance().isFileExists(file)) {
-                    Element anchorRightsMD = new Element("rightsMD", metsNamespace);
-                    anchorRightsMD.setAttribute("ID", "RIGHTS-anchor");
-                    anchorRightsMD.setAttribute("STATUS", "CURRENT");
-                    anchorRightsMD.setAttribute("CREATED", creationDate);
-
-                    Element mdRef = new Element("mdRef", metsNamespace);
-                    mdRef.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
-                    mdRef.setAttribute("LOCTYPE", "URL");
-                    mdRef.setAttribute("MDTYPE", "OTHER");
-                    mdRef.setAttribute("MIMETYPE", "text/xml");
-                    mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
-                    mdRef.setAttribute("type", "simple", xlinkNamespace);
-                    mdRef.setAttribute("href", filename, xlinkNamespace);
-                    mdRef.setAttribute("OTHERMDTYPE", "DVRIGHTS");
-                    try {
-                        mdRef.setAttribute("SIZE", "" + StorageProvider.getInstance().getFileSize(file));
-                    } catch (IOException e) {
-                        log.error(e);
-                    }
-                    mdRef.setAttribute("CREATED", StorageProvider.getInstance().getFileCreationTime(file));
-                    mdRef.setAttribute("CHECKSUM", StorageProvider.getInstance().createSha256Checksum(file));
-                    anchorRightsMD.addContent(mdRef);
-                    amdSec.addContent(1, anchorRightsMD);
-                }
-
-                filename = "metadata/other/DIGIPROV-anchor.xml";
-                file = Paths.get(bag.getIeFolder().toString(), filename);
-                if (StorageProvider.getInstance().isFileExists(file)) {
-                    Element anchorRightsMD = new Element("digiprovMD", metsNamespace);
-                    anchorRightsMD.setAttribute("ID", "DIGIPROV-anchor");
-                    anchorRightsMD.setAttribute("STATUS", "CURRENT");
-                    anchorRightsMD.setAttribute("CREATED", creationDate);
-
-                    Element mdRef = new Element("mdRef", metsNamespace);
-                    mdRef.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
-                    mdRef.setAttribute("LOCTYPE", "URL");
-                    mdRef.setAttribute("MDTYPE", "OTHER");
-                    mdRef.setAttribute("MIMETYPE", "text/xml");
-                    mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
-                    mdRef.setAttribute("type", "simple", xlinkNamespace);
-                    mdRef.setAttribute("href", filename, xlinkNamespace);
-                    mdRef.setAttribute("OTHERMDTYPE", "DVRIGHTS");
-                    try {
-                        mdRef.setAttribute("SIZE", "" + StorageProvider.getInstance().getFileSize(file));
-                    } catch (IOException e) {
-                        log.error(e);
-                    }
-                    mdRef.setAttribute("CREATED", StorageProvider.getInstance().getFileCreationTime(file));
-                    mdRef.setAttribute("CHECKSUM", StorageProvider.getInstance().createSha256Checksum(file));
-                    anchorRightsMD.addContent(mdRef);
-                    amdSec.addContent(amdSec.getChildren().size(), anchorRightsMD);
-                }
-            }
+    /**
+     * Size of the temporary files shortly before they are deleted. As they only grow during the run, this is the peak usage. The sizes are taken
+     * from the bag writer, linked payload files are not counted.
+     */
+    private long getDiskUsage(Path exportFolder, Path archiveFile) {
+        long size = 0;
+        if (bagWriter != null) {
+            size += bagWriter.getStagedSize();
         }
-    }
-
-    private String changeDmdSecs(Element mets, String creationDate) {
-        StringBuilder ids = new StringBuilder();
-
-        List<Element> dmdSecs = mets.getChildren("dmdSec", metsNamespace);
-        List<Element> logicalElements = new ArrayList<>();
-        List<Element> structMaps = mets.getChildren("structMap", metsNamespace);
-        for (Element structMap : structMaps) {
-            if ("LOGICAL".equals(structMap.getAttributeValue("TYPE"))) {
-                getAllDivElements(logicalElements, structMap);
-            }
+        List<Path> files = new ArrayList<>();
+        if (exportFolder != null) {
+            files.add(exportFolder.resolve("METS.xml"));
+            files.add(exportFolder.resolve("METS_anchor.xml"));
         }
-        Element mainElement = dmdSecs.get(0);
-        Element topElement = logicalElements.get(0);
-
-        Element anchorDmdSec = null;
-        // check if we have an anchor element, first sub element is mets:mptr
-        if (!topElement.getChildren().isEmpty()) {
-            Element subElement = topElement.getChildren().get(0);
-            if ("mptr".equals(subElement.getName())) {
-                //  remove mptr
-                topElement.setAttribute("ADMID", "RIGHTS-anchor DIGIPROV-anchor");
-                topElement.setAttribute("DMDID", "MODS-DMDLOG_0000");
-                topElement.setAttribute("ID", "LOG_0000");
-                topElement.removeContent(subElement);
-                topElement = topElement.getChildren().get(0);
-
-                anchorDmdSec = new Element("dmdSec", metsNamespace);
-                anchorDmdSec.setAttribute("CREATED", creationDate);
-                anchorDmdSec.setAttribute("STATUS", "CURRENT");
-                anchorDmdSec.setAttribute("ID", "MODS-DMDLOG_0000");
-                Element mdRef = new Element("mdRef", metsNamespace);
-                mdRef.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
-                mdRef.setAttribute("LOCTYPE", "URL");
-                mdRef.setAttribute("MDTYPE", "MODS");
-                mdRef.setAttribute("MIMETYPE", "text/xml");
-                mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
-                mdRef.setAttribute("type", "simple", xlinkNamespace);
-
-                String filename = "metadata/descriptive/MODS-DMDLOG_0000.xml";
-                Path file = Paths.get(bag.getIeFolder().toString(), filename);
-                mdRef.setAttribute("href", filename, xlinkNamespace);
-
-                try {
-                    mdRef.setAttribute("SIZE", "" + StorageProvider.getInstance().getFileSize(file));
-                } catch (IOException e) {
-                    log.error(e);
-                }
-                mdRef.setAttribute("CREATED", StorageProvider.getInstance().getFileCreationTime(file));
-                mdRef.setAttribute("CHECKSUM", StorageProvider.getInstance().createSha256Checksum(file));
-                anchorDmdSec.addContent(mdRef);
-            }
+        if (archiveFile != null) {
+            files.add(archiveFile);
         }
-
-        mainElement.setAttribute("ID", "MODS");
-        topElement.setAttribute("ADMID", "RIGHTS DIGIPROV");
-        topElement.setAttribute("DMDID", "MODS");
-
-        for (Element dmdSec : dmdSecs) {
-            String dmdSecId = dmdSec.getAttributeValue("ID");
-            Element logicalDiv = null;
-            for (Element div : logicalElements) {
-                String divId = div.getAttributeValue("DMDID");
-                if (StringUtils.isNotBlank(divId) && divId.equals(dmdSecId)) {
-                    logicalDiv = div;
-                    break;
-                }
-            }
-
-            if (dmdSecId.startsWith("DMDLOG")) {
-                dmdSecId = "MODS-" + dmdSecId;
-                dmdSec.setAttribute("ID", dmdSecId);
-            }
-
-            if (logicalDiv != null) {
-                logicalDiv.setAttribute("DMDID", dmdSecId);
-            }
-
-            if (ids.length() > 0) {
-                ids.append(" ");
-            }
-            ids.append(dmdSecId);
-
-            dmdSec.setAttribute("CREATED", creationDate); // CSIP19
-            dmdSec.setAttribute("STATUS", "CURRENT"); // CSIP20
-
-            // get mods element
-            Element mdWrap = dmdSec.getChild("mdWrap", metsNamespace);
-            Element xmlData = mdWrap.getChild("xmlData", metsNamespace);
-            Element mods = xmlData.getChild("mods", modsNamespace);
-
-            // create deep copy
-            Element copy = mods.clone();
+        for (Path file : files) {
             try {
-                // create external file, remove content from dmdSec, add file reference to dmdSec,
-                Element mdRef = createMetadataFile(copy, "metadata/", "descriptive/", dmdSecId,
-                        "http://www.loc.gov/mods/v3 http://www.loc.gov/standards/mods/v3/mods-3-7.xsd");
-                dmdSec.removeContent(mdWrap);
-                dmdSec.addContent(mdRef);
+                if (Files.exists(file)) {
+                    size += Files.size(file);
+                }
             } catch (IOException e) {
                 log.error(e);
             }
         }
-
-        //  add new dmdSec above amdSec
-        if (anchorDmdSec != null) {
-            for (int counter = 0; counter < mets.getChildren().size(); counter++) {
-                Element el = mets.getChildren().get(counter);
-                if ("amdSec".equals(el.getName())) {
-                    mets.addContent(counter, anchorDmdSec);
-                    break;
-                }
-            }
-        }
-
-        return ids.toString();
+        return size;
     }
 
-    private void getAllDivElements(List<Element> logicalElements, Element structMap) {
-        List<Element> divs = structMap.getChildren();
-        if (!divs.isEmpty()) {
-            logicalElements.addAll(divs);
-            for (Element div : divs) {
-                if (!div.getChildren().isEmpty()) {
-                    getAllDivElements(logicalElements, div);
-                }
-            }
+    private void createBag(String identifier, RunSummary summary) throws IOException {
+        Map<String, String> bagInfo = new LinkedHashMap<>();
+        bagInfo.put("Source-Organization", organizationName);
+        bagInfo.put("Organization-Address", organizationAddress);
+        bagInfo.put("Contact-Name", contactName);
+        bagInfo.put("Contact-Email", contactEmail);
+        bagInfo.put("Bagging-Software", softwareName);
+        bagInfo.put("Process-ID", String.valueOf(process.getId()));
+        bagInfo.put("External-Identifier", identifier.replace("/", "_") + "_bag");
+        bagInfo.put("BagIt-Profile-Identifier", profileIdentifier);
+        if (performanceHistory.isBagInfo()) {
+            bagInfo.putAll(summary.toBagInfo());
         }
-    }
-
-    private Element createMetadataFile(Element root, String metadataFolder, String subFolder, String filename, String schemaLocation)
-            throws IOException {
-        if (StringUtils.isNotBlank(schemaLocation)) {
-            root.addNamespaceDeclaration(xsiNamespace);
-            root.setAttribute("schemaLocation", schemaLocation, xsiNamespace);
-        }
-
-        Document doc = new Document();
-        doc.setRootElement(root);
-        Path fileName = null;
-        if (StringUtils.isNotBlank(subFolder)) {
-            fileName = Paths.get(bag.getMetadataFolder().toString(), subFolder, filename + ".xml");
-            StorageProvider.getInstance().createDirectories(fileName.getParent());
-        } else {
-            fileName = Paths.get(bag.getMetadataFolder().toString(), filename + ".xml");
+        try {
+            bagInfo.put("Bag-Size", "" + bagWriter.getPayloadSize());
+        } catch (IOException e) {
+            log.error(e);
         }
+        bagWriter.finish(bagInfo);
+    }
 
-        cleanUpNamespacesAndSchemaLocation(root);
-        XMLOutputter xmlOut = new XMLOutputter(Format.getPrettyFormat());
-        FileOutputStream fos = new FileOutputStream(fileName.toString());
-        xmlOut.output(doc, fos);
-        fos.close();
-
-        Element mdRef = new Element("mdRef", metsNamespace);
-        mdRef.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
-        mdRef.setAttribute("LOCTYPE", "URL");
-        mdRef.setAttribute("MDTYPE", "MODS");
-        mdRef.setAttribute("MIMETYPE", "text/xml");
-        mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
-        mdRef.setAttribute("type", "simple", xlinkNamespace);
-        mdRef.setAttribute("href", metadataFolder + subFolder + filename + ".xml", xlinkNamespace);
-
-        mdRef.setAttribute("SIZE", "" + StorageProvider.getInstance().getFileSize(fileName));
-        mdRef.setAttribute("CREATED", StorageProvider.getInstance().getFileCreationTime(fileName));
-        mdRef.setAttribute("CHECKSUM", StorageProvider.getInstance().createSha256Checksum(fileName));
-
-        return mdRef;
-
+    /**
+     * Write a generated file into the bag. Size and checksum are taken from the content, the file does not need to be read again
+     * 
+     * @param content
+     * @param fileName
+     * @return
+     * @throws IOException
+     */
+    private PayloadFile writeFile(byte[] content, Path fileName) throws IOException {
+        return writeFile(fileName, content.length, new ByteArrayInputStream(content));
     }
 
-    private String createUserAgent(Element mets) {
-        /*
-        <mets:agent ROLE="CREATOR" TYPE="INDIVIDUAL">
-          <mets:name />
-          <mets:note csip:NOTETYPE="IDENTIFICATIONCODE">1</mets:note>
-        </mets:agent>
-         */
-
-        // software
-        Element metsHdr = mets.getChild("metsHdr", metsNamespace);
-        metsHdr.setAttribute("OAISPACKAGETYPE", "SIP", csipNamespace); // SIP4
-        metsHdr.setAttribute("RECORDSTATUS", "NEW"); // SIP3
-        String creationDate = metsHdr.getAttributeValue("CREATEDATE");
-        Element agent = metsHdr.getChild("agent", metsNamespace);
-
-        Element name = agent.getChild("name", metsNamespace);
-        name.setText(softwareName);
-        Element noteVersion = agent.getChild("note", metsNamespace);
-        if (noteVersion == null) {
-            noteVersion = new Element("note", metsNamespace);
-            agent.addContent(noteVersion);
+    @Override
+    public PayloadFile writeFile(Path fileName, long size, InputStream content) throws IOException {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        try (OutputStream out = bagWriter.newOutputStream(fileName, size)) {
+            new DigestInputStream(content, digest).transferTo(out);
         }
-        noteVersion.setAttribute("NOTETYPE", "SOFTWARE VERSION", csipNamespace); // SIP20
-        noteVersion.setText(GoobiVersion.getVersion());
-
-        // organization
-        Element agent2 = new Element("agent", metsNamespace);
-        agent2.setAttribute("ROLE", "CREATOR");
-        agent2.setAttribute("TYPE", "ORGANIZATION");
-        metsHdr.addContent(agent2);
-        Element organisationName = new Element("name", metsNamespace);
-        organisationName.setText(organizationName); // SIP24
-        agent2.addContent(organisationName);
-
-        Element organisationNote = new Element("note", metsNamespace);
-        organisationNote.setText(organizationAddress);
-        agent2.addContent(organisationNote);
-
-        Element identificationNote = new Element("note", metsNamespace);
-        identificationNote.setText(organizationIdentifier);
-        identificationNote.setAttribute("NOTETYPE", "IDENTIFICATIONCODE", csipNamespace); // SIP20
-        agent2.addContent(identificationNote);
-
-        // individual
-        Element agent3 = new Element("agent", metsNamespace);
-        agent3.setAttribute("ROLE", "CREATOR"); // SIP16
-        agent3.setAttribute("TYPE", "INDIVIDUAL"); // SIP17
-        metsHdr.addContent(agent3);
-        Element name3 = new Element("name", metsNamespace);
-        name3.setText(contactName); // SIP24
-        agent3.addContent(name3);
-        Element note3 = new Element("note", metsNamespace);
-        note3.setText(contactEmail);
-        agent3.addContent(note3);
-        return creationDate;
+        PayloadFile fileInformation = new PayloadFile();
+        fileInformation.setDestination(fileName);
+        fileInformation.setSize(size);
+        fileInformation.setChecksum(Hex.encodeHexString(digest.digest()));
+        fileInformation.setCreationTime(bagWriter.getCreationTime(fileName));
+        bagWriter.addChecksum(fileName, fileInformation.getChecksum());
+        generatedFiles.put(fileName, fileInformation);
+        return fileInformation;
     }
 
-    private void changeFileSec(Map<String, FileList> files, Element mets, String creationDate) throws IOException {
-        Element fileSec = mets.getChild("fileSec", metsNamespace);
-        fileSec.setAttribute("ID", "uuid-" + UUID.randomUUID().toString()); // CSIP59
-
-        List<Element> filegroupsToDelete = new ArrayList<>();
-
-        for (Element fileGrp : fileSec.getChildren("fileGrp", metsNamespace)) {
-            fileGrp.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
+    @Override
+    public boolean isFileInBag(Path file) {
+        return generatedFiles.containsKey(file) || StorageProvider.getInstance().isFileExists(file);
+    }
 
-            String name = fileGrp.getAttributeValue("USE");
-            FileList fl = files.get(name);
-            List<Path> filesInFolder = fl.getFiles();
-            String sourceFolderName = fl.getSourceFolder().toString();
-            // remove filegrp if file list is empty
-            if (filesInFolder.isEmpty()) {
-                filegroupsToDelete.add(fileGrp);
-                continue;
+    /**
+     * Get size and checksum of a file in the bag. Files written during the current run are not read again, the checksum of other files is taken
+     * from the checksum cache, if it is enabled
+     * 
+     * @param file
+     * @return
+     */
+    @Override
+    public PayloadFile getFileInformation(Path file) {
+        PayloadFile fileInformation = generatedFiles.get(file);
+        if (fileInformation == null) {
+            fileInformation = new PayloadFile();
+            fileInformation.setDestination(file);
+            long lastModified = 0;
+            try {
+                fileInformation.setSize(StorageProvider.getInstance().getFileSize(file));
+                lastModified = Files.getLastModifiedTime(file).toMillis();
+            } catch (IOException e) {
+                log.error(e);
             }
-            if (name.startsWith("Representations")) {
-                List<Element> filesToDelete = new ArrayList<>();
-                List<Element> filesInXml = fileGrp.getChildren("file", metsNamespace);
-                for (int i = 0; i < filesInXml.size(); i++) {
-                    Element fileElement = filesInXml.get(i);
-                    if (filesInFolder.size() > i) {
-                        Path file = filesInFolder.get(i);
-                        String filename = file.toString().replace(sourceFolderName, "");
-                        // checksum, filesize, changedate
-                        fileElement.setAttribute("SIZE", "" + StorageProvider.getInstance().getFileSize(file)); // CSIP69
-                        fileElement.setAttribute("CREATED", StorageProvider.getInstance().getFileCreationTime(file)); // CSIP70
-                        fileElement.setAttribute("CHECKSUM", StorageProvider.getInstance().createSha256Checksum(file)); // CSIP71
-                        fileElement.setAttribute("CHECKSUMTYPE", "SHA-256"); // CSIP72
-                        Element flocat = fileElement.getChild("FLocat", metsNamespace);
-                        flocat.setAttribute("type", "simple", xlinkNamespace); // CSIP78
-                        flocat.setAttribute("href", "data" + URLEncoder.encode(filename, "UTF-8").replace("%2F", "/"), xlinkNamespace); // CSIP78
-                    } else {
-                        // if actual filesize is smaller than filegroup size, remove superfluous files
-                        filesToDelete.add(fileElement);
-                    }
+            fileInformation.setCreationTime(StorageProvider.getInstance().getFileCreationTime(file));
+            String checksum = fixityCache == null ? null : fixityCache.lookup(file, fileInformation.getSize(), lastModified);
+            if (checksum == null) {
+                checksum = StorageProvider.getInstance().createSha256Checksum(file);
+                if (fixityCache != null) {
+                    fixityCache.store(file, fileInformation.getSize(), lastModified, checksum);
                 }
-                for (Element file : filesToDelete) {
-                    fileGrp.removeContent(file);
-                }
-
-                // create separate file for each fileGrp, create link to the file with mdRef (CSIP76 - SIP35)
-                Element clone = fileGrp.clone();
-
-                Element file = createFileGroupFile(mets, clone, creationDate);
-
-                fileGrp.removeContent();
-                fileGrp.addContent(file);
-
             } else {
-
-                // clear existing files in filegrp
-                fileGrp.removeContent();
-
-                // for each file add a new file
-
-                for (Path file : filesInFolder) {
-
-                    Element fileElement = new Element("file", metsNamespace);
-                    // checksum, filesize, changedate
-                    fileElement.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
-                    fileElement.setAttribute("SIZE", "" + StorageProvider.getInstance().getFileSize(file)); // CSIP69
-                    fileElement.setAttribute("CREATED", StorageProvider.getInstance().getFileCreationTime(file)); // CSIP70
-                    fileElement.setAttribute("CHECKSUM", StorageProvider.getInstance().createSha256Checksum(file)); // CSIP71
-                    fileElement.setAttribute("CHECKSUMTYPE", "SHA-256"); // CSIP72
-
-                    Element flocat = new Element("FLocat", metsNamespace);
-
-                    String filename = file.toString().replace(sourceFolderName, "");
-
-                    flocat.setAttribute("LOCTYPE", "URL");
-                    flocat.setAttribute("type", "simple", xlinkNamespace); // CSIP78
-                    if ("Other".equals(name)) {
-                        fileElement.setAttribute("MIMETYPE", "text/xml");
-                        flocat.setAttribute("href", "other/" + file.getFileName().toString(), xlinkNamespace); // CSIP78
-                    } else {
-                        String mimetype;
-                        if (fl.isUseOrigFileExtension()) {
-                            mimetype = NIOFileUtils.getMimeTypeFromFile(file);
-                        } else {
-                            mimetype = fl.getMimetype();
-                        }
-                        fileElement.setAttribute("MIMETYPE", mimetype);
-                        flocat.setAttribute("href", fl.getFileGroupName().toLowerCase() + URLEncoder.encode(filename, "UTF-8").replace("%2F", "/"),
-                                xlinkNamespace); // CSIP78
-                    }
-                    fileElement.addContent(flocat);
-                    fileGrp.addContent(fileElement);
-                }
+                fixityCache.addBytesSaved(fileInformation.getSize());
             }
+            fileInformation.setChecksum(checksum);
         }
+        return fileInformation;
+    }
 
-        for (Element fileGroup : filegroupsToDelete) {
-            fileSec.removeContent(fileGroup);
-        }
-
-        // copy files
-        for (Entry<String, FileList> entry : files.entrySet()) {
-
-            String folderName = entry.getKey().replace("Representations/", "").replace("Documentation/", "").replace("Attachments/", "");
-            Path sourceFolder = entry.getValue().getSourceFolder();
-
-            Path destinationFolder = null;
-            if (entry.getKey().startsWith("Representations")) {
-                destinationFolder = Paths.get(bag.getObjectsFolder().toString(), folderName, "data");
-            } else if (entry.getKey().startsWith("Other")) {
-                continue;
-            } else if (entry.getKey().startsWith("Attachments")) {
-                destinationFolder = Paths.get(bag.getAttachmentsFolder().toString());
-            } else {
-                destinationFolder = Paths.get(bag.getDocumentationFolder().toString());
+    /**
+     * Copy the payload files of all file lists into the bag in the background. The duration is added as background phase.
+     */
+    private Future<Void> startPayloadIngest(ExecutorService executor, Map<String, FileList> files, DirectorySnapshot snapshot, PhaseTimer timer) {
+        return executor.submit(() -> {
+            long start = System.nanoTime();
+            BagEvent event = timer.newEvent(PhaseTimer.PAYLOAD);
+            try (PayloadIngester ingester = new PayloadIngester(numberOfThreads, fixityCache, bagWriter)) {
+                ingester.setSnapshot(snapshot);
+                for (FileList fl : files.values()) {
+                    ingestPayload(ingester, fl);
+                }
+            } finally {
+                event.commit();
+                timer.addBackgroundPhase(PhaseTimer.PAYLOAD, (System.nanoTime() - start) / 1000000);
             }
-
-            StorageProvider.getInstance().createDirectories(destinationFolder);
-            StorageProvider.getInstance().copyDirectory(sourceFolder, destinationFolder);
-        }
-
+            return null;
+        });
     }
 
-    private Element createFileGroupFile(Element oldMets, Element fileGrp, String creationDate) throws IOException {
-        String use = fileGrp.getAttributeValue("USE");
-        fileGrp.setAttribute("USE", "Data"); // replace use value
-        String fileGrpType = use.replace("Representations/", "").replace("Documentation/", "").replace("Other/", "");
-
-        int numberOfFiles = 0;
-        List<String> fileIdentifier = new ArrayList<>();
-        for (Element file : fileGrp.getChildren("file", metsNamespace)) {
-            numberOfFiles++;
-            String fileId = file.getAttributeValue("ID");
-            fileIdentifier.add(fileId);
-            if (!fileId.startsWith("uuid")) {
-                file.setAttribute("ID", "uuid-" + fileId);
+    /**
+     * Wait until all payload files are copied
+     *
+     * @param payload
+     * @throws IOException if a file could not be copied
+     */
+    private static void waitForPayload(Future<Void> payload) throws IOException {
+        try {
+            payload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the payload files");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
+            throw new IOException(e.getCause());
         }
+    }
 
-        //  create new mets file
-        Element metsRoot = new Element("mets", metsNamespace);
-        metsRoot.addNamespaceDeclaration(sipNamespace);
-        metsRoot.addNamespaceDeclaration(csipNamespace);
-        metsRoot.addNamespaceDeclaration(xlinkNamespace);
-        metsRoot.addNamespaceDeclaration(xsiNamespace);
-        metsRoot.setAttribute("OBJID", fileGrpType);
-        metsRoot.setAttribute("LABEL", fileGrpType + " copy");
-        metsRoot.setAttribute("TYPE", "Mixed");
-        metsRoot.setAttribute("CONTENTINFORMATIONTYPE", "MIXED", csipNamespace);
-        metsRoot.setAttribute("PROFILE", "https://earksip.dilcis.eu/profile/E-ARK-SIP.xml");
-        metsRoot.setAttribute("schemaLocation",
-                "http://www.loc.gov/mods/v3 http://www.loc.gov/standards/mods/v3/mods-3-7.xsd http://www.loc.gov/METS/ https://www.loc.gov/standards/mets/version112/mets.xsd",
-                xsiNamespace);
-        Element metsHdr = new Element("metsHdr", metsNamespace);
-        metsHdr.setAttribute("CREATEDATE", creationDate);
-        metsHdr.setAttribute("LASTMODDATE", creationDate);
-        metsHdr.setAttribute("RECORDSTATUS", "NEW");
-        metsHdr.setAttribute("OAISPACKAGETYPE", "SIP", csipNamespace);
-        metsRoot.addContent(metsHdr);
-        Element fileSec = new Element("fileSec", metsNamespace);
-        fileSec.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
-        metsRoot.addContent(fileSec);
-        fileSec.addContent(fileGrp);
-
-        // structMap
-        List<String> pageIDs = new ArrayList<>();
-        List<Element> structMaps = oldMets.getChildren("structMap", metsNamespace);
-        for (Element structMap : structMaps) {
-            if ("PHYSICAL".equals(structMap.getAttributeValue("TYPE"))) {
-                pageIDs = createPhysicalStructMap(fileGrpType, fileIdentifier, metsRoot, structMap, numberOfFiles);
-            }
-
+    /**
+     * Stop copying payload files after an error. The bag writer is closed afterwards, so the method waits until the current files are finished,
+     * but not longer than the configured timeout.
+     *
+     * @param executor
+     * @param timeout seconds to wait
+     */
+    private static void stopPayloadIngest(ExecutorService executor, int timeout) {
+        if (executor == null) {
+            return;
         }
-
-        // structLink
-        Element structLink = oldMets.getChild("structLink", metsNamespace).clone();
-        //  remove non existing, superfluous files
-        List<Element> smLinkRemoveList = new ArrayList<>();
-
-        for (Element smLink : structLink.getChildren()) {
-            String toId = smLink.getAttributeValue("to", xlinkNamespace);
-            if (pageIDs.contains(toId)) {
-                smLink.setAttribute("from", "../../METS.xml#" + smLink.getAttributeValue("from", xlinkNamespace), xlinkNamespace);
-            } else {
-                smLinkRemoveList.add(smLink);
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(timeout, TimeUnit.SECONDS)) {
+                log.error("Payload files are still copied after {} seconds", timeout);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        for (Element page : smLinkRemoveList) {
-            structLink.removeContent(page);
-        }
-
-        metsRoot.addContent(structLink);
-
-        Document doc = new Document();
-        doc.setRootElement(metsRoot);
-        Path fileName = null;
-
-        if (use.startsWith("Representations")) {
-            fileName = Paths.get(bag.getObjectsFolder().toString(), fileGrpType, "METS.xml");
-        } else if (use.startsWith("Documentation")) {
-            fileName = Paths.get(bag.getDocumentationFolder().toString(), fileGrpType, "METS.xml");
-        } else if (use.startsWith("Attachment")) {
-            fileName = Paths.get(bag.getAttachmentsFolder().toString(), fileGrpType, "METS.xml");
-        } else {
-            //other
-            fileName = Paths.get(bag.getOtherFolder().toString(), fileGrpType, "METS.xml");
+    /**
+     * Copy all files of the list into the bag. Each file is read only once, size and checksum are calculated during the copy process
+     * 
+     * @param ingester
+     * @param fl
+     * @throws IOException
+     */
+    private void ingestPayload(PayloadIngester ingester, FileList fl) throws IOException {
+        Path destinationFolder = getDestinationFolder(fl.getFileGroupName());
+        Path sourceFolder = fl.getSourceFolder();
+        List<Path> destinations = new ArrayList<>();
+        for (Path file : fl.getFiles()) {
+            destinations.add(destinationFolder.resolve(sourceFolder.relativize(file).toString()));
         }
-
-        StorageProvider.getInstance().createDirectories(fileName.getParent());
-
-        cleanUpNamespacesAndSchemaLocation(metsRoot);
-        XMLOutputter xmlOut = new XMLOutputter(Format.getPrettyFormat());
-        FileOutputStream fos = new FileOutputStream(fileName.toString());
-        xmlOut.output(doc, fos);
-        fos.close();
-
-        Element file = new Element("file", metsNamespace);
-
-        file.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
-        file.setAttribute("MIMETYPE", "text/xml");
-        file.setAttribute("SIZE", "" + StorageProvider.getInstance().getFileSize(fileName));
-        file.setAttribute("CREATED", StorageProvider.getInstance().getFileCreationTime(fileName));
-        file.setAttribute("CHECKSUM", StorageProvider.getInstance().createSha256Checksum(fileName));
-        file.setAttribute("CHECKSUMTYPE", "SHA-256");
-
-        Element flocat = new Element("FLocat", metsNamespace);
-        flocat.setAttribute("type", "simple", xlinkNamespace);
-        flocat.setAttribute("href", use.toLowerCase() + "/METS.xml", xlinkNamespace);
-        flocat.setAttribute("LOCTYPE", "URL");
-        file.addContent(flocat);
-        return file;
+        fl.setPayloadFiles(ingester.ingestAll(fl.getFiles(), destinations));
     }
 
-    private List<String> createPhysicalStructMap(String fileGrpType, List<String> fileIdentifier, Element metsRoot, Element structMap,
-            int numberOfFiles) {
-        Element physSequence = structMap.getChild("div", metsNamespace).clone();
-
-        Element physicalStructMap = new Element("structMap", metsNamespace);
-        physicalStructMap.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
-        physicalStructMap.setAttribute("TYPE", "PHYSICAL");
-        physicalStructMap.setAttribute("LABEL", "CSIP");
-        metsRoot.addContent(physicalStructMap);
-
-        Element div = new Element("div", metsNamespace);
-        div.setAttribute("ID", "uuid-" + UUID.randomUUID().toString());
-        div.setAttribute("TYPE", "OTHER");
-        div.setAttribute("LABEL", fileGrpType);
-        physicalStructMap.addContent(div);
-
-        physSequence.setAttribute("LABEL", "Data");
-
-        div.addContent(physSequence);
-        // remove non existing, superfluous files
-
-        // run through fptr and remove fptr for other filegroups
-        List<Element> fptrRemoveList = new ArrayList<>();
-        List<Element> pageRemoveList = new ArrayList<>();
-        int pageNo = 0;
-        for (Element page : physSequence.getChildren("div", metsNamespace)) {
-            if (pageNo < numberOfFiles) {
-                for (Element fptr : page.getChildren("fptr", metsNamespace)) {
-                    String fptrId = fptr.getAttributeValue("FILEID");
-                    if (!fileIdentifier.contains(fptrId)) {
-                        fptrRemoveList.add(fptr);
-                    } else if (!fptrId.startsWith("uuid")) {
-                        fptr.setAttribute("FILEID", "uuid-" + fptrId);
-                    }
-
-                    List<Element> fileSeq = fptr.getChildren("seq", metsNamespace);
-                    if (fileSeq != null) {
-                        for (Element seq : fileSeq) {
-                            for (Element area : seq.getChildren("area", metsNamespace)) {
-                                String areaId = area.getAttributeValue("FILEID");
-                                if (!areaId.startsWith("uuid")) {
-                                    area.setAttribute("FILEID", "uuid-" + areaId);
-                                }
-                            }
-                        }
-                    }
-                }
-            } else {
-                pageRemoveList.add(page);
-            }
-            pageNo++;
-        }
-        for (Element fptr : fptrRemoveList) {
-            fptr.getParent().removeContent(fptr);
-        }
-        for (Element page : pageRemoveList) {
-            physSequence.removeContent(page);
-        }
-        // finally list all remaining page/area identifier
-        List<String> idList = new ArrayList<>();
-        for (Element page : physSequence.getChildren("div", metsNamespace)) {
-            String pageId = page.getAttributeValue("ID");
-            idList.add(pageId);
-            for (Element fptr : page.getChildren("fptr", metsNamespace)) {
-                List<Element> fileSeq = fptr.getChildren("seq", metsNamespace);
-                if (fileSeq != null) {
-                    for (Element seq : fileSeq) {
-                        for (Element area : seq.getChildren("area", metsNamespace)) {
-                            String areaId = area.getAttributeValue("ID");
-                            idList.add(areaId);
-                        }
-                    }
-                }
-            }
+    private Path getDestinationFolder(String fileGroupName) {
+        String folderName = fileGroupName.replace("Representations/", "").replace("Documentation/", "").replace("Attachments/", "");
+        if (fileGroupName.startsWith("Representations")) {
+            return Paths.get(bag.getObjectsFolder().toString(), folderName, "data");
+        } else if (fileGroupName.startsWith("Other")) {
+            return Paths.get(bag.getOtherFolder().toString());
+        } else if (fileGroupName.startsWith("Attachments")) {
+            return Paths.get(bag.getAttachmentsFolder().toString());
+        } else {
+            return Paths.get(bag.getDocumentationFolder().toString());
         }
-        return idList;
     }
 
     private void setProjectParameter(String identifier, VariableReplacer vp, MetsModsImportExport exportFilefoExport) {
@@ -1469,113 +1037,11 @@ public class BagcreationStepPlugin extends ExportMets implements IStepPluginVers
         return ret != PluginReturnValue.ERROR;
     }
 
-    private static void cleanUpNamespacesAndSchemaLocation(Element rootElement) {
-        // first find all used namespaces
-        List<String> usedPrefixes = new ArrayList<>();
-        getUsedNamespaceList(rootElement, usedPrefixes);
-
-        List<Namespace> allNamespaces = rootElement.getAdditionalNamespaces();
-        List<Namespace> superfluousNamespaces = new ArrayList<>();
-        // run through all namespaces, check if namespace is used
-        for (Namespace ns : allNamespaces) {
-            if (StringUtils.isNotBlank(ns.getPrefix()) && !usedPrefixes.contains(ns.getPrefix())) {
-                superfluousNamespaces.add(ns);
-            }
-        }
-        // remove all unused namespaces
-        for (Namespace ns : superfluousNamespaces) {
-            rootElement.removeNamespaceDeclaration(ns);
-        }
-
-        // build schemaLocation for all remaining namespaces
-
-        StringBuilder sb = new StringBuilder();
-        for (String ns : usedPrefixes) {
-            switch (ns) {
-                case "mets":
-                    sb.append(" http://www.loc.gov/METS/ https://www.loc.gov/standards/mets/version112/mets.xsd");
-                    break;
-                case "premis":
-                    sb.append(" http://www.loc.gov/standards/premis/ http://www.loc.gov/standards/premis/v2/premis-v2-0.xsd");
-                    break;
-                case "mods":
-                    sb.append(" http://www.loc.gov/mods/v3 http://www.loc.gov/standards/mods/v3/mods-3-7.xsd");
-                    break;
-                case "mix":
-                    sb.append(" http://www.loc.gov/standards/mix/ http://www.loc.gov/standards/mix/mix.xsd");
-                    break;
-                case "xlink":
-                    sb.append(" http://www.w3.org/1999/xlink http://www.loc.gov/standards/xlink/xlink.xsd");
-                    break;
-                case "csip":
-                    sb.append(" https://DILCIS.eu/XML/METS/CSIPExtensionMETS https://earkcsip.dilcis.eu/schema/DILCISExtensionMETS.xsd");
-                    break;
-                case "sip":
-                    sb.append(" https://DILCIS.eu/XML/METS/SIPExtensionMETS https://earksip.dilcis.eu/schema/DILCISExtensionSIPMETS.xsd");
-                    break;
-                default:
-                    break;
-            }
-        }
-
-        if (sb.length() > 0) {
-            rootElement.setAttribute("schemaLocation", sb.toString().trim(), xsiNamespace);
-        }
-    }
-
     /**
-     * Collect all namespaces from given element and its children
-     * 
-     * @param element
-     * @param prefixList
+     * EAD record and ActaPro document of the archive node, null if not found
      */
-    private static void getUsedNamespaceList(Element element, List<String> prefixList) {
-        String prefix = element.getNamespacePrefix();
-        if (StringUtils.isNotBlank(prefix) && !prefixList.contains(prefix)) {
-            prefixList.add(prefix);
-        }
-        for (Attribute attr : element.getAttributes()) {
-            Namespace attrNamespace = attr.getNamespace();
-            if (attrNamespace != null && StringUtils.isNotBlank(attrNamespace.getPrefix())) {
-                String attrPrefix = attrNamespace.getPrefix();
-                if (StringUtils.isNotBlank(attrPrefix) && !prefixList.contains(attrPrefix)) {
-                    prefixList.add(attrPrefix);
-                }
-            }
-        }
-
-        List<Element> children = element.getChildren();
-        if (children != null) {
-            for (Element child : children) {
-                getUsedNamespaceList(child, prefixList);
-            }
-        }
+    private static class ArchiveMetadata {
+        private byte[] ead;
+        private byte[] json;
     }
-
-    private List<Path> getFolderContent(Path folder) throws IOException {
-        List<Path> filesInFolder = new ArrayList<>();
-        try (Stream<Path> input = Files.find(folder, 99, (p, bfa) -> bfa.isRegularFile())) {
-            input.forEach(filesInFolder::add);
-        }
-        Collections.sort(filesInFolder);
-        return filesInFolder;
-    }
-
-    private static String findArchiveByNodeId(String metadataName, String metadataValue) {
-        StringBuilder sql = new StringBuilder();
-        sql.append(
-                "select title from archive_record_group where id = (select archive_record_group_id from archive_record_node WHERE ExtractValue(data, '/xml/")
-                .append(metadataName)
-                .append("') = '")
-                .append(metadataValue)
-                .append("')");
-        try (Connection connection = MySQLHelper.getInstance().getConnection()) {
-            QueryRunner run = new QueryRunner();
-            return run.query(connection, sql.toString(), MySQLHelper.resultSetToStringHandler);
-        } catch (SQLException e) {
-            log.error(e);
-        }
-        return null;
-    }
-
 }
@@ -0,0 +1,69 @@
+package de.intranda.goobi.plugins;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Access data for the delivery of the bag, read from the {@code <connection>} block and the {@code <exportFolder>} element
+ */
+@Getter
+@Setter
+public class ConnectionConfiguration {
+
+    // ftp or sftp
+    private String type;
+    private String userName;
+    private String password;
+    private String keyfile;
+    private String hostname;
+    private int port;
+    private String knownHostsFile;
+    private String remoteFolder;
+
+    // export into a local folder instead of an upload
+    private String localFolder;
+
+    // upload the tar file while it is created
+    private boolean streaming;
+
+    // number of retries after a failed upload
+    private int retries;
+
+    // delay before the first retry in seconds, it is doubled after each further failure
+    private int retryDelay;
+
+    // upper limit for the delay between two retries in seconds
+    private int maxRetryDelay;
+
+    // number of parallel connections, large files are split into parts if more than one connection is used
+    private int connections;
+
+    // size of the parts in MB
+    private int partSize;
+
+    public static ConnectionConfiguration create(SubnodeConfiguration config) {
+        ConnectionConfiguration cc = new ConnectionConfiguration();
+        cc.setType(config.getString("/connection/type", "sftp"));
+        cc.setUserName(config.getString("/connection/username"));
+        cc.setPassword(config.getString("/connection/password"));
+        cc.setKeyfile(config.getString("/connection/keyfile"));
+        cc.setHostname(config.getString("/connection/hostname"));
+        cc.setKnownHostsFile(config.getString("/connection/knownHostsFile"));
+        cc.setPort(config.getInt("/connection/port", "ftp".equalsIgnoreCase(cc.getType()) ? 21 : 22));
+        cc.setRemoteFolder(config.getString("/connection/remoteFolder"));
+        cc.setStreaming(config.getBoolean("/connection/streaming", false));
+        cc.setRetries(config.getInt("/connection/retries", 3));
+        cc.setRetryDelay(config.getInt("/connection/retryDelay", 10));
+        cc.setMaxRetryDelay(config.getInt("/connection/maxRetryDelay", 300));
+        cc.setConnections(config.getInt("/connection/connections", 1));
+        cc.setPartSize(config.getInt("/connection/partSize", 1024));
+        cc.setLocalFolder(config.getString("/exportFolder", null));
+        return cc;
+    }
+
+    public boolean isFtp() {
+        return "ftp".equalsIgnoreCase(type);
+    }
+}
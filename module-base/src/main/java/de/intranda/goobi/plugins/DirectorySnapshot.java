@@ -0,0 +1,67 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content of the source folders of a single run. Each folder is read once, the attributes of the files are collected during the walk and used
+ * by all later steps instead of reading them again from the file system.
+ */
+public class DirectorySnapshot {
+
+    // folder -> sorted list of regular files
+    private final Map<Path, List<Path>> folders = new ConcurrentHashMap<>();
+
+    private final Map<Path, BasicFileAttributes> attributes = new ConcurrentHashMap<>();
+
+    /**
+     * Get all regular files within the folder and its sub folders
+     *
+     * @param folder
+     * @return the files in alphabetical order
+     * @throws IOException
+     */
+    public List<Path> getFiles(Path folder) throws IOException {
+        List<Path> files = folders.get(folder);
+        if (files == null) {
+            files = readFolder(folder);
+            folders.put(folder, files);
+        }
+        return files;
+    }
+
+    /**
+     * Get the attributes collected while the folder of the file was read
+     *
+     * @param file
+     * @return the attributes or null, if the file is not part of the snapshot
+     */
+    public BasicFileAttributes getAttributes(Path file) {
+        return attributes.get(file);
+    }
+
+    private List<Path> readFolder(Path folder) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(folder, Collections.emptySet(), 99, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    files.add(file);
+                    attributes.put(file, attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(files);
+        return Collections.unmodifiableList(files);
+    }
+}
@@ -21,4 +21,7 @@ public class FileList {
 
     private String mimetype;
 
+    // size and checksum of each file, in the same order as the files list
+    private List<PayloadFile> payloadFiles = new ArrayList<>();
+
 }
@@ -0,0 +1,140 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Persistent checksum cache. Each entry is identified by the path, the size and the last modification date of a file. As long as these values do
+ * not change, the stored checksum is used and the file does not need to be read again.
+ * 
+ * The cache is stored as a tab separated text file, one line per file: checksum, size, modification date in milliseconds and path.
+ */
+@Log4j2
+public class FixityCache {
+
+    private final Path cacheFile;
+
+    // entries read from the cache file
+    private final Map<String, Entry> storedEntries = new ConcurrentHashMap<>();
+
+    // entries used or created during the current run, only these are written back
+    private final Map<String, Entry> currentEntries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    private FixityCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Open the cache stored in the given file. If the file does not exist or cannot be read, an empty cache is returned
+     * 
+     * @param cacheFile
+     * @return
+     */
+    public static FixityCache load(Path cacheFile) {
+        FixityCache cache = new FixityCache(cacheFile);
+        if (Files.isRegularFile(cacheFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t", 4);
+                    if (parts.length == 4) {
+                        Entry entry = new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                        cache.storedEntries.put(parts[3], entry);
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                log.warn("Checksum cache {} cannot be read, all files get a new checksum", cacheFile);
+                cache.storedEntries.clear();
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Get the stored checksum of a file
+     * 
+     * @param file
+     * @param size current file size
+     * @param lastModified current modification date in milliseconds
+     * @return the checksum or null, if the file is unknown or was changed
+     */
+    public String lookup(Path file, long size, long lastModified) {
+        String key = file.toAbsolutePath().toString();
+        Entry entry = storedEntries.get(key);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            currentEntries.put(key, entry);
+            return entry.checksum;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void store(Path file, long size, long lastModified, String checksum) {
+        currentEntries.put(file.toAbsolutePath().toString(), new Entry(checksum, size, lastModified));
+    }
+
+    /**
+     * Write all entries used in the current run into the cache file. Entries of files that no longer belong to the process are dropped.
+     * 
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName().toString() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> e : currentEntries.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(entry.checksum + "\t" + entry.size + "\t" + entry.lastModified + "\t" + e.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Register the size of a file that did not need to be read because of a cache hit
+     * 
+     * @param size
+     */
+    public void addBytesSaved(long size) {
+        bytesSaved.addAndGet(size);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    private static class Entry {
+        private final String checksum;
+        private final long size;
+        private final long lastModified;
+
+        private Entry(String checksum, long size, long lastModified) {
+            this.checksum = checksum;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
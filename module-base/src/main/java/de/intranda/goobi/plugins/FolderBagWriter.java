@@ -0,0 +1,361 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import de.sub.goobi.helper.BagCreation;
+import de.sub.goobi.helper.StorageProvider;
+import de.sub.goobi.helper.files.TarUtils;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes all files into the temporary bag folder. The bag declaration, bag-info.txt and the manifest files are created from the checksums
+ * registered during the creation of the bag, afterwards the folder is packed into a tar file.
+ * 
+ * Payload files can be staged as hard links or copy-on-write reflinks instead of full copies, if the source folder and the temporary folder are
+ * located on the same file system. Whether this is possible is checked once for each source folder, if reflinks are not supported the files of
+ * the folder are hard linked.
+ */
+@Log4j2
+public class FolderBagWriter implements BagWriter {
+
+    public static final String STAGING_COPY = "copy";
+    public static final String STAGING_LINK = "link";
+    public static final String STAGING_REFLINK = "reflink";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // limits the length of the command line when files are cloned
+    private static final int MAX_FILES_PER_CALL = 500;
+
+    private final Path bagitRoot;
+
+    private final BagManifest manifest;
+
+    private final Path archiveFile;
+
+    private final String stagingMode;
+
+    // staging mode of each source folder, determined with the first file of the folder
+    private final Map<Path, String> folderModes = new ConcurrentHashMap<>();
+
+    // files cloned in advance, they are registered when linkFile is called for them
+    private final Set<Path> clonedFiles = ConcurrentHashMap.newKeySet();
+
+    // size of each file written into the bag folder
+    private final Map<Path, Long> fileSizes = new ConcurrentHashMap<>();
+
+    // files that were linked instead of copied, they do not need additional disk space
+    private final Set<Path> linkedFiles = ConcurrentHashMap.newKeySet();
+
+    // measures the creation of the manifests and the tar file
+    @Setter
+    private PhaseTimer phaseTimer = new PhaseTimer();
+
+    // number of threads used to compress a tar.gz file
+    @Setter
+    private int compressionThreads = 1;
+
+    public FolderBagWriter(BagCreation bag, Path archiveFile) {
+        this(bag, archiveFile, STAGING_COPY);
+    }
+
+    /**
+     * 
+     * @param bag
+     * @param archiveFile tar file to create, a file ending with .gz is compressed
+     * @param stagingMode copy, link or reflink
+     */
+    public FolderBagWriter(BagCreation bag, Path archiveFile, String stagingMode) {
+        this.bagitRoot = bag.getBagitRoot();
+        this.manifest = new BagManifest(bagitRoot);
+        this.archiveFile = archiveFile;
+        this.stagingMode = stagingMode == null ? STAGING_COPY : stagingMode.toLowerCase();
+    }
+
+    @Override
+    public OutputStream newOutputStream(Path file, long size) throws IOException {
+        Files.createDirectories(file.getParent());
+        fileSizes.put(file, size);
+        linkedFiles.remove(file);
+        manifest.addFile(file, size);
+        return Files.newOutputStream(file);
+    }
+
+    /**
+     * Clone the files of each source folder with a single cp call, if reflinks are used. Hard links are created by
+     * {@link #linkFile(Path, Path, long)} without starting a process.
+     */
+    @Override
+    public void prepareLinks(List<Path> sources, List<Path> files) {
+        if (!STAGING_REFLINK.equals(stagingMode)) {
+            return;
+        }
+        // group the files by source and destination folder
+        Map<List<Path>, List<Integer>> folders = new LinkedHashMap<>();
+        for (int i = 0; i < sources.size(); i++) {
+            Path source = sources.get(i);
+            Path file = files.get(i);
+            if (file != null && source.getFileName().equals(file.getFileName())) {
+                folders.computeIfAbsent(Arrays.asList(source.getParent(), file.getParent()), k -> new ArrayList<>()).add(i);
+            }
+        }
+        for (List<Integer> group : folders.values()) {
+            Path sourceFolder = sources.get(group.get(0)).getParent();
+            Path targetFolder = files.get(group.get(0)).getParent();
+            try {
+                if (!STAGING_REFLINK.equals(getFolderMode(sources.get(group.get(0)), files.get(group.get(0))))) {
+                    continue;
+                }
+                List<Path> chunkSources = new ArrayList<>();
+                List<Path> chunkFiles = new ArrayList<>();
+                for (int index : group) {
+                    if (!clonedFiles.contains(files.get(index))) {
+                        chunkSources.add(sources.get(index));
+                        chunkFiles.add(files.get(index));
+                    }
+                    if (chunkSources.size() == MAX_FILES_PER_CALL || index == group.get(group.size() - 1)) {
+                        if (!cloneFiles(chunkSources, targetFolder)) {
+                            // the remaining files are linked
+                            log.debug("Cannot create reflinks in {}, files are linked", targetFolder);
+                            folderModes.put(sourceFolder, STAGING_LINK);
+                            break;
+                        }
+                        clonedFiles.addAll(chunkFiles);
+                        chunkSources.clear();
+                        chunkFiles.clear();
+                    }
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                log.debug("Cannot link files of {}, files are copied: {}", sourceFolder, e.getMessage());
+                folderModes.put(sourceFolder, STAGING_COPY);
+            }
+        }
+    }
+
+    @Override
+    public boolean linkFile(Path source, Path file, long size) {
+        if (STAGING_COPY.equals(stagingMode)) {
+            return false;
+        }
+        Path sourceFolder = source.getParent();
+        boolean linked = clonedFiles.remove(file);
+        if (!linked) {
+            try {
+                String mode = getFolderMode(source, file);
+                // the first file of a folder is cloned while the mode is determined
+                linked = clonedFiles.remove(file);
+                if (!linked && STAGING_REFLINK.equals(mode)) {
+                    linked = cloneFiles(Collections.singletonList(source), file.getParent());
+                    if (!linked) {
+                        log.debug("Cannot create reflinks in {}, files are linked", file.getParent());
+                        folderModes.put(sourceFolder, STAGING_LINK);
+                        mode = STAGING_LINK;
+                    }
+                }
+                if (!linked && STAGING_LINK.equals(mode)) {
+                    Files.createLink(file, source);
+                    linked = true;
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                log.debug("Cannot link {}, files are copied: {}", source, e.getMessage());
+                folderModes.put(sourceFolder, STAGING_COPY);
+            }
+        }
+        if (linked) {
+            fileSizes.put(file, size);
+            linkedFiles.add(file);
+            manifest.addFile(file, size);
+        }
+        return linked;
+    }
+
+    /**
+     * Determine how the files of the source folder are staged. The first call for a folder checks if the folder is on the same file system as
+     * the bag. If reflinks are configured, the given file is cloned to find out if the file system supports them, otherwise hard links are used.
+     * Later calls for the same folder use the result.
+     * 
+     * @param source first file of the folder
+     * @param file location of the file inside of the bag folder
+     * @return reflink, link or copy
+     */
+    private synchronized String getFolderMode(Path source, Path file) throws IOException {
+        Path sourceFolder = source.getParent();
+        String mode = folderModes.get(sourceFolder);
+        if (mode != null) {
+            return mode;
+        }
+        Files.createDirectories(file.getParent());
+        // links are only possible within the same file system
+        if (!Files.getFileStore(sourceFolder).equals(Files.getFileStore(file.getParent()))) {
+            log.debug("{} is on a different file system, files are copied", sourceFolder);
+            mode = STAGING_COPY;
+        } else if (STAGING_REFLINK.equals(stagingMode) && source.getFileName().equals(file.getFileName())
+                && cloneFiles(Collections.singletonList(source), file.getParent())) {
+            clonedFiles.add(file);
+            mode = STAGING_REFLINK;
+        } else {
+            if (STAGING_REFLINK.equals(stagingMode)) {
+                log.debug("{} does not support reflinks, files are linked", file.getParent());
+            }
+            mode = STAGING_LINK;
+        }
+        folderModes.put(sourceFolder, mode);
+        return mode;
+    }
+
+    /**
+     * Create copy-on-write clones of the files in the target folder. This is only supported by some file systems like btrfs, xfs or zfs and
+     * requires the cp command of GNU coreutils.
+     * 
+     * @return true if all clones were created, otherwise the partial result is removed
+     * @throws IOException if the partial result cannot be removed
+     */
+    private static boolean cloneFiles(List<Path> sources, Path targetFolder) throws IOException {
+        if (sources.isEmpty()) {
+            return true;
+        }
+        List<String> command = new ArrayList<>();
+        command.add("cp");
+        command.add("--reflink=always");
+        command.add("-t");
+        command.add(targetFolder.toString());
+        for (Path source : sources) {
+            command.add(source.toString());
+        }
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        try {
+            Process process = pb.start();
+            try {
+                if (process.waitFor() == 0) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroy();
+            }
+        } catch (IOException e) {
+            // cp is not available
+            log.debug("Cannot start cp: {}", e.getMessage());
+        }
+        for (Path source : sources) {
+            Files.deleteIfExists(targetFolder.resolve(source.getFileName().toString()));
+        }
+        return false;
+    }
+
+    @Override
+    public void addChecksum(Path file, String checksum) {
+        manifest.addChecksum(file, checksum);
+    }
+
+    @Override
+    public String getCreationTime(Path file) {
+        return StorageProvider.getInstance().getFileCreationTime(file);
+    }
+
+    @Override
+    public boolean isParallelWriteSupported() {
+        return true;
+    }
+
+    @Override
+    public long getPayloadSize() {
+        // all files of the payload folder are written by this class, the folder does not need to be read again
+        return manifest.getPayloadSize();
+    }
+
+    @Override
+    public long getStagedSize() {
+        long size = 0;
+        for (Entry<Path, Long> entry : fileSizes.entrySet()) {
+            if (!linkedFiles.contains(entry.getKey())) {
+                size += entry.getValue();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void finish(Map<String, String> bagInfo) throws IOException {
+        phaseTimer.start(PhaseTimer.MANIFEST);
+        // the payload files are not read again, the manifests are created from the registered checksums
+        for (Entry<String, byte[]> entry : manifest.createTagFiles(bagInfo).entrySet()) {
+            Files.write(bagitRoot.resolve(entry.getKey()), entry.getValue());
+        }
+        phaseTimer.start(PhaseTimer.TAR);
+        BagEvent event = phaseTimer.newEvent(PhaseTimer.TAR);
+        if (archiveFile.getFileName().toString().endsWith(".gz")) {
+            createCompressedTar(bagitRoot, archiveFile, compressionThreads);
+        } else {
+            TarUtils.createTar(bagitRoot.getParent(), archiveFile);
+            BagMetrics.getInstance().addBytesTarred(Files.size(archiveFile));
+        }
+        event.setFile(archiveFile);
+        event.setBytes(Files.size(archiveFile));
+        event.commit();
+        phaseTimer.stop();
+    }
+
+    /**
+     * Pack the bag folder into a gzip compressed tar file, the compression runs on the given number of threads
+     */
+    private static void createCompressedTar(Path bagitRoot, Path archiveFile, int threads) throws IOException {
+        Path folder = bagitRoot.getParent();
+        Path tempFile = archiveFile.resolveSibling(archiveFile.getFileName().toString() + ".tmp");
+        List<Path> content;
+        try (Stream<Path> files = Files.walk(bagitRoot)) {
+            content = files.sorted().collect(Collectors.toList());
+        }
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new ParallelGzipOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE), threads, Deflater.DEFAULT_COMPRESSION))) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            for (Path file : content) {
+                String name = folder.relativize(file).toString().replace('\\', '/');
+                boolean directory = Files.isDirectory(file);
+                TarArchiveEntry entry = new TarArchiveEntry(directory ? name + "/" : name);
+                entry.setModTime(Files.getLastModifiedTime(file));
+                if (!directory) {
+                    entry.setSize(Files.size(file));
+                }
+                tar.putArchiveEntry(entry);
+                if (!directory) {
+                    BagMetrics.getInstance().addBytesTarred(Files.copy(file, tar));
+                }
+                tar.closeArchiveEntry();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        Files.move(tempFile, archiveFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // nothing to close, the temporary folder is removed by the plugin
+    }
+}
@@ -0,0 +1,96 @@
+package de.intranda.goobi.plugins;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
+
+public class FtpArchiveUploader implements ArchiveUploader {
+
+    private final FTPClient ftp = new FTPClient();
+
+    public FtpArchiveUploader(ConnectionConfiguration cc) throws IOException {
+        ftp.connect(cc.getHostname(), cc.getPort());
+        if (!FTPReply.isPositiveCompletion(ftp.getReplyCode()) || !ftp.login(cc.getUserName(), cc.getPassword())) {
+            close();
+            throw new IOException("Login to " + cc.getHostname() + " failed: " + ftp.getReplyString());
+        }
+        ftp.enterLocalPassiveMode();
+        ftp.setFileType(FTP.BINARY_FILE_TYPE);
+        if (StringUtils.isNotBlank(cc.getRemoteFolder()) && !ftp.changeWorkingDirectory(cc.getRemoteFolder())) {
+            close();
+            throw new IOException("Remote folder " + cc.getRemoteFolder() + " not found");
+        }
+    }
+
+    @Override
+    public OutputStream newOutputStream(String remoteName) throws IOException {
+        return wrap(remoteName, ftp.storeFileStream(remoteName));
+    }
+
+    @Override
+    public OutputStream newAppendingOutputStream(String remoteName) throws IOException {
+        return wrap(remoteName, ftp.appendFileStream(remoteName));
+    }
+
+    @Override
+    public long getSize(String remoteName) throws IOException {
+        FTPFile[] remoteFiles = ftp.listFiles(remoteName);
+        if (remoteFiles == null || remoteFiles.length != 1 || !remoteFiles[0].isFile()) {
+            return -1;
+        }
+        return remoteFiles[0].getSize();
+    }
+
+    private OutputStream wrap(String remoteName, OutputStream out) throws IOException {
+        if (out == null) {
+            throw new IOException("Cannot write " + remoteName + ": " + ftp.getReplyString());
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                // the transfer is only finished after the server confirmed it
+                if (!ftp.completePendingCommand()) {
+                    throw new IOException("Upload of " + remoteName + " failed: " + ftp.getReplyString());
+                }
+            }
+        };
+    }
+
+    @Override
+    public void rename(String from, String to) throws IOException {
+        ftp.deleteFile(to);
+        if (!ftp.rename(from, to)) {
+            throw new IOException("Cannot rename " + from + " to " + to + ": " + ftp.getReplyString());
+        }
+    }
+
+    @Override
+    public void delete(String remoteName) throws IOException {
+        if (!ftp.deleteFile(remoteName) && getSize(remoteName) != -1) {
+            throw new IOException("Cannot delete " + remoteName + ": " + ftp.getReplyString());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ftp.isConnected()) {
+            try {
+                ftp.logout();
+            } finally {
+                ftp.disconnect();
+            }
+        }
+    }
+}
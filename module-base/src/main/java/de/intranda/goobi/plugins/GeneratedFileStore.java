@@ -0,0 +1,39 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Access to the files of the bag that is currently created. Used by the METS conversion to write metadata files and to get size and checksum of
+ * existing files.
+ */
+public interface GeneratedFileStore {
+
+    /**
+     * Write a generated file into the bag. Size and checksum are calculated while the content is written
+     *
+     * @param fileName destination inside of the bag
+     * @param size number of bytes in content
+     * @param content data to write
+     * @return size, checksum and creation time of the file
+     * @throws IOException
+     */
+    PayloadFile writeFile(Path fileName, long size, InputStream content) throws IOException;
+
+    /**
+     * Check if the file was written during the current run or exists in the bag folder
+     *
+     * @param file
+     * @return
+     */
+    boolean isFileInBag(Path file);
+
+    /**
+     * Get size and checksum of a file in the bag. Files written during the current run are not read again
+     *
+     * @param file
+     * @return
+     */
+    PayloadFile getFileInformation(Path file);
+}
@@ -0,0 +1,145 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.sub.goobi.helper.NIOFileUtils;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Detects the mime types of the files of a single run. Files of the same file group with the same extension get the same mime type, so only one
+ * file of each extension is probed. Files without an extension and files whose extension is only resolved as application/octet-stream are probed
+ * one by one. If no mime type is found at all, the other files with the same extension are not probed again.
+ */
+@Log4j2
+public class MimeTypeResolver {
+
+    private static final String UNKNOWN = "application/octet-stream";
+
+    // file group and extension -> mime type
+    private final Map<String, String> extensions = new ConcurrentHashMap<>();
+
+    // mime types of the files that were probed separately
+    private final Map<Path, String> files = new ConcurrentHashMap<>();
+
+    // file group and extension without mime type
+    private final Set<String> unresolved = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger probedFiles = new AtomicInteger();
+
+    /**
+     * Get the mime type of a file
+     *
+     * @param fileGroup name of the file group or folder of the file
+     * @param file
+     * @return
+     */
+    public String getMimeType(String fileGroup, Path file) {
+        String key = getKey(fileGroup, file);
+        String mimetype = key == null ? null : extensions.get(key);
+        if (mimetype == null) {
+            mimetype = files.get(file);
+        }
+        if (mimetype == null && (key == null || !unresolved.contains(key))) {
+            mimetype = probe(key, file);
+        }
+        return mimetype;
+    }
+
+    /**
+     * Detect the mime types of all files in advance. The first file of each extension and all files which cannot be resolved by their extension
+     * are probed in parallel.
+     *
+     * @param fileGroup name of the file group or folder of the files
+     * @param fileList
+     * @param threads number of files to probe at the same time
+     */
+    public void resolveAll(String fileGroup, List<Path> fileList, int threads) {
+        List<Path> pending = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        for (Path file : fileList) {
+            String key = getKey(fileGroup, file);
+            if (key == null ? !files.containsKey(file) : !extensions.containsKey(key) && !unresolved.contains(key) && keys.add(key)) {
+                pending.add(file);
+            }
+        }
+        probeAll(fileGroup, pending, threads);
+
+        // extensions that could not be resolved from the first file
+        pending.clear();
+        for (Path file : fileList) {
+            String key = getKey(fileGroup, file);
+            if (key != null && !extensions.containsKey(key) && !unresolved.contains(key) && !files.containsKey(file)) {
+                pending.add(file);
+            }
+        }
+        probeAll(fileGroup, pending, threads);
+    }
+
+    /**
+     * @return number of files whose content was probed
+     */
+    public int getProbedFiles() {
+        return probedFiles.get();
+    }
+
+    private void probeAll(String fileGroup, List<Path> pending, int threads) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (threads < 2 || pending.size() < 2) {
+            for (Path file : pending) {
+                probe(getKey(fileGroup, file), file);
+            }
+            return;
+        }
+        List<Callable<String>> tasks = new ArrayList<>(pending.size());
+        for (Path file : pending) {
+            tasks.add(() -> probe(getKey(fileGroup, file), file));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, pending.size()));
+        try {
+            executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            // the remaining files are probed when they are requested
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String probe(String key, Path file) {
+        probedFiles.incrementAndGet();
+        String mimetype = NIOFileUtils.getMimeTypeFromFile(file);
+        if (mimetype == null) {
+            log.debug("No mime type found for {}", file);
+            if (key != null) {
+                unresolved.add(key);
+            }
+        } else if (key != null && !UNKNOWN.equals(mimetype)) {
+            extensions.putIfAbsent(key, mimetype);
+        } else {
+            files.put(file, mimetype);
+        }
+        return mimetype;
+    }
+
+    private static String getKey(String fileGroup, Path file) {
+        String filename = file.getFileName().toString();
+        int index = filename.lastIndexOf('.');
+        if (index <= 0 || index == filename.length() - 1) {
+            return null;
+        }
+        return fileGroup + '\t' + filename.substring(index + 1).toLowerCase(Locale.ROOT);
+    }
+}
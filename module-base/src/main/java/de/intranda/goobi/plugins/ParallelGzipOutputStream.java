@@ -0,0 +1,206 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a gzip stream and compresses the data on several threads, similar to pigz.
+ *
+ * The data is split into blocks of 128 KB, which are compressed independently. Each block uses the last 32 KB of the previous block as dictionary
+ * and ends on a byte boundary, so the compressed blocks can be concatenated to a single deflate stream. The result is a standard gzip file with a
+ * single member, the compression ratio is nearly the same as with sequential compression.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    // magic number, deflate, no flags, no modification time, no extra flags, unknown OS
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private final OutputStream out;
+
+    private final int level;
+
+    private final ExecutorService executor;
+
+    // compressed blocks in the order they have to be written
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private final int maxPendingBlocks;
+
+    private final CRC32 crc = new CRC32();
+
+    private long uncompressedSize = 0;
+
+    private byte[] block = new byte[BLOCK_SIZE];
+
+    private int blockLength = 0;
+
+    private byte[] dictionary;
+
+    private boolean closed = false;
+
+    public ParallelGzipOutputStream(OutputStream out) throws IOException {
+        this(out, Runtime.getRuntime().availableProcessors(), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     *
+     * @param out stream to write the compressed data
+     * @param threads number of threads used for the compression
+     * @param level compression level from 0 to 9
+     * @throws IOException
+     */
+    public ParallelGzipOutputStream(OutputStream out, int threads, int level) throws IOException {
+        this.out = out;
+        this.level = level;
+        int numberOfThreads = Math.max(threads, 1);
+        executor = Executors.newFixedThreadPool(numberOfThreads, r -> {
+            Thread thread = new Thread(r, "gzip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maxPendingBlocks = numberOfThreads * 2;
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        crc.update(b, off, len);
+        uncompressedSize += len;
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            int length = Math.min(remaining, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, offset, block, blockLength, length);
+            blockLength += length;
+            offset += length;
+            remaining -= length;
+            if (blockLength == BLOCK_SIZE) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Compress the remaining data and write the gzip trailer. The underlying stream is not closed.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (closed) {
+            return;
+        }
+        submitBlock(true);
+        while (!pending.isEmpty()) {
+            writeNextBlock();
+        }
+        writeInt((int) crc.getValue());
+        writeInt((int) uncompressedSize);
+        closed = true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // incomplete blocks are not flushed, this would reduce the compression ratio
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!closed) {
+                finish();
+            }
+            out.close();
+        } finally {
+            closed = true;
+            executor.shutdownNow();
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        byte[] data = block;
+        int length = blockLength;
+        byte[] previous = dictionary;
+        pending.add(executor.submit(() -> compress(data, length, previous, last, level)));
+
+        if (!last) {
+            // only the last block can be shorter than the dictionary
+            dictionary = Arrays.copyOfRange(data, BLOCK_SIZE - DICTIONARY_SIZE, BLOCK_SIZE);
+            block = new byte[BLOCK_SIZE];
+            blockLength = 0;
+        }
+        // limit the memory usage if the output is slower than the compression
+        while (pending.size() > maxPendingBlocks) {
+            writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+
+    private static byte[] compress(byte[] data, int length, byte[] dictionary, boolean last, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data, 0, length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, count);
+                }
+            } else {
+                // end the block on a byte boundary without marking it as final
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Path;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class PayloadFile {
+
+    // original location of the file
+    private Path source;
+
+    // location inside of the bag, can be null if the file was not copied
+    private Path destination;
+
+    private long size;
+
+    // sha256 checksum as hex string
+    private String checksum;
+
+    private String creationTime;
+
+}
@@ -0,0 +1,212 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.binary.Hex;
+
+import de.sub.goobi.helper.StorageProvider;
+import lombok.Setter;
+
+/**
+ * Reads each payload file exactly once. The content is written to the staging location while the file size and the SHA-256 checksum are
+ * calculated on the fly. Multiple files can be processed in parallel, the results are always returned in the order of the input list. Only a
+ * limited number of files is queued at the same time, so an error stops the processing early.
+ * 
+ * If a {@link FixityCache} is used, the checksum of unchanged files is taken from the cache instead of calculating it again. Unchanged files
+ * are copied without hashing, files that can be linked into the bag are not copied at all and unchanged linked files are not even read.
+ */
+public class PayloadIngester implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final ExecutorService executor;
+
+    private final FixityCache cache;
+
+    private final BagWriter writer;
+
+    // number of files submitted to the executor but not yet collected, further files are submitted when the oldest one is finished
+    private final int maxPendingFiles;
+
+    // attributes of the source files collected while the folders were read, can be null
+    @Setter
+    private DirectorySnapshot snapshot;
+
+    /**
+     * 
+     * @param threads number of files to process at the same time, values below 2 disable the parallel processing
+     * @param cache checksum cache to use, can be null
+     * @param writer target for the copied files
+     */
+    public PayloadIngester(int threads, FixityCache cache, BagWriter writer) {
+        this.cache = cache;
+        this.writer = writer;
+        this.maxPendingFiles = Math.max(threads, 1) * 2;
+        if (threads > 1 && writer.isParallelWriteSupported()) {
+            executor = Executors.newFixedThreadPool(threads);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Copy all source files to their destinations and collect size and checksum
+     * 
+     * @param sources files to read
+     * @param destinations target files in the same order as the sources, a null entry means that the file is only read
+     * @return the collected file information in the order of the sources
+     * @throws IOException
+     */
+    public List<PayloadFile> ingestAll(List<Path> sources, List<Path> destinations) throws IOException {
+        List<PayloadFile> result = new ArrayList<>(sources.size());
+        writer.prepareLinks(sources, destinations);
+        if (executor == null) {
+            for (int i = 0; i < sources.size(); i++) {
+                result.add(ingest(sources.get(i), destinations.get(i)));
+            }
+            return result;
+        }
+
+        List<Future<PayloadFile>> futures = new ArrayList<>(sources.size());
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                Path source = sources.get(i);
+                Path destination = destinations.get(i);
+                futures.add(executor.submit(() -> ingest(source, destination)));
+                if (futures.size() - result.size() >= maxPendingFiles) {
+                    result.add(futures.get(result.size()).get());
+                }
+            }
+            while (result.size() < futures.size()) {
+                result.add(futures.get(result.size()).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for checksum calculation");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            for (Future<PayloadFile> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copy the source file to the destination and collect size and checksum
+     * 
+     * @param source file to read
+     * @param destination target file, if null the file is only read to calculate the checksum
+     * @return the collected file information
+     * @throws IOException
+     */
+    public PayloadFile ingest(Path source, Path destination) throws IOException {
+        BasicFileAttributes attributes = snapshot == null ? null : snapshot.getAttributes(source);
+        if (attributes == null) {
+            attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        // if the file can be linked into the bag, it only needs to be read to calculate the checksum
+        Path copyTarget = destination;
+        if (destination != null && writer.linkFile(source, destination, attributes.size())) {
+            copyTarget = null;
+        }
+
+        String checksum = cache == null ? null : cache.lookup(source, attributes.size(), lastModified);
+
+        PayloadFile payloadFile = new PayloadFile();
+        payloadFile.setSource(source);
+        payloadFile.setDestination(destination);
+        payloadFile.setSize(attributes.size());
+        if (checksum == null) {
+            payloadFile.setChecksum(copy(source, copyTarget, attributes.size(), true));
+            if (cache != null) {
+                cache.store(source, attributes.size(), lastModified, payloadFile.getChecksum());
+            }
+        } else {
+            payloadFile.setChecksum(checksum);
+            if (copyTarget != null) {
+                // the source was not changed since the checksum was calculated, the copy does not need to be hashed again
+                copy(source, copyTarget, attributes.size(), false);
+            } else {
+                cache.addBytesSaved(attributes.size());
+            }
+        }
+        if (destination != null) {
+            writer.addChecksum(destination, payloadFile.getChecksum());
+        }
+        payloadFile.setCreationTime(attributes.creationTime().toString());
+        return payloadFile;
+    }
+
+    /**
+     * Copy the file into the bag and calculate the checksum during the copy process
+     * 
+     * @param hash false if the checksum is already known
+     * @return the checksum or null, if the file was not hashed
+     * @throws IOException if the file was changed while it was read
+     */
+    private String copy(Path source, Path destination, long expectedSize, boolean hash) throws IOException {
+        MessageDigest digest = hash ? createDigest() : null;
+        long start = System.nanoTime();
+        long size = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = StorageProvider.getInstance().newInputStream(source);
+                OutputStream out = destination == null ? OutputStream.nullOutputStream() : writer.newOutputStream(destination, expectedSize)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
+                }
+                out.write(buffer, 0, read);
+                size += read;
+            }
+        }
+        if (size != expectedSize) {
+            throw new IOException("File " + source + " was changed during the copy process");
+        }
+        if (destination != null) {
+            BagMetrics.getInstance().addBytesCopied(size);
+        }
+        if (digest == null) {
+            return null;
+        }
+        BagMetrics.getInstance().addHashedFile(source, size, System.nanoTime() - start);
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every java implementation must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Process;
+import org.goobi.beans.Processproperty;
+
+import de.sub.goobi.persistence.managers.PropertyManager;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Stores the {@link RunSummary} of each run, read from the {@code <performance>} block. The summary of the last run is kept as process property,
+ * the summaries of all runs can be appended to a csv file shared by all processes.
+ */
+@Getter
+@Setter
+@Log4j2
+public class PerformanceHistory {
+
+    public static final String PROPERTY_CREATION = "Bag creation performance";
+    public static final String PROPERTY_SUBMISSION = "Bag submission performance";
+
+    // write the summary into a process property
+    private boolean processProperty;
+
+    // append the summary to this csv file, disabled if empty
+    private String historyFile;
+
+    // add the summary to bag-info.txt
+    private boolean bagInfo;
+
+    public static PerformanceHistory create(SubnodeConfiguration config) {
+        PerformanceHistory history = new PerformanceHistory();
+        history.setProcessProperty(config.getBoolean("/performance/processProperty", false));
+        history.setHistoryFile(config.getString("/performance/historyFile", ""));
+        history.setBagInfo(config.getBoolean("/performance/bagInfo", false));
+        return history;
+    }
+
+    /**
+     * @return true, if the summary is written into a process property or the history file
+     */
+    public boolean isEnabled() {
+        return processProperty || StringUtils.isNotBlank(historyFile);
+    }
+
+    /**
+     * Store the summary as configured, errors are logged but do not fail the run
+     *
+     * @param process
+     * @param summary
+     */
+    public void save(Process process, RunSummary summary) {
+        if (processProperty) {
+            saveProperty(process, RunSummary.CREATION.equals(summary.getStep()) ? PROPERTY_CREATION : PROPERTY_SUBMISSION, summary.toString());
+        }
+        if (StringUtils.isNotBlank(historyFile)) {
+            try {
+                append(Paths.get(historyFile), summary);
+            } catch (IOException e) {
+                log.error(e);
+            }
+        }
+    }
+
+    /**
+     * Update the property with the given name or create a new one
+     */
+    private static void saveProperty(Process process, String name, String value) {
+        Processproperty property = null;
+        if (process.getEigenschaften() != null) {
+            for (Processproperty pp : process.getEigenschaften()) {
+                if (name.equals(pp.getTitel())) {
+                    property = pp;
+                    break;
+                }
+            }
+        }
+        if (property == null) {
+            property = new Processproperty();
+            property.setTitel(name);
+            property.setProzess(process);
+            property.setProcessId(process.getId());
+        }
+        property.setWert(value);
+        PropertyManager.saveProcessProperty(property);
+    }
+
+    /**
+     * Append the summary as csv line, the header is written if the file is new. The file is locked, so several Goobi instances can use the same
+     * file.
+     *
+     * @param file
+     * @param summary
+     * @throws IOException
+     */
+    static synchronized void append(Path file, RunSummary summary) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = channel.lock()) {
+            StringBuilder sb = new StringBuilder();
+            if (channel.size() == 0) {
+                sb.append(RunSummary.getCsvHeader()).append('\n');
+            }
+            sb.append(summary.toCsvLine()).append('\n');
+            ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            channel.position(channel.size());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
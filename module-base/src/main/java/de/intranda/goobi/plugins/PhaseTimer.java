@@ -0,0 +1,133 @@
+package de.intranda.goobi.plugins;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Measures the phases of a single run. Phases follow each other, starting a phase ends the previous one. Work that runs in a background thread
+ * is added as background phase. The duration of each finished phase is added to the {@link BagMetrics} and recorded as {@link BagEvent} for the
+ * Java Flight Recorder.
+ */
+public class PhaseTimer {
+
+    public static final String METADATA = "metadata";
+    public static final String EXPORT = "export";
+    public static final String PAYLOAD = "payload";
+    public static final String PAYLOAD_WAIT = "payloadWait";
+    public static final String ARCHIVE_METADATA = "archiveMetadata";
+    public static final String METS = "mets";
+    public static final String MANIFEST = "manifest";
+    public static final String TAR = "tar";
+    public static final String UPLOAD = "upload";
+    public static final String CLEANUP = "cleanup";
+
+    private final Map<String, Long> durations = new LinkedHashMap<>();
+
+    // phases that ran in parallel to the other phases, they are not part of the total duration
+    private final Set<String> backgroundPhases = new HashSet<>();
+
+    // process and identifier of the run, added to all events
+    @Getter
+    @Setter
+    private int processId;
+
+    @Getter
+    @Setter
+    private String identifier;
+
+    private String currentPhase;
+
+    private long phaseStart;
+
+    private BagEvent phaseEvent;
+
+    /**
+     * End the current phase and start the next one
+     *
+     * @param phase
+     */
+    public synchronized void start(String phase) {
+        stop();
+        currentPhase = phase;
+        phaseStart = System.nanoTime();
+        phaseEvent = newEvent(phase);
+    }
+
+    /**
+     * End the current phase
+     */
+    public synchronized void stop() {
+        if (currentPhase != null) {
+            long millis = (System.nanoTime() - phaseStart) / 1000000;
+            durations.merge(currentPhase, millis, Long::sum);
+            BagMetrics.getInstance().addPhase(currentPhase, millis);
+            phaseEvent.commit();
+            currentPhase = null;
+            phaseEvent = null;
+        }
+    }
+
+    /**
+     * Add the duration of work that ran in a background thread. The caller records the event.
+     *
+     * @param phase
+     * @param millis
+     */
+    public synchronized void addBackgroundPhase(String phase, long millis) {
+        backgroundPhases.add(phase);
+        durations.merge(phase, millis, Long::sum);
+        BagMetrics.getInstance().addPhase(phase, millis);
+    }
+
+    /**
+     * Start an event for a part of the current phase, e.g. a single file. The event is recorded when the caller commits it.
+     *
+     * @param phase
+     * @return the started event
+     */
+    public BagEvent newEvent(String phase) {
+        BagEvent event = new BagEvent();
+        event.processId = processId;
+        event.identifier = identifier;
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @return duration of the finished phases in milliseconds, in the order of their first start
+     */
+    public synchronized Map<String, Long> getDurations() {
+        return new LinkedHashMap<>(durations);
+    }
+
+    /**
+     * @return duration of the finished phases in milliseconds, background phases are not counted
+     */
+    public synchronized long getTotalMillis() {
+        long total = 0;
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            if (!backgroundPhases.contains(entry.getKey())) {
+                total += entry.getValue();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append(" ms");
+        }
+        return sb.toString();
+    }
+}
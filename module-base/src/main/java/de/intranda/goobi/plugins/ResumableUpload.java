@@ -0,0 +1,290 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.binary.Hex;
+
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Uploads a file to the archive server. The file is transferred into a remote file with the suffix .part and renamed after the upload was
+ * verified.
+ * 
+ * If more than one connection is configured and the file is larger than the configured part size, the file is split into byte ranges instead.
+ * The parts are uploaded in parallel as name.001, name.002, ... and a list of all parts with their size and checksum is uploaded last as
+ * name.parts. The archive can be restored by concatenating the parts in the listed order.
+ * 
+ * The progress is recorded in a checkpoint file next to the local file. If the connection drops, the upload is continued at the end of the remote
+ * file, as long as the local file was not changed in the meantime. Failed attempts are repeated with an increasing delay.
+ */
+@Log4j2
+public class ResumableUpload {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // update the checkpoint after this amount of data
+    private static final long CHECKPOINT_INTERVAL = 64L * 1024 * 1024;
+
+    private final ConnectionConfiguration connection;
+
+    // receives an event for each transfer attempt
+    @Setter
+    private PhaseTimer phaseTimer = new PhaseTimer();
+
+    public ResumableUpload(ConnectionConfiguration connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Upload the file into the configured remote folder, the remote file gets the same name as the local file
+     * 
+     * @param file
+     * @throws IOException if the upload failed after all retries
+     */
+    public void upload(Path file) throws IOException {
+        String remoteName = file.getFileName().toString();
+        Path checkpointFile = file.resolveSibling(remoteName + ".checkpoint");
+        Properties checkpoint = readCheckpoint(file, checkpointFile);
+
+        long size = Files.size(file);
+        long partSize = connection.getPartSize() * 1024L * 1024L;
+        if (connection.getConnections() > 1 && partSize > 0 && size > partSize) {
+            uploadParts(file, size, partSize, checkpoint, checkpointFile);
+        } else {
+            String partName = remoteName + ".part";
+            withRetries(remoteName, uploader -> {
+                transfer(uploader, file, 0, size, partName, null, checkpoint, checkpointFile);
+                uploader.rename(partName, remoteName);
+            });
+        }
+        Files.deleteIfExists(checkpointFile);
+    }
+
+    private void uploadParts(Path file, long size, long partSize, Properties checkpoint, Path checkpointFile) throws IOException {
+        String remoteName = file.getFileName().toString();
+        int numberOfParts = (int) ((size + partSize - 1) / partSize);
+        log.info("Upload {} in {} parts using {} connections", remoteName, numberOfParts, connection.getConnections());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(connection.getConnections(), numberOfParts));
+        List<Future<String>> checksums = new ArrayList<>();
+        StringBuilder manifest = new StringBuilder();
+        try {
+            for (int i = 0; i < numberOfParts; i++) {
+                long start = i * partSize;
+                long length = Math.min(partSize, size - start);
+                String partName = String.format("%s.%03d", remoteName, i + 1);
+                checksums.add(executor.submit(() -> {
+                    MessageDigest digest = createDigest();
+                    withRetries(partName, uploader -> transfer(uploader, file, start, length, partName, digest, checkpoint, checkpointFile));
+                    return Hex.encodeHexString(digest.digest());
+                }));
+            }
+            for (int i = 0; i < numberOfParts; i++) {
+                long length = Math.min(partSize, size - i * partSize);
+                String partName = String.format("%s.%03d", remoteName, i + 1);
+                manifest.append(checksums.get(i).get()).append(' ').append(length).append(' ').append(partName).append('\n');
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Upload of " + remoteName + " was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // the list of parts marks the upload as complete, so it is written last
+        byte[] content = manifest.toString().getBytes(StandardCharsets.UTF_8);
+        String manifestName = remoteName + ".parts";
+        withRetries(manifestName, uploader -> {
+            try (OutputStream out = uploader.newOutputStream(manifestName + ".part")) {
+                out.write(content);
+            }
+            uploader.rename(manifestName + ".part", manifestName);
+        });
+    }
+
+    protected ArchiveUploader openConnection() throws IOException {
+        return ArchiveUploader.open(connection);
+    }
+
+    protected void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    /**
+     * Run an upload on a new connection, repeat it with an increasing delay if it fails
+     */
+    private void withRetries(String remoteName, Transfer transfer) throws IOException {
+        long delay = Math.max(connection.getRetryDelay(), 1) * 1000L;
+        int attempt = 0;
+        while (true) {
+            try (ArchiveUploader uploader = openConnection()) {
+                transfer.run(uploader);
+                return;
+            } catch (IOException e) {
+                attempt++;
+                if (attempt > connection.getRetries()) {
+                    throw e;
+                }
+                log.warn("Upload of {} failed, retry {} of {} in {} seconds: {}", remoteName, attempt, connection.getRetries(), delay / 1000,
+                        e.getMessage());
+                try {
+                    sleep(delay);
+                } catch (InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Upload of " + remoteName + " was interrupted", e1);
+                }
+                delay = Math.min(delay * 2, Math.max(connection.getMaxRetryDelay(), 1) * 1000L);
+            }
+        }
+    }
+
+    /**
+     * Upload a byte range of the local file into a remote file. If the checkpoint contains an entry for the remote file, the upload is continued at
+     * its end.
+     * 
+     * @param digest if not null, it receives the content of the whole range
+     */
+    private void transfer(ArchiveUploader uploader, Path file, long start, long length, String remoteName, MessageDigest digest,
+            Properties checkpoint, Path checkpointFile) throws IOException {
+        long offset = 0;
+        if (checkpoint.getProperty(remoteName) != null) {
+            // the remote file belongs to the same local file, continue after the data that reached the server
+            long remoteSize = uploader.getSize(remoteName);
+            if (remoteSize > 0 && remoteSize <= length) {
+                offset = remoteSize;
+                log.info("Resume upload of {} at byte {} of {}", remoteName, offset, length);
+            }
+        }
+        checkpoint.setProperty(remoteName, String.valueOf(offset));
+        writeCheckpoint(checkpointFile, checkpoint);
+
+        BagEvent event = phaseTimer.newEvent(PhaseTimer.UPLOAD);
+        event.setFile(remoteName);
+        try (SeekableByteChannel channel = Files.newByteChannel(file); InputStream in = Channels.newInputStream(channel.position(start))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            if (digest != null) {
+                // data already on the server is read again for the checksum
+                digest.reset();
+                hashRange(in, offset, buffer, digest);
+            } else {
+                channel.position(start + offset);
+            }
+            try (OutputStream out = offset > 0 ? uploader.newAppendingOutputStream(remoteName) : uploader.newOutputStream(remoteName)) {
+                long lastCheckpoint = offset;
+                long remaining = length - offset;
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        throw new IOException(file + " was truncated during the upload");
+                    }
+                    out.write(buffer, 0, read);
+                    BagMetrics.getInstance().addBytesUploaded(read);
+                    event.addBytes(read);
+                    if (digest != null) {
+                        digest.update(buffer, 0, read);
+                    }
+                    offset += read;
+                    remaining -= read;
+                    if (offset - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                        out.flush();
+                        checkpoint.setProperty(remoteName, String.valueOf(offset));
+                        writeCheckpoint(checkpointFile, checkpoint);
+                        lastCheckpoint = offset;
+                    }
+                }
+            }
+        }
+
+        long remoteSize = uploader.getSize(remoteName);
+        if (remoteSize != length) {
+            // the remote file is corrupt, start from the beginning on the next attempt
+            checkpoint.remove(remoteName);
+            writeCheckpoint(checkpointFile, checkpoint);
+            throw new IOException("Remote file " + remoteName + " has " + remoteSize + " bytes, expected " + length);
+        }
+        event.commit();
+    }
+
+    private static void hashRange(InputStream in, long length, byte[] buffer, MessageDigest digest) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new IOException("Unexpected end of file");
+            }
+            digest.update(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Load the checkpoint of a previous upload. The entries are only used, if the local file was not changed since then.
+     */
+    private static Properties readCheckpoint(Path file, Path checkpointFile) throws IOException {
+        String size = String.valueOf(Files.size(file));
+        String lastModified = String.valueOf(Files.getLastModifiedTime(file).toMillis());
+
+        Properties checkpoint = new Properties();
+        if (Files.exists(checkpointFile)) {
+            try (Reader reader = Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8)) {
+                checkpoint.load(reader);
+            } catch (IOException e) {
+                log.error(e);
+            }
+            if (!size.equals(checkpoint.getProperty("size")) || !lastModified.equals(checkpoint.getProperty("lastModified"))) {
+                checkpoint.clear();
+            }
+        }
+        checkpoint.setProperty("size", size);
+        checkpoint.setProperty("lastModified", lastModified);
+        return checkpoint;
+    }
+
+    private static void writeCheckpoint(Path checkpointFile, Properties checkpoint) throws IOException {
+        // parts are uploaded in parallel, but share a single checkpoint file
+        synchronized (checkpoint) {
+            Path tempFile = checkpointFile.resolveSibling(checkpointFile.getFileName().toString() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                checkpoint.store(writer, null);
+            }
+            Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static MessageDigest createDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private interface Transfer {
+        void run(ArchiveUploader uploader) throws IOException;
+    }
+}
@@ -0,0 +1,180 @@
+package de.intranda.goobi.plugins;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Performance record of a single bag creation or submission run
+ */
+@Getter
+public class RunSummary {
+
+    public static final String CREATION = "creation";
+    public static final String SUBMISSION = "submission";
+
+    // phases in the order of the csv columns
+    private static final String[] PHASES = { PhaseTimer.METADATA, PhaseTimer.EXPORT, PhaseTimer.METS, PhaseTimer.PAYLOAD,
+            PhaseTimer.ARCHIVE_METADATA, PhaseTimer.MANIFEST, PhaseTimer.TAR, PhaseTimer.UPLOAD, PhaseTimer.CLEANUP,
+            PhaseTimer.PAYLOAD_WAIT };
+
+    private static final double MEGABYTE = 1024d * 1024d;
+
+    private final String step;
+
+    private final int processId;
+
+    private final String identifier;
+
+    private final Instant finished = Instant.now();
+
+    // duration of each phase in milliseconds
+    private final Map<String, Long> phases;
+
+    // duration of the run, background phases are not counted
+    private final long totalMillis;
+
+    // number of files for each file group
+    private final Map<String, Integer> fileCounts = new LinkedHashMap<>();
+
+    @Setter
+    private long totalBytes;
+
+    // size of the temporary bag folder, the exported METS files and the local archive file before they are deleted
+    @Setter
+    private long peakDiskUsage;
+
+    public RunSummary(String step, PhaseTimer timer) {
+        this.step = step;
+        this.processId = timer.getProcessId();
+        this.identifier = timer.getIdentifier();
+        this.phases = timer.getDurations();
+        this.totalMillis = timer.getTotalMillis();
+    }
+
+    /**
+     * Count the files and bytes of a file group
+     *
+     * @param fl
+     */
+    public void addFileList(FileList fl) {
+        fileCounts.merge(fl.getFileGroupName(), fl.getFiles().size(), Integer::sum);
+        if (fl.getPayloadFiles() != null) {
+            for (PayloadFile payloadFile : fl.getPayloadFiles()) {
+                totalBytes += payloadFile.getSize();
+            }
+        }
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * @return processed bytes per second of the whole run in MB/s
+     */
+    public double getThroughput() {
+        long millis = getTotalMillis();
+        return millis == 0 ? 0 : totalBytes / MEGABYTE / (millis / 1000d);
+    }
+
+    /**
+     * @return values to add to bag-info.txt
+     */
+    public Map<String, String> toBagInfo() {
+        Map<String, String> bagInfo = new LinkedHashMap<>();
+        bagInfo.put("Bag-Creation-Files", formatFileCounts(", "));
+        bagInfo.put("Bag-Creation-Phases", formatPhases());
+        bagInfo.put("Bag-Creation-Throughput", formatThroughput() + " MB/s");
+        return bagInfo;
+    }
+
+    public static String getCsvHeader() {
+        StringBuilder sb = new StringBuilder("finished,step,processId,identifier,totalBytes,files,fileGroups,totalMillis,throughputMBs");
+        sb.append(",peakDiskBytes");
+        for (String phase : PHASES) {
+            sb.append(',').append(phase).append("Millis");
+        }
+        return sb.toString();
+    }
+
+    public String toCsvLine() {
+        int files = 0;
+        for (Integer count : fileCounts.values()) {
+            files += count;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(finished)
+                .append(',')
+                .append(step)
+                .append(',')
+                .append(processId)
+                .append(',')
+                .append(escapeCsv(identifier))
+                .append(',')
+                .append(totalBytes)
+                .append(',')
+                .append(files)
+                .append(',')
+                .append(escapeCsv(formatFileCounts(";")))
+                .append(',')
+                .append(getTotalMillis())
+                .append(',')
+                .append(formatThroughput())
+                .append(',')
+                .append(peakDiskUsage);
+        for (String phase : PHASES) {
+            sb.append(',').append(phases.getOrDefault(phase, 0L));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compact single line version, e.g. for a process property
+     */
+    @Override
+    public String toString() {
+        return "bytes: " + totalBytes + ", files: " + formatFileCounts(" ") + ", throughput: " + formatThroughput() + " MB/s, peak disk usage: "
+                + peakDiskUsage + " bytes, duration: " + getTotalMillis() + " ms (" + formatPhases() + ")";
+    }
+
+    private String formatFileCounts(String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : fileCounts.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(separator);
+            }
+            sb.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private String formatPhases() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : phases.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append(" ms");
+        }
+        return sb.toString();
+    }
+
+    private String formatThroughput() {
+        return String.format(Locale.ROOT, "%.1f", getThroughput());
+    }
+
+    private static String escapeCsv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
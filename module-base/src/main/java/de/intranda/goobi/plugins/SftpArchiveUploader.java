@@ -0,0 +1,132 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Upload into the remote folder of an SFTP server. The host key is checked like in SftpUtils: the host must be listed in the configured known_hosts
+ * file, unknown hosts and changed keys are rejected. If no file is configured, ~/.ssh/known_hosts is used.
+ */
+public class SftpArchiveUploader implements ArchiveUploader {
+
+    private static final String DEFAULT_KNOWN_HOSTS_FILE = "~/.ssh/known_hosts";
+
+    private final Session session;
+
+    private final ChannelSftp channel;
+
+    public SftpArchiveUploader(ConnectionConfiguration cc) throws IOException {
+        String knownHostsFile = expandHomeFolder(StringUtils.isBlank(cc.getKnownHostsFile()) ? DEFAULT_KNOWN_HOSTS_FILE : cc.getKnownHostsFile());
+        try {
+            JSch jsch = new JSch();
+            jsch.setKnownHosts(knownHostsFile);
+            if (StringUtils.isNotBlank(cc.getKeyfile())) {
+                // the password is used as passphrase for the key
+                String passphrase = cc.getPassword();
+                jsch.addIdentity(expandHomeFolder(cc.getKeyfile()), passphrase);
+            }
+            session = jsch.getSession(cc.getUserName(), cc.getHostname(), cc.getPort());
+            if (StringUtils.isBlank(cc.getKeyfile())) {
+                session.setPassword(cc.getPassword());
+            }
+            // never ask, a host that is not listed in the known_hosts file is rejected
+            session.setConfig("StrictHostKeyChecking", "yes");
+            try {
+                session.connect();
+            } catch (JSchException e) {
+                if (e.getMessage() != null && e.getMessage().contains("HostKey")) {
+                    throw new IOException("Host key of " + cc.getHostname() + " does not match the known_hosts file " + knownHostsFile, e);
+                }
+                throw e;
+            }
+            channel = (ChannelSftp) session.openChannel("sftp");
+            channel.connect();
+            if (StringUtils.isNotBlank(cc.getRemoteFolder())) {
+                channel.cd(cc.getRemoteFolder());
+            }
+        } catch (JSchException | SftpException e) {
+            close();
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public OutputStream newOutputStream(String remoteName) throws IOException {
+        try {
+            return channel.put(remoteName, ChannelSftp.OVERWRITE);
+        } catch (SftpException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public OutputStream newAppendingOutputStream(String remoteName) throws IOException {
+        try {
+            return channel.put(remoteName, ChannelSftp.APPEND);
+        } catch (SftpException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public long getSize(String remoteName) throws IOException {
+        try {
+            return channel.stat(remoteName).getSize();
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return -1;
+            }
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void rename(String from, String to) throws IOException {
+        try {
+            try {
+                channel.rm(to);
+            } catch (SftpException e) {
+                // file does not exist
+            }
+            channel.rename(from, to);
+        } catch (SftpException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void delete(String remoteName) throws IOException {
+        try {
+            channel.rm(remoteName);
+        } catch (SftpException e) {
+            if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            channel.disconnect();
+        }
+        if (session != null) {
+            session.disconnect();
+        }
+    }
+
+    private static String expandHomeFolder(String path) {
+        if (path.startsWith("~")) {
+            return System.getProperty("user.home") + path.substring(1);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,1237 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.production.GoobiVersion;
+import org.jdom2.Attribute;
+import org.jdom2.Content;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.Namespace;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import de.sub.goobi.helper.BagCreation;
+import de.sub.goobi.helper.XmlTools;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Converts the METS file exported from goobi into an E-ARK SIP METS file. Descriptive and administrative metadata are moved into separate files, a
+ * separate METS file is created for each representation.
+ *
+ * This implementation loads the complete document into memory. The individual steps are implemented for single sections of the document, so they
+ * can be reused by {@link StreamingSipMetsConverter}.
+ */
+@Log4j2
+public class SipMetsConverter {
+
+    static final Namespace metsNamespace = Namespace.getNamespace("mets", "http://www.loc.gov/METS/");
+    static final Namespace modsNamespace = Namespace.getNamespace("mods", "http://www.loc.gov/mods/v3");
+    static final Namespace sipNamespace = Namespace.getNamespace("sip", "https://DILCIS.eu/XML/METS/SIPExtensionMETS");
+    static final Namespace csipNamespace = Namespace.getNamespace("csip", "https://DILCIS.eu/XML/METS/CSIPExtensionMETS");
+    static final Namespace xlinkNamespace = Namespace.getNamespace("xlink", "http://www.w3.org/1999/xlink");
+    static final Namespace dvNamespace = Namespace.getNamespace("dv", "http://dfg-viewer.de/");
+    static final Namespace xsiNamespace = Namespace.getNamespace("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+
+    protected final BagCreation bag;
+
+    protected final GeneratedFileStore store;
+
+    @Setter
+    private String softwareName;
+    @Setter
+    private String organizationName;
+    @Setter
+    private String organizationAddress;
+    @Setter
+    private String organizationIdentifier;
+    @Setter
+    private String contactName;
+    @Setter
+    private String contactEmail;
+
+    // add the EAD and json files of the archive record as dmdSec
+    @Setter
+    protected boolean includeArchiveMetadata;
+
+    // generates the identifier of new elements, can be replaced to get reproducible results
+    @Setter
+    private Supplier<String> idGenerator = () -> "uuid-" + UUID.randomUUID().toString();
+
+    // receives the events of the generated files
+    @Setter
+    protected PhaseTimer phaseTimer = new PhaseTimer();
+
+    // detects the mime types of file groups using the original file extension
+    @Setter
+    protected MimeTypeResolver mimeTypeResolver = new MimeTypeResolver();
+
+    protected boolean anchorFileExists;
+
+    public SipMetsConverter(BagCreation bag, GeneratedFileStore store) {
+        this.bag = bag;
+        this.store = store;
+    }
+
+    /**
+     * Convert the exported METS file into the SIP METS file of the bag. The payload files must already be in the bag.
+     *
+     * @param metsFile exported METS file, it is only read and can be located outside of the bag
+     * @param identifier identifier of the bag
+     * @param files payload files for each file group
+     * @throws IOException
+     * @throws JDOMException
+     */
+    public void convert(Path metsFile, String identifier, Map<String, FileList> files) throws IOException, JDOMException {
+        Document doc = XmlTools.getSAXBuilder().build(metsFile.toString());
+        Element mets = doc.getRootElement();
+
+        changeRootElement(mets);
+
+        // enhance existing agent, add additional user agent for submitting agent (SIP4 - SIP 31)
+        String creationDate = createUserAgent(mets.getChild("metsHdr", metsNamespace));
+
+        // enhance dmdSecs
+        String dmdIds = changeDmdSecs(mets, creationDate);
+
+        if (includeArchiveMetadata) {
+            for (Element dmdSec : createArchiveDmdSecs(creationDate)) {
+                insertBeforeAmdSec(mets, dmdSec);
+                dmdIds = dmdIds + " " + dmdSec.getAttributeValue("ID");
+            }
+        }
+
+        changeAmdSec(mets.getChild("amdSec", metsNamespace), creationDate, "", anchorFileExists);
+
+        changeFileSec(files, mets, creationDate);
+
+        changeStructMap(mets, identifier, dmdIds);
+
+        removeStructLinks(mets);
+
+        cleanUpNamespacesAndSchemaLocation(mets);
+        // save enhanced file
+        writeXmlFile(doc, getSipMetsFile());
+    }
+
+    /**
+     * Move the metadata of the anchor METS file into separate files. The METS file itself is not needed afterwards.
+     *
+     * @param anchorFile
+     */
+    public void convertAnchor(Path anchorFile) {
+        anchorFileExists = true;
+        try {
+            // open file
+            Document anchorDoc = XmlTools.getSAXBuilder().build(anchorFile.toString());
+            Element mets = anchorDoc.getRootElement();
+            Element logicalDiv = mets.getChild("structMap", metsNamespace).getChild("div", metsNamespace);
+            Element mptr = logicalDiv.getChild("div", metsNamespace).getChild("mptr", metsNamespace);
+
+            String creationDate = createUserAgent(mets.getChild("metsHdr", metsNamespace));
+
+            // amdSec
+            changeAmdSec(mets.getChild("amdSec", metsNamespace), creationDate, "-anchor", false);
+
+            // change dmdSec
+            Element dmdSec = mets.getChild("dmdSec", metsNamespace);
+            String dmdSecId = "MODS-" + dmdSec.getAttributeValue("ID");
+            dmdSec.setAttribute("ID", dmdSecId);
+            logicalDiv.setAttribute("DMDID", dmdSecId);
+            dmdSec.setAttribute("CREATED", creationDate); // CSIP19
+            dmdSec.setAttribute("STATUS", "CURRENT"); // CSIP20
+
+            // get mods element
+            Element mdWrap = dmdSec.getChild("mdWrap", metsNamespace);
+            Element xmlData = mdWrap.getChild("xmlData", metsNamespace);
+            Element mods = xmlData.getChild("mods", modsNamespace);
+            // create deep copy
+            Element copy = mods.clone();
+
+            // create external file, remove content from dmdSec, add file reference to dmdSec,
+            Element mdRef = createMetadataFile(copy, "metadata/", "descriptive/", dmdSecId,
+                    "http://www.loc.gov/mods/v3 http://www.loc.gov/standards/mods/v3/mods-3-7.xsd");
+            dmdSec.removeContent(mdWrap);
+            dmdSec.addContent(mdRef);
+
+            // update link in structMap
+            mptr.setAttribute("href", "../../../METS.xml", xlinkNamespace);
+
+        } catch (IOException | JDOMException e) {
+            log.error(e);
+        }
+    }
+
+    /**
+     * Destination of the converted METS file
+     */
+    protected Path getSipMetsFile() {
+        return Paths.get(bag.getIeFolder().toString(), "METS.xml");
+    }
+
+    protected String newId() {
+        return idGenerator.get();
+    }
+
+    protected void changeRootElement(Element mets) {
+        mets.addNamespaceDeclaration(sipNamespace);
+        mets.addNamespaceDeclaration(csipNamespace);
+        mets.setAttribute("TYPE", "Mixed"); // CSIP2
+        mets.setAttribute("PROFILE", "https://earksip.dilcis.eu/profile/E-ARK-SIP.xml"); // SIP2
+        mets.setAttribute("CONTENTINFORMATIONTYPE", "MIXED", csipNamespace); // CSIP4
+    }
+
+    protected String createUserAgent(Element metsHdr) {
+        /*
+        <mets:agent ROLE="CREATOR" TYPE="INDIVIDUAL">
+          <mets:name />
+          <mets:note csip:NOTETYPE="IDENTIFICATIONCODE">1</mets:note>
+        </mets:agent>
+         */
+
+        // software
+        metsHdr.setAttribute("OAISPACKAGETYPE", "SIP", csipNamespace); // SIP4
+        metsHdr.setAttribute("RECORDSTATUS", "NEW"); // SIP3
+        String creationDate = metsHdr.getAttributeValue("CREATEDATE");
+        Element agent = metsHdr.getChild("agent", metsNamespace);
+
+        Element name = agent.getChild("name", metsNamespace);
+        name.setText(softwareName);
+        Element noteVersion = agent.getChild("note", metsNamespace);
+        if (noteVersion == null) {
+            noteVersion = new Element("note", metsNamespace);
+            agent.addContent(noteVersion);
+        }
+        noteVersion.setAttribute("NOTETYPE", "SOFTWARE VERSION", csipNamespace); // SIP20
+        noteVersion.setText(GoobiVersion.getVersion());
+
+        // organization
+        Element agent2 = new Element("agent", metsNamespace);
+        agent2.setAttribute("ROLE", "CREATOR");
+        agent2.setAttribute("TYPE", "ORGANIZATION");
+        metsHdr.addContent(agent2);
+        Element organisationName = new Element("name", metsNamespace);
+        organisationName.setText(organizationName); // SIP24
+        agent2.addContent(organisationName);
+
+        Element organisationNote = new Element("note", metsNamespace);
+        organisationNote.setText(organizationAddress);
+        agent2.addContent(organisationNote);
+
+        Element identificationNote = new Element("note", metsNamespace);
+        identificationNote.setText(organizationIdentifier);
+        identificationNote.setAttribute("NOTETYPE", "IDENTIFICATIONCODE", csipNamespace); // SIP20
+        agent2.addContent(identificationNote);
+
+        // individual
+        Element agent3 = new Element("agent", metsNamespace);
+        agent3.setAttribute("ROLE", "CREATOR"); // SIP16
+        agent3.setAttribute("TYPE", "INDIVIDUAL"); // SIP17
+        metsHdr.addContent(agent3);
+        Element name3 = new Element("name", metsNamespace);
+        name3.setText(contactName); // SIP24
+        agent3.addContent(name3);
+        Element note3 = new Element("note", metsNamespace);
+        note3.setText(contactEmail);
+        agent3.addContent(note3);
+        return creationDate;
+    }
+
+    private String changeDmdSecs(Element mets, String creationDate) {
+        StringBuilder ids = new StringBuilder();
+
+        List<Element> dmdSecs = mets.getChildren("dmdSec", metsNamespace);
+        List<Element> logicalElements = new ArrayList<>();
+        List<Element> structMaps = mets.getChildren("structMap", metsNamespace);
+        for (Element structMap : structMaps) {
+            if ("LOGICAL".equals(structMap.getAttributeValue("TYPE"))) {
+                getAllDivElements(logicalElements, structMap);
+            }
+        }
+        Element topElement = logicalElements.get(0);
+        LogicalDivIndex logicalDivs = new LogicalDivIndex(logicalElements);
+
+        Element anchorDmdSec = null;
+        // check if we have an anchor element, first sub element is mets:mptr
+        if (isAnchorPointer(topElement)) {
+            anchorDmdSec = createAnchorDmdSec(creationDate);
+        }
+        changeTopElement(topElement);
+
+        for (int i = 0; i < dmdSecs.size(); i++) {
+            Element dmdSec = dmdSecs.get(i);
+            String oldId = i == 0 ? "MODS" : dmdSec.getAttributeValue("ID");
+            String dmdSecId = changeDmdSec(dmdSec, i == 0, creationDate);
+            logicalDivs.changeDmdId(oldId, dmdSecId);
+
+            if (ids.length() > 0) {
+                ids.append(" ");
+            }
+            ids.append(dmdSecId);
+        }
+
+        //  add new dmdSec above amdSec
+        if (anchorDmdSec != null) {
+            insertBeforeAmdSec(mets, anchorDmdSec);
+        }
+
+        return ids.toString();
+    }
+
+    private void insertBeforeAmdSec(Element mets, Element element) {
+        List<Element> children = mets.getChildren();
+        for (int counter = 0; counter < children.size(); counter++) {
+            if ("amdSec".equals(children.get(counter).getName())) {
+                mets.addContent(counter, element);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Check if the top element of the logical structMap points to an anchor METS file, the first sub element is mets:mptr
+     */
+    protected static boolean isAnchorPointer(Element topElement) {
+        return !topElement.getChildren().isEmpty() && "mptr".equals(topElement.getChildren().get(0).getName());
+    }
+
+    /**
+     * Link the top element of the logical structMap with the main dmdSec. If the element points to an anchor file, the anchor element gets linked
+     * to the anchor dmdSec instead and the first child is used.
+     *
+     * @return the element linked with the main dmdSec
+     */
+    protected Element changeTopElement(Element topElement) {
+        Element element = topElement;
+        if (isAnchorPointer(element)) {
+            Element subElement = element.getChildren().get(0);
+            //  remove mptr
+            element.setAttribute("ADMID", "RIGHTS-anchor DIGIPROV-anchor");
+            element.setAttribute("DMDID", "MODS-DMDLOG_0000");
+            element.setAttribute("ID", "LOG_0000");
+            element.removeContent(subElement);
+            element = element.getChildren().get(0);
+        }
+        element.setAttribute("ADMID", "RIGHTS DIGIPROV");
+        element.setAttribute("DMDID", "MODS");
+        return element;
+    }
+
+    protected Element createAnchorDmdSec(String creationDate) {
+        Element anchorDmdSec = new Element("dmdSec", metsNamespace);
+        anchorDmdSec.setAttribute("CREATED", creationDate);
+        anchorDmdSec.setAttribute("STATUS", "CURRENT");
+        anchorDmdSec.setAttribute("ID", "MODS-DMDLOG_0000");
+        Element mdRef = new Element("mdRef", metsNamespace);
+        mdRef.setAttribute("ID", newId());
+        mdRef.setAttribute("LOCTYPE", "URL");
+        mdRef.setAttribute("MDTYPE", "MODS");
+        mdRef.setAttribute("MIMETYPE", "text/xml");
+        mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
+        mdRef.setAttribute("type", "simple", xlinkNamespace);
+
+        String filename = "metadata/descriptive/MODS-DMDLOG_0000.xml";
+        Path file = Paths.get(bag.getIeFolder().toString(), filename);
+        mdRef.setAttribute("href", filename, xlinkNamespace);
+
+        PayloadFile fileInformation = store.getFileInformation(file);
+        mdRef.setAttribute("SIZE", "" + fileInformation.getSize());
+        mdRef.setAttribute("CREATED", fileInformation.getCreationTime());
+        mdRef.setAttribute("CHECKSUM", fileInformation.getChecksum());
+        anchorDmdSec.addContent(mdRef);
+        return anchorDmdSec;
+    }
+
+    /**
+     * Move the mods record of the dmdSec into a separate file
+     *
+     * @param dmdSec
+     * @param mainElement true for the first dmdSec of the document
+     * @param creationDate
+     * @return new identifier of the dmdSec
+     */
+    protected String changeDmdSec(Element dmdSec, boolean mainElement, String creationDate) {
+        if (mainElement) {
+            dmdSec.setAttribute("ID", "MODS");
+        }
+        String dmdSecId = dmdSec.getAttributeValue("ID");
+        if (dmdSecId.startsWith("DMDLOG")) {
+            dmdSecId = "MODS-" + dmdSecId;
+            dmdSec.setAttribute("ID", dmdSecId);
+        }
+
+        dmdSec.setAttribute("CREATED", creationDate); // CSIP19
+        dmdSec.setAttribute("STATUS", "CURRENT"); // CSIP20
+
+        // get mods element
+        Element mdWrap = dmdSec.getChild("mdWrap", metsNamespace);
+        Element xmlData = mdWrap.getChild("xmlData", metsNamespace);
+        Element mods = xmlData.getChild("mods", modsNamespace);
+
+        // create deep copy
+        Element copy = mods.clone();
+        try {
+            // create external file, remove content from dmdSec, add file reference to dmdSec,
+            Element mdRef = createMetadataFile(copy, "metadata/", "descriptive/", dmdSecId,
+                    "http://www.loc.gov/mods/v3 http://www.loc.gov/standards/mods/v3/mods-3-7.xsd");
+            dmdSec.removeContent(mdWrap);
+            dmdSec.addContent(mdRef);
+        } catch (IOException e) {
+            log.error(e);
+        }
+        return dmdSecId;
+    }
+
+    /**
+     * Logical elements indexed by their DMDID, each change needs only a lookup instead of a search through all elements
+     */
+    protected static class LogicalDivIndex {
+
+        // elements with the same DMDID, sorted by their position in the list
+        private final Map<String, TreeMap<Integer, Element>> divsByDmdId = new HashMap<>();
+
+        private final Map<Element, Integer> positions = new IdentityHashMap<>();
+
+        protected LogicalDivIndex(List<Element> logicalElements) {
+            for (int i = 0; i < logicalElements.size(); i++) {
+                Element div = logicalElements.get(i);
+                positions.put(div, i);
+                add(div);
+            }
+        }
+
+        /**
+         * Update the link of the first logical element that references the old dmdSec identifier
+         *
+         * @return true, if an element was found
+         */
+        protected boolean changeDmdId(String oldId, String newId) {
+            TreeMap<Integer, Element> divs = divsByDmdId.get(oldId);
+            if (divs == null || divs.isEmpty()) {
+                return false;
+            }
+            if (!oldId.equals(newId)) {
+                Element div = divs.pollFirstEntry().getValue();
+                div.setAttribute("DMDID", newId);
+                add(div);
+            }
+            return true;
+        }
+
+        private void add(Element div) {
+            String divId = div.getAttributeValue("DMDID");
+            if (StringUtils.isNotBlank(divId)) {
+                divsByDmdId.computeIfAbsent(divId, k -> new TreeMap<>()).put(positions.get(div), div);
+            }
+        }
+    }
+
+    protected static void getAllDivElements(List<Element> logicalElements, Element structMap) {
+        List<Element> divs = structMap.getChildren();
+        if (!divs.isEmpty()) {
+            logicalElements.addAll(divs);
+            for (Element div : divs) {
+                if (!div.getChildren().isEmpty()) {
+                    getAllDivElements(logicalElements, div);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create dmdSec elements for the EAD and json files of the archive record
+     */
+    protected List<Element> createArchiveDmdSecs(String creationDate) {
+        List<Element> dmdSecs = new ArrayList<>();
+        Path eadFile = Paths.get(bag.getMetadataFolder().toString(), "descriptive", "ead.xml");
+        Path jsonFile = Paths.get(bag.getMetadataFolder().toString(), "descriptive", "node.json");
+
+        // add EAD.xml file to METS
+        String eadUuid = newId();
+        Element eadDmd = new Element("dmdSec", metsNamespace);
+        eadDmd.setAttribute("CREATED", creationDate);
+        eadDmd.setAttribute("STATUS", "CURRENT");
+        eadDmd.setAttribute("ID", eadUuid);
+        Element mdRef = new Element("mdRef", metsNamespace);
+        mdRef.setAttribute("LOCTYPE", "URL");
+        mdRef.setAttribute("MDTYPE", "EAD");
+        mdRef.setAttribute("MDTYPEVERSION", "3");
+        mdRef.setAttribute("MIMETYPE", "text/xml");
+        mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
+
+        String filename = "metadata/descriptive/EAD.xml";
+        mdRef.setAttribute("href", filename, xlinkNamespace);
+        PayloadFile fileInformation = store.getFileInformation(eadFile);
+        mdRef.setAttribute("SIZE", "" + fileInformation.getSize());
+        mdRef.setAttribute("CREATED", fileInformation.getCreationTime());
+        mdRef.setAttribute("CHECKSUM", fileInformation.getChecksum());
+        eadDmd.addContent(mdRef);
+        dmdSecs.add(eadDmd);
+
+        // aff json file to METS
+        String jsonUuid = newId();
+        Element jsonDmd = new Element("dmdSec", metsNamespace);
+        jsonDmd.setAttribute("CREATED", creationDate);
+        jsonDmd.setAttribute("STATUS", "CURRENT");
+        jsonDmd.setAttribute("ID", jsonUuid);
+        mdRef = new Element("mdRef", metsNamespace);
+        mdRef.setAttribute("LOCTYPE", "URL");
+        mdRef.setAttribute("MDTYPE", "EAD");
+        mdRef.setAttribute("MIMETYPE", "text/json");
+        mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
+
+        filename = "metadata/descriptive/node.json";
+        mdRef.setAttribute("href", filename, xlinkNamespace);
+        fileInformation = store.getFileInformation(jsonFile);
+        mdRef.setAttribute("SIZE", "" + fileInformation.getSize());
+        mdRef.setAttribute("CREATED", fileInformation.getCreationTime());
+        mdRef.setAttribute("CHECKSUM", fileInformation.getChecksum());
+        jsonDmd.addContent(mdRef);
+        dmdSecs.add(jsonDmd);
+        return dmdSecs;
+    }
+
+    protected void changeAmdSec(Element amdSec, String creationDate, String suffix, boolean anchorFileExists) {
+        // CSIP31
+        if (amdSec != null) {
+
+            Element digiprovMD = amdSec.getChild("digiprovMD", metsNamespace);
+            if (digiprovMD != null) {
+                digiprovMD.setAttribute("STATUS", "CURRENT"); // CSIP34
+                digiprovMD.setAttribute("CREATED", creationDate);
+                // generate separate files for content, create link to the file with mdRef // CSIP35 - CSIP44
+                Element mdWrap = digiprovMD.getChild("mdWrap", metsNamespace);
+                Element xmlData = mdWrap.getChild("xmlData", metsNamespace);
+                Element links = xmlData.getChild("links", dvNamespace);
+                // create deep copy
+                Element copy = links.clone();
+                try {
+                    Element mdRef = createMetadataFile(copy, "metadata/", "other/", "DIGIPROV" + suffix, "");
+                    mdRef.setAttribute("MDTYPE", "OTHER");
+                    mdRef.setAttribute("OTHERMDTYPE", "DVLINKS");
+
+                    digiprovMD.removeContent(mdWrap);
+                    digiprovMD.addContent(mdRef);
+                } catch (IOException e) {
+                    log.error(e);
+                }
+            }
+
+            Element rightsMD = amdSec.getChild("rightsMD", metsNamespace);
+            if (rightsMD != null) {
+                rightsMD.setAttribute("STATUS", "CURRENT"); // CSIP47
+                rightsMD.setAttribute("CREATED", creationDate);
+
+                // generate separate files for content, create link to the file with mdRef // CSIP48 - CSIP57
+                Element mdWrap = rightsMD.getChild("mdWrap", metsNamespace);
+                Element xmlData = mdWrap.getChild("xmlData", metsNamespace);
+                Element rights = xmlData.getChild("rights", dvNamespace);
+                // create deep copy
+                Element copy = rights.clone();
+                try {
+                    Element mdRef = createMetadataFile(copy, "metadata/", "other/", "DVRIGHTS" + suffix, "");
+                    mdRef.setAttribute("MDTYPE", "OTHER");
+                    mdRef.setAttribute("OTHERMDTYPE", "DVRIGHTS");
+                    rightsMD.removeContent(mdWrap);
+                    rightsMD.addContent(mdRef);
+                } catch (IOException e) {
+                    log.error(e);
+                }
+            }
+
+            if (anchorFileExists) {
+                // add entries for DIGIPROV-anchor and DVRIGHTS-anchor
+                String filename = "metadata/other/DVRIGHTS-anchor.xml";
+                Path file = Paths.get(bag.getIeFolder().toString(), filename);
+                if (store.isFileInBag(file)) {
+                    Element anchorRightsMD = new Element("rightsMD", metsNamespace);
+                    anchorRightsMD.setAttribute("ID", "RIGHTS-anchor");
+                    anchorRightsMD.setAttribute("STATUS", "CURRENT");
+                    anchorRightsMD.setAttribute("CREATED", creationDate);
+
+                    Element mdRef = new Element("mdRef", metsNamespace);
+                    mdRef.setAttribute("ID", newId());
+                    mdRef.setAttribute("LOCTYPE", "URL");
+                    mdRef.setAttribute("MDTYPE", "OTHER");
+                    mdRef.setAttribute("MIMETYPE", "text/xml");
+                    mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
+                    mdRef.setAttribute("type", "simple", xlinkNamespace);
+                    mdRef.setAttribute("href", filename, xlinkNamespace);
+                    mdRef.setAttribute("OTHERMDTYPE", "DVRIGHTS");
+                    PayloadFile fileInformation = store.getFileInformation(file);
+                    mdRef.setAttribute("SIZE", "" + fileInformation.getSize());
+                    mdRef.setAttribute("CREATED", fileInformation.getCreationTime());
+                    mdRef.setAttribute("CHECKSUM", fileInformation.getChecksum());
+                    anchorRightsMD.addContent(mdRef);
+                    amdSec.addContent(1, anchorRightsMD);
+                }
+
+                filename = "metadata/other/DIGIPROV-anchor.xml";
+                file = Paths.get(bag.getIeFolder().toString(), filename);
+                if (store.isFileInBag(file)) {
+                    Element anchorRightsMD = new Element("digiprovMD", metsNamespace);
+                    anchorRightsMD.setAttribute("ID", "DIGIPROV-anchor");
+                    anchorRightsMD.setAttribute("STATUS", "CURRENT");
+                    anchorRightsMD.setAttribute("CREATED", creationDate);
+
+                    Element mdRef = new Element("mdRef", metsNamespace);
+                    mdRef.setAttribute("ID", newId());
+                    mdRef.setAttribute("LOCTYPE", "URL");
+                    mdRef.setAttribute("MDTYPE", "OTHER");
+                    mdRef.setAttribute("MIMETYPE", "text/xml");
+                    mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
+                    mdRef.setAttribute("type", "simple", xlinkNamespace);
+                    mdRef.setAttribute("href", filename, xlinkNamespace);
+                    mdRef.setAttribute("OTHERMDTYPE", "DVRIGHTS");
+                    PayloadFile fileInformation = store.getFileInformation(file);
+                    mdRef.setAttribute("SIZE", "" + fileInformation.getSize());
+                    mdRef.setAttribute("CREATED", fileInformation.getCreationTime());
+                    mdRef.setAttribute("CHECKSUM", fileInformation.getChecksum());
+                    anchorRightsMD.addContent(mdRef);
+                    amdSec.addContent(amdSec.getChildren().size(), anchorRightsMD);
+                }
+            }
+        }
+    }
+
+    private void changeFileSec(Map<String, FileList> files, Element mets, String creationDate) throws IOException {
+        Element fileSec = mets.getChild("fileSec", metsNamespace);
+        fileSec.setAttribute("ID", newId()); // CSIP59
+
+        List<Element> filegroupsToDelete = new ArrayList<>();
+
+        for (Element fileGrp : fileSec.getChildren("fileGrp", metsNamespace)) {
+            fileGrp.setAttribute("ID", newId());
+
+            String name = fileGrp.getAttributeValue("USE");
+            FileList fl = files.get(name);
+            List<Path> filesInFolder = fl.getFiles();
+            // remove filegrp if file list is empty
+            if (filesInFolder.isEmpty()) {
+                filegroupsToDelete.add(fileGrp);
+                continue;
+            }
+            if (name.startsWith("Representations")) {
+                Set<Element> filesToDelete = Collections.newSetFromMap(new IdentityHashMap<>());
+                List<Element> filesInXml = fileGrp.getChildren("file", metsNamespace);
+                for (int i = 0; i < filesInXml.size(); i++) {
+                    Element fileElement = filesInXml.get(i);
+                    if (filesInFolder.size() > i) {
+                        changeRepresentationFile(fileElement, fl, i);
+                    } else {
+                        // if actual filesize is smaller than filegroup size, remove superfluous files
+                        filesToDelete.add(fileElement);
+                    }
+                }
+                removeChildren(fileGrp, filesToDelete);
+
+                // create separate file for each fileGrp, create link to the file with mdRef (CSIP76 - SIP35)
+                Element clone = fileGrp.clone();
+
+                Element file = createFileGroupFile(mets, clone, creationDate);
+
+                fileGrp.removeContent();
+                fileGrp.addContent(file);
+
+            } else {
+
+                // clear existing files in filegrp
+                fileGrp.removeContent();
+
+                // for each file add a new file
+                for (PayloadFile payloadFile : fl.getPayloadFiles()) {
+                    fileGrp.addContent(createFileElement(fl, name, payloadFile));
+                }
+            }
+        }
+
+        for (Element fileGroup : filegroupsToDelete) {
+            fileSec.removeContent(fileGroup);
+        }
+    }
+
+    /**
+     * Add size, checksum and location of the payload file to the existing file element of a representation
+     *
+     * @param fileElement
+     * @param fl file list of the file group
+     * @param index position of the file element within the file group
+     * @throws IOException
+     */
+    protected void changeRepresentationFile(Element fileElement, FileList fl, int index) throws IOException {
+        Path file = fl.getFiles().get(index);
+        PayloadFile payloadFile = fl.getPayloadFiles().get(index);
+        String filename = file.toString().replace(fl.getSourceFolder().toString(), "");
+        // checksum, filesize, changedate
+        fileElement.setAttribute("SIZE", "" + payloadFile.getSize()); // CSIP69
+        fileElement.setAttribute("CREATED", payloadFile.getCreationTime()); // CSIP70
+        fileElement.setAttribute("CHECKSUM", payloadFile.getChecksum()); // CSIP71
+        fileElement.setAttribute("CHECKSUMTYPE", "SHA-256"); // CSIP72
+        Element flocat = fileElement.getChild("FLocat", metsNamespace);
+        flocat.setAttribute("type", "simple", xlinkNamespace); // CSIP78
+        flocat.setAttribute("href", "data" + URLEncoder.encode(filename, "UTF-8").replace("%2F", "/"), xlinkNamespace); // CSIP78
+    }
+
+    /**
+     * Create a new file element for a payload file
+     *
+     * @param fl file list of the file group
+     * @param name name of the file group
+     * @param payloadFile
+     * @return
+     * @throws IOException
+     */
+    protected Element createFileElement(FileList fl, String name, PayloadFile payloadFile) throws IOException {
+        Path file = payloadFile.getSource();
+
+        Element fileElement = new Element("file", metsNamespace);
+        // checksum, filesize, changedate
+        fileElement.setAttribute("ID", newId());
+        fileElement.setAttribute("SIZE", "" + payloadFile.getSize()); // CSIP69
+        fileElement.setAttribute("CREATED", payloadFile.getCreationTime()); // CSIP70
+        fileElement.setAttribute("CHECKSUM", payloadFile.getChecksum()); // CSIP71
+        fileElement.setAttribute("CHECKSUMTYPE", "SHA-256"); // CSIP72
+
+        Element flocat = new Element("FLocat", metsNamespace);
+
+        String filename = file.toString().replace(fl.getSourceFolder().toString(), "");
+
+        flocat.setAttribute("LOCTYPE", "URL");
+        flocat.setAttribute("type", "simple", xlinkNamespace); // CSIP78
+        if ("Other".equals(name)) {
+            fileElement.setAttribute("MIMETYPE", "text/xml");
+            flocat.setAttribute("href", "other/" + file.getFileName().toString(), xlinkNamespace); // CSIP78
+        } else {
+            String mimetype;
+            if (fl.isUseOrigFileExtension()) {
+                mimetype = mimeTypeResolver.getMimeType(fl.getFileGroupName(), file);
+            } else {
+                mimetype = fl.getMimetype();
+            }
+            fileElement.setAttribute("MIMETYPE", mimetype);
+            flocat.setAttribute("href", fl.getFileGroupName().toLowerCase() + URLEncoder.encode(filename, "UTF-8").replace("%2F", "/"),
+                    xlinkNamespace); // CSIP78
+        }
+        fileElement.addContent(flocat);
+        return fileElement;
+    }
+
+    private Element createFileGroupFile(Element oldMets, Element fileGrp, String creationDate) throws IOException {
+        String use = fileGrp.getAttributeValue("USE");
+        BagEvent event = phaseTimer.newEvent(BagEvent.REPRESENTATION);
+        fileGrp.setAttribute("USE", "Data"); // replace use value
+        String fileGrpType = getFileGroupType(use);
+
+        int numberOfFiles = 0;
+        Set<String> fileIdentifier = new HashSet<>();
+        for (Element file : fileGrp.getChildren("file", metsNamespace)) {
+            numberOfFiles++;
+            fileIdentifier.add(changeFileIdentifier(file));
+        }
+
+        //  create new mets file
+        Element metsRoot = createRepresentationRoot(fileGrpType);
+        metsRoot.addContent(createRepresentationHeader(creationDate));
+        Element fileSec = createRepresentationFileSec();
+        metsRoot.addContent(fileSec);
+        fileSec.addContent(fileGrp);
+
+        // structMap
+        Set<String> pageIDs = new HashSet<>();
+        List<Element> structMaps = oldMets.getChildren("structMap", metsNamespace);
+        for (Element structMap : structMaps) {
+            if ("PHYSICAL".equals(structMap.getAttributeValue("TYPE"))) {
+                pageIDs = createPhysicalStructMap(fileGrpType, fileIdentifier, metsRoot, structMap, numberOfFiles);
+            }
+
+        }
+
+        // structLink
+        Element structLink = oldMets.getChild("structLink", metsNamespace).clone();
+        //  remove non existing, superfluous files
+        Set<Element> smLinkRemoveList = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (Element smLink : structLink.getChildren()) {
+            if (!changeStructLink(smLink, pageIDs)) {
+                smLinkRemoveList.add(smLink);
+            }
+        }
+        removeChildren(structLink, smLinkRemoveList);
+
+        metsRoot.addContent(structLink);
+
+        Document doc = new Document();
+        doc.setRootElement(metsRoot);
+
+        cleanUpNamespacesAndSchemaLocation(metsRoot);
+        PayloadFile fileInformation = writeXmlFile(doc, getRepresentationMetsFile(use, fileGrpType));
+        commitEvent(event, use, fileInformation);
+
+        return createRepresentationFileElement(fileInformation, use);
+    }
+
+    protected static String getFileGroupType(String use) {
+        return use.replace("Representations/", "").replace("Documentation/", "").replace("Other/", "");
+    }
+
+    /**
+     * Prefix the identifier of a file element of a representation
+     *
+     * @return the original identifier
+     */
+    protected static String changeFileIdentifier(Element file) {
+        String fileId = file.getAttributeValue("ID");
+        if (!fileId.startsWith("uuid")) {
+            file.setAttribute("ID", "uuid-" + fileId);
+        }
+        return fileId;
+    }
+
+    protected static Element createRepresentationRoot(String fileGrpType) {
+        Element metsRoot = new Element("mets", metsNamespace);
+        metsRoot.addNamespaceDeclaration(sipNamespace);
+        metsRoot.addNamespaceDeclaration(csipNamespace);
+        metsRoot.addNamespaceDeclaration(xlinkNamespace);
+        metsRoot.addNamespaceDeclaration(xsiNamespace);
+        metsRoot.setAttribute("OBJID", fileGrpType);
+        metsRoot.setAttribute("LABEL", fileGrpType + " copy");
+        metsRoot.setAttribute("TYPE", "Mixed");
+        metsRoot.setAttribute("CONTENTINFORMATIONTYPE", "MIXED", csipNamespace);
+        metsRoot.setAttribute("PROFILE", "https://earksip.dilcis.eu/profile/E-ARK-SIP.xml");
+        metsRoot.setAttribute("schemaLocation",
+                "http://www.loc.gov/mods/v3 http://www.loc.gov/standards/mods/v3/mods-3-7.xsd http://www.loc.gov/METS/ https://www.loc.gov/standards/mets/version112/mets.xsd",
+                xsiNamespace);
+        return metsRoot;
+    }
+
+    protected static Element createRepresentationHeader(String creationDate) {
+        Element metsHdr = new Element("metsHdr", metsNamespace);
+        metsHdr.setAttribute("CREATEDATE", creationDate);
+        metsHdr.setAttribute("LASTMODDATE", creationDate);
+        metsHdr.setAttribute("RECORDSTATUS", "NEW");
+        metsHdr.setAttribute("OAISPACKAGETYPE", "SIP", csipNamespace);
+        return metsHdr;
+    }
+
+    protected Element createRepresentationFileSec() {
+        Element fileSec = new Element("fileSec", metsNamespace);
+        fileSec.setAttribute("ID", newId());
+        return fileSec;
+    }
+
+    /**
+     * Create the physical structMap of a representation, the sequence of pages is added later
+     */
+    protected Element createRepresentationStructMap(String fileGrpType) {
+        Element physicalStructMap = new Element("structMap", metsNamespace);
+        physicalStructMap.setAttribute("ID", newId());
+        physicalStructMap.setAttribute("TYPE", "PHYSICAL");
+        physicalStructMap.setAttribute("LABEL", "CSIP");
+
+        Element div = new Element("div", metsNamespace);
+        div.setAttribute("ID", newId());
+        div.setAttribute("TYPE", "OTHER");
+        div.setAttribute("LABEL", fileGrpType);
+        physicalStructMap.addContent(div);
+        return physicalStructMap;
+    }
+
+    protected Path getRepresentationMetsFile(String use, String fileGrpType) {
+        if (use.startsWith("Representations")) {
+            return Paths.get(bag.getObjectsFolder().toString(), fileGrpType, "METS.xml");
+        } else if (use.startsWith("Documentation")) {
+            return Paths.get(bag.getDocumentationFolder().toString(), fileGrpType, "METS.xml");
+        } else if (use.startsWith("Attachment")) {
+            return Paths.get(bag.getAttachmentsFolder().toString(), fileGrpType, "METS.xml");
+        } else {
+            //other
+            return Paths.get(bag.getOtherFolder().toString(), fileGrpType, "METS.xml");
+        }
+    }
+
+    /**
+     * Create the file element that links the METS file of a representation in the main METS file
+     */
+    protected Element createRepresentationFileElement(PayloadFile fileInformation, String use) {
+        Element file = new Element("file", metsNamespace);
+
+        file.setAttribute("ID", newId());
+        file.setAttribute("MIMETYPE", "text/xml");
+        file.setAttribute("SIZE", "" + fileInformation.getSize());
+        file.setAttribute("CREATED", fileInformation.getCreationTime());
+        file.setAttribute("CHECKSUM", fileInformation.getChecksum());
+        file.setAttribute("CHECKSUMTYPE", "SHA-256");
+
+        Element flocat = new Element("FLocat", metsNamespace);
+        flocat.setAttribute("type", "simple", xlinkNamespace);
+        flocat.setAttribute("href", use.toLowerCase() + "/METS.xml", xlinkNamespace);
+        flocat.setAttribute("LOCTYPE", "URL");
+        file.addContent(flocat);
+        return file;
+    }
+
+    private Set<String> createPhysicalStructMap(String fileGrpType, Set<String> fileIdentifier, Element metsRoot, Element structMap,
+            int numberOfFiles) {
+        Element physSequence = structMap.getChild("div", metsNamespace).clone();
+
+        Element physicalStructMap = createRepresentationStructMap(fileGrpType);
+        metsRoot.addContent(physicalStructMap);
+
+        physSequence.setAttribute("LABEL", "Data");
+
+        physicalStructMap.getChild("div", metsNamespace).addContent(physSequence);
+        // remove non existing, superfluous files
+        Set<Element> pageRemoveList = Collections.newSetFromMap(new IdentityHashMap<>());
+        int pageNo = 0;
+        for (Element page : physSequence.getChildren("div", metsNamespace)) {
+            if (pageNo < numberOfFiles) {
+                changeRepresentationPage(page, fileIdentifier);
+            } else {
+                pageRemoveList.add(page);
+            }
+            pageNo++;
+        }
+        removeChildren(physSequence, pageRemoveList);
+        // finally list all remaining page/area identifier
+        Set<String> idList = new HashSet<>();
+        for (Element page : physSequence.getChildren("div", metsNamespace)) {
+            collectPageIdentifier(page, idList);
+        }
+        return idList;
+    }
+
+    /**
+     * Remove several children at once. Removing them one by one shifts the remaining content each time, which is slow for large lists
+     */
+    protected static void removeChildren(Element parent, Set<Element> children) {
+        if (children.isEmpty()) {
+            return;
+        }
+        List<Content> remaining = new ArrayList<>();
+        for (Content content : parent.removeContent()) {
+            if (!children.contains(content)) {
+                remaining.add(content);
+            }
+        }
+        parent.addContent(remaining);
+    }
+
+    /**
+     * Remove the file pointers to other file groups from a page and prefix the remaining identifiers
+     *
+     * @param page
+     * @param fileIdentifier identifiers of all files of the representation
+     */
+    protected static void changeRepresentationPage(Element page, Collection<String> fileIdentifier) {
+        // run through fptr and remove fptr for other filegroups
+        List<Element> fptrRemoveList = new ArrayList<>();
+        for (Element fptr : page.getChildren("fptr", metsNamespace)) {
+            String fptrId = fptr.getAttributeValue("FILEID");
+            if (!fileIdentifier.contains(fptrId)) {
+                fptrRemoveList.add(fptr);
+            } else if (!fptrId.startsWith("uuid")) {
+                fptr.setAttribute("FILEID", "uuid-" + fptrId);
+            }
+
+            List<Element> fileSeq = fptr.getChildren("seq", metsNamespace);
+            if (fileSeq != null) {
+                for (Element seq : fileSeq) {
+                    for (Element area : seq.getChildren("area", metsNamespace)) {
+                        String areaId = area.getAttributeValue("FILEID");
+                        if (!areaId.startsWith("uuid")) {
+                            area.setAttribute("FILEID", "uuid-" + areaId);
+                        }
+                    }
+                }
+            }
+        }
+        for (Element fptr : fptrRemoveList) {
+            fptr.getParent().removeContent(fptr);
+        }
+    }
+
+    /**
+     * Add the identifier of the page and all its areas to the list
+     */
+    protected static void collectPageIdentifier(Element page, Collection<String> idList) {
+        String pageId = page.getAttributeValue("ID");
+        idList.add(pageId);
+        for (Element fptr : page.getChildren("fptr", metsNamespace)) {
+            List<Element> fileSeq = fptr.getChildren("seq", metsNamespace);
+            if (fileSeq != null) {
+                for (Element seq : fileSeq) {
+                    for (Element area : seq.getChildren("area", metsNamespace)) {
+                        String areaId = area.getAttributeValue("ID");
+                        idList.add(areaId);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Point the link to the logical element in the main METS file
+     *
+     * @return false, if the link points to a page that is not part of the representation
+     */
+    protected static boolean changeStructLink(Element smLink, Collection<String> pageIDs) {
+        String toId = smLink.getAttributeValue("to", xlinkNamespace);
+        if (pageIDs.contains(toId)) {
+            smLink.setAttribute("from", "../../METS.xml#" + smLink.getAttributeValue("from", xlinkNamespace), xlinkNamespace);
+            return true;
+        }
+        return false;
+    }
+
+    private void changeStructMap(Element mets, String identifier, String dmdIds) {
+        List<Element> structMaps = mets.getChildren("structMap", metsNamespace);
+        for (Element structMap : structMaps) {
+            if ("PHYSICAL".equals(structMap.getAttributeValue("TYPE"))) {
+                changePhysicalStructMap(structMap, identifier, dmdIds, mets.getChild("fileSec", metsNamespace).getChildren());
+            }
+        }
+    }
+
+    /**
+     * Replace the pages of the physical structMap with a div for the metadata and for each file group
+     */
+    protected void changePhysicalStructMap(Element structMap, String identifier, String dmdIds, List<Element> fileGroups) {
+        changePhysicalStructMapAttributes(structMap);
+        Element physSequence = structMap.getChild("div", metsNamespace); // CSIP84
+        changePhysicalSequence(physSequence, identifier);
+
+        physSequence.removeContent();
+        physSequence.addContent(createMetadataDiv(dmdIds));
+
+        // create a div lement for each fileGroup
+        for (Element fileGrp : fileGroups) {
+            physSequence.addContent(createFileGroupDiv(fileGrp));
+        }
+    }
+
+    protected void changePhysicalStructMapAttributes(Element structMap) {
+        structMap.setAttribute("LABEL", "CSIP"); // CSIP82
+        structMap.setAttribute("ID", newId()); // CSIP83
+    }
+
+    protected static void changePhysicalSequence(Element physSequence, String identifier) {
+        physSequence.setAttribute("LABEL", identifier);
+        physSequence.removeAttribute("TYPE");
+    }
+
+    /**
+     * Create the div that links the dmdSecs and the amdSec
+     */
+    protected Element createMetadataDiv(String dmdIds) {
+        Element metadataDiv = new Element("div", metsNamespace); // CSIP88
+        metadataDiv.setAttribute("LABEL", "Metadata"); // CSIP88
+        metadataDiv.setAttribute("ID", newId());
+        metadataDiv.setAttribute("DMDID", dmdIds);
+        metadataDiv.setAttribute("ADMID", "RIGHTS DIGIPROV");
+        return metadataDiv;
+    }
+
+    /**
+     * Create the div for a file group, representations are linked with their METS file, other groups with the fileGrp
+     */
+    protected Element createFileGroupDiv(Element fileGrp) {
+        String fileGroupId = fileGrp.getAttributeValue("ID");
+        String fileGroupLabel = fileGrp.getAttributeValue("USE");
+        String href = fileGroupLabel.toLowerCase() + "/METS.xml";
+
+        Element div = new Element("div", metsNamespace);
+        div.setAttribute("ID", newId());
+        div.setAttribute("LABEL", fileGroupLabel);
+        if (fileGroupLabel.startsWith("Representations")) {
+            Element mptr = new Element("mptr", metsNamespace);
+            mptr.setAttribute("type", "simple", xlinkNamespace);
+            mptr.setAttribute("href", href, xlinkNamespace);
+            mptr.setAttribute("title", fileGroupId, xlinkNamespace);
+            mptr.setAttribute("LOCTYPE", "URL");
+            div.addContent(mptr);
+
+        } else {
+            Element fptr = new Element("fptr", metsNamespace);
+            fptr.setAttribute("FILEID", fileGroupId);
+            div.addContent(fptr);
+
+        }
+        return div;
+    }
+
+    private void removeStructLinks(Element mets) {
+        mets.removeChild("structLink", metsNamespace);
+    }
+
+    protected Element createMetadataFile(Element root, String metadataFolder, String subFolder, String filename, String schemaLocation)
+            throws IOException {
+        BagEvent event = phaseTimer.newEvent(BagEvent.METADATA_FILE);
+        if (StringUtils.isNotBlank(schemaLocation)) {
+            root.addNamespaceDeclaration(xsiNamespace);
+            root.setAttribute("schemaLocation", schemaLocation, xsiNamespace);
+        }
+
+        Document doc = new Document();
+        doc.setRootElement(root);
+        Path fileName = null;
+        if (StringUtils.isNotBlank(subFolder)) {
+            fileName = Paths.get(bag.getMetadataFolder().toString(), subFolder, filename + ".xml");
+        } else {
+            fileName = Paths.get(bag.getMetadataFolder().toString(), filename + ".xml");
+        }
+
+        cleanUpNamespacesAndSchemaLocation(root);
+        PayloadFile fileInformation = writeXmlFile(doc, fileName);
+        commitEvent(event, null, fileInformation);
+
+        Element mdRef = new Element("mdRef", metsNamespace);
+        mdRef.setAttribute("ID", newId());
+        mdRef.setAttribute("LOCTYPE", "URL");
+        mdRef.setAttribute("MDTYPE", "MODS");
+        mdRef.setAttribute("MIMETYPE", "text/xml");
+        mdRef.setAttribute("CHECKSUMTYPE", "SHA-256");
+        mdRef.setAttribute("type", "simple", xlinkNamespace);
+        mdRef.setAttribute("href", metadataFolder + subFolder + filename + ".xml", xlinkNamespace);
+
+        mdRef.setAttribute("SIZE", "" + fileInformation.getSize());
+        mdRef.setAttribute("CREATED", fileInformation.getCreationTime());
+        mdRef.setAttribute("CHECKSUM", fileInformation.getChecksum());
+
+        return mdRef;
+
+    }
+
+    protected static void commitEvent(BagEvent event, String fileGroup, PayloadFile fileInformation) {
+        event.setFileGroup(fileGroup);
+        event.setFile(fileInformation.getDestination());
+        event.setBytes(fileInformation.getSize());
+        event.commit();
+    }
+
+    protected PayloadFile writeXmlFile(Document doc, Path fileName) throws IOException {
+        XMLOutputter xmlOut = new XMLOutputter(Format.getPrettyFormat());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        xmlOut.output(doc, out);
+        byte[] content = out.toByteArray();
+        return store.writeFile(fileName, content.length, new ByteArrayInputStream(content));
+    }
+
+    protected static void cleanUpNamespacesAndSchemaLocation(Element rootElement) {
+        // first find all used namespaces
+        Set<String> usedPrefixes = new LinkedHashSet<>();
+        getUsedNamespaceList(rootElement, usedPrefixes);
+        cleanUpNamespacesAndSchemaLocation(rootElement, usedPrefixes);
+    }
+
+    /**
+     * Remove the unused namespace declarations from the root element and create the schemaLocation for the used namespaces
+     *
+     * @param rootElement
+     * @param usedPrefixes all prefixes used in the document, in the order of their first occurrence
+     */
+    protected static void cleanUpNamespacesAndSchemaLocation(Element rootElement, Set<String> usedPrefixes) {
+        List<Namespace> allNamespaces = rootElement.getAdditionalNamespaces();
+        List<Namespace> superfluousNamespaces = new ArrayList<>();
+        // run through all namespaces, check if namespace is used
+        for (Namespace ns : allNamespaces) {
+            if (StringUtils.isNotBlank(ns.getPrefix()) && !usedPrefixes.contains(ns.getPrefix())) {
+                superfluousNamespaces.add(ns);
+            }
+        }
+        // remove all unused namespaces
+        for (Namespace ns : superfluousNamespaces) {
+            rootElement.removeNamespaceDeclaration(ns);
+        }
+
+        // build schemaLocation for all remaining namespaces
+
+        StringBuilder sb = new StringBuilder();
+        for (String ns : usedPrefixes) {
+            switch (ns) {
+                case "mets":
+                    sb.append(" http://www.loc.gov/METS/ https://www.loc.gov/standards/mets/version112/mets.xsd");
+                    break;
+                case "premis":
+                    sb.append(" http://www.loc.gov/standards/premis/ http://www.loc.gov/standards/premis/v2/premis-v2-0.xsd");
+                    break;
+                case "mods":
+                    sb.append(" http://www.loc.gov/mods/v3 http://www.loc.gov/standards/mods/v3/mods-3-7.xsd");
+                    break;
+                case "mix":
+                    sb.append(" http://www.loc.gov/standards/mix/ http://www.loc.gov/standards/mix/mix.xsd");
+                    break;
+                case "xlink":
+                    sb.append(" http://www.w3.org/1999/xlink http://www.loc.gov/standards/xlink/xlink.xsd");
+                    break;
+                case "csip":
+                    sb.append(" https://DILCIS.eu/XML/METS/CSIPExtensionMETS https://earkcsip.dilcis.eu/schema/DILCISExtensionMETS.xsd");
+                    break;
+                case "sip":
+                    sb.append(" https://DILCIS.eu/XML/METS/SIPExtensionMETS https://earksip.dilcis.eu/schema/DILCISExtensionSIPMETS.xsd");
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (sb.length() > 0) {
+            rootElement.setAttribute("schemaLocation", sb.toString().trim(), xsiNamespace);
+        }
+    }
+
+    /**
+     * Collect all namespaces from given element and its children
+     *
+     * @param element
+     * @param prefixList
+     */
+    protected static void getUsedNamespaceList(Element element, Set<String> prefixList) {
+        addUsedNamespaces(element, prefixList);
+
+        List<Element> children = element.getChildren();
+        if (children != null) {
+            for (Element child : children) {
+                getUsedNamespaceList(child, prefixList);
+            }
+        }
+    }
+
+    /**
+     * Collect the namespaces of the element and its attributes, the children are ignored
+     */
+    protected static void addUsedNamespaces(Element element, Set<String> prefixList) {
+        String prefix = element.getNamespacePrefix();
+        if (StringUtils.isNotBlank(prefix)) {
+            prefixList.add(prefix);
+        }
+        if (element.hasAttributes()) {
+            for (Attribute attr : element.getAttributes()) {
+                String attrPrefix = attr.getNamespacePrefix();
+                if (StringUtils.isNotBlank(attrPrefix)) {
+                    prefixList.add(attrPrefix);
+                }
+            }
+        }
+    }
+}
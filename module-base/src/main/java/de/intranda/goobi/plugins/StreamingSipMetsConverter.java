@@ -0,0 +1,630 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Attribute;
+import org.jdom2.CDATA;
+import org.jdom2.Comment;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.ProcessingInstruction;
+import org.jdom2.Text;
+
+import de.sub.goobi.helper.BagCreation;
+
+/**
+ * Converts the exported METS file into an E-ARK SIP METS file without loading the complete document.
+ *
+ * The document is read with StAX. Single sections like a dmdSec, the amdSec or a single file or page element are read into memory and changed
+ * with the same methods as in {@link SipMetsConverter}, the result is written with a {@link XmlFragmentWriter}. The output is identical to the
+ * output of {@link SipMetsConverter}.
+ *
+ * The memory usage is not constant. The logical structMap is read completely, as the identifiers of its elements are changed in several places.
+ * The dmdSecs are kept until the amdSec is reached, after their MODS data was moved into separate files. The identifiers of the files and pages of
+ * each representation are collected to filter the structLink, these sets grow with the number of pages.
+ */
+public class StreamingSipMetsConverter extends SipMetsConverter {
+
+    private static final String METS_URI = metsNamespace.getURI();
+
+    private final XMLInputFactory inputFactory;
+
+    public StreamingSipMetsConverter(BagCreation bag, GeneratedFileStore store) {
+        super(bag, store);
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        // keep CDATA sections separated from the surrounding text
+        String reportCdata = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+        if (inputFactory.isPropertySupported(reportCdata)) {
+            inputFactory.setProperty(reportCdata, true);
+        }
+    }
+
+    @Override
+    public void convert(Path metsFile, String identifier, Map<String, FileList> files) throws IOException {
+        try {
+            boolean anchorPointer = hasAnchorPointer(metsFile);
+            XmlFragmentWriter out;
+            try (InputStream in = Files.newInputStream(metsFile)) {
+                XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+                try {
+                    reader.nextTag();
+                    Element mets = createElement(reader);
+                    changeRootElement(mets);
+                    out = new XmlFragmentWriter(mets);
+                    try {
+                        new DocumentConversion(metsFile, identifier, files, anchorPointer, out).convert(reader);
+                    } catch (IOException | XMLStreamException | RuntimeException e) {
+                        out.close();
+                        throw e;
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            out.finish(getSipMetsFile(), store);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * State of the conversion of the main METS file
+     */
+    private class DocumentConversion {
+        private final Path metsFile;
+        private final String identifier;
+        private final Map<String, FileList> files;
+        private final boolean anchorPointer;
+        private final XmlFragmentWriter out;
+
+        private String creationDate;
+        private int numberOfDmdSecs = 0;
+        private final StringBuilder dmdIds = new StringBuilder();
+        // dmdSecs that are added before the amdSec
+        private final List<Element> additionalDmdSecs = new ArrayList<>();
+        // content of the root element up to the amdSec, the additional dmdSecs are inserted like in the JDOM converter
+        private List<Content> rootContent = new ArrayList<>();
+        private boolean descriptiveSectionsFinished = false;
+        private boolean amdSecFound = false;
+        private boolean topElementChanged = false;
+        private boolean structLinkFound = false;
+        // changed dmdSec identifier, the logical structMap follows later in the document
+        private final List<String[]> changedDmdIds = new ArrayList<>();
+        private final List<Element> fileGroups = new ArrayList<>();
+
+        private DocumentConversion(Path metsFile, String identifier, Map<String, FileList> files, boolean anchorPointer, XmlFragmentWriter out) {
+            this.metsFile = metsFile;
+            this.identifier = identifier;
+            this.files = files;
+            this.anchorPointer = anchorPointer;
+            this.out = out;
+        }
+
+        private void convert(XMLStreamReader reader) throws IOException, XMLStreamException {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    boolean metsElement = METS_URI.equals(reader.getNamespaceURI());
+                    if (metsElement && "metsHdr".equals(name)) {
+                        Element metsHdr = readElement(reader);
+                        creationDate = createUserAgent(metsHdr);
+                        writeRootContent(metsHdr);
+                    } else if (metsElement && "dmdSec".equals(name)) {
+                        changeDmdSec(reader);
+                    } else {
+                        finishDescriptiveSections();
+                        boolean firstAmdSec = metsElement && "amdSec".equals(name) && !amdSecFound;
+                        if (firstAmdSec && rootContent != null) {
+                            for (Element dmdSec : additionalDmdSecs) {
+                                // the element index of the amdSec is used as position in the content list
+                                int index = 0;
+                                for (Content content : rootContent) {
+                                    if (content instanceof Element) {
+                                        index++;
+                                    }
+                                }
+                                rootContent.add(index, dmdSec);
+                            }
+                        }
+                        flushRootContent();
+                        if (firstAmdSec) {
+                            amdSecFound = true;
+                            Element amdSec = readElement(reader);
+                            changeAmdSec(amdSec, creationDate, "", anchorFileExists);
+                            out.writeElement(amdSec);
+                        } else if (metsElement && "fileSec".equals(name)) {
+                            changeFileSec(reader);
+                        } else if (metsElement && "structMap".equals(name) && "LOGICAL".equals(reader.getAttributeValue(null, "TYPE"))) {
+                            changeLogicalStructMap(reader);
+                        } else if (metsElement && "structMap".equals(name) && "PHYSICAL".equals(reader.getAttributeValue(null, "TYPE"))) {
+                            changePhysicalStructMap(reader);
+                        } else if (metsElement && "structLink".equals(name) && !structLinkFound) {
+                            // the links are moved into the METS files of the representations
+                            structLinkFound = true;
+                            skipElement(reader);
+                        } else {
+                            out.writeElement(readElement(reader));
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    break;
+                } else if (rootContent != null) {
+                    Content content = readContent(reader);
+                    int last = rootContent.size() - 1;
+                    if (isText(content) && last >= 0 && isText(rootContent.get(last))) {
+                        // text is split into several events, JDOM keeps it in one node
+                        ((Text) rootContent.get(last)).append((Text) content);
+                    } else if (content != null) {
+                        rootContent.add(content);
+                    }
+                } else {
+                    writeContent(reader, out);
+                }
+            }
+            finishDescriptiveSections();
+            flushRootContent();
+        }
+
+        private void writeRootContent(Element element) throws IOException {
+            if (rootContent == null) {
+                out.writeElement(element);
+            } else {
+                rootContent.add(element);
+            }
+        }
+
+        private void flushRootContent() throws IOException {
+            if (rootContent != null) {
+                for (Content content : rootContent) {
+                    if (content instanceof Element) {
+                        out.writeElement((Element) content);
+                    } else {
+                        out.writeContent(content);
+                    }
+                }
+                rootContent = null;
+            }
+        }
+
+        private void changeDmdSec(XMLStreamReader reader) throws IOException, XMLStreamException {
+            boolean mainElement = numberOfDmdSecs == 0;
+            numberOfDmdSecs++;
+            if (mainElement && anchorPointer) {
+                additionalDmdSecs.add(createAnchorDmdSec(creationDate));
+            }
+            Element dmdSec = readElement(reader);
+            String oldId = mainElement ? "MODS" : dmdSec.getAttributeValue("ID");
+            String dmdSecId = StreamingSipMetsConverter.this.changeDmdSec(dmdSec, mainElement, creationDate);
+            changedDmdIds.add(new String[] { oldId, dmdSecId });
+            if (dmdIds.length() > 0) {
+                dmdIds.append(" ");
+            }
+            dmdIds.append(dmdSecId);
+            writeRootContent(dmdSec);
+        }
+
+        /**
+         * Called after the last dmdSec, adds the dmdSecs for the archive metadata
+         */
+        private void finishDescriptiveSections() {
+            if (!descriptiveSectionsFinished) {
+                descriptiveSectionsFinished = true;
+                if (includeArchiveMetadata) {
+                    for (Element dmdSec : createArchiveDmdSecs(creationDate)) {
+                        additionalDmdSecs.add(dmdSec);
+                        dmdIds.append(" ").append(dmdSec.getAttributeValue("ID"));
+                    }
+                }
+            }
+        }
+
+        private void changeLogicalStructMap(XMLStreamReader reader) throws IOException, XMLStreamException {
+            Element structMap = readElement(reader);
+            List<Element> logicalElements = new ArrayList<>();
+            getAllDivElements(logicalElements, structMap);
+            if (!topElementChanged && !logicalElements.isEmpty()) {
+                topElementChanged = true;
+                changeTopElement(logicalElements.get(0));
+            }
+            // each identifier is changed only once, search in the following structMaps only if it was not found yet
+            LogicalDivIndex logicalDivs = new LogicalDivIndex(logicalElements);
+            changedDmdIds.removeIf(ids -> logicalDivs.changeDmdId(ids[0], ids[1]));
+            out.writeElement(structMap);
+        }
+
+        private void changePhysicalStructMap(XMLStreamReader reader) throws IOException, XMLStreamException {
+            Element structMap = createElement(reader);
+            changePhysicalStructMapAttributes(structMap);
+            out.writeStartElement(structMap);
+            boolean sequenceFound = false;
+            while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+                if (reader.isStartElement()) {
+                    if (!sequenceFound && METS_URI.equals(reader.getNamespaceURI()) && "div".equals(reader.getLocalName())) {
+                        // keep the attributes of the first div only, the pages are replaced by a div for the metadata and each file group
+                        sequenceFound = true;
+                        Element physSequence = createElement(reader);
+                        skipElement(reader);
+                        changePhysicalSequence(physSequence, identifier);
+                        out.writeStartElement(physSequence);
+                        out.writeElement(createMetadataDiv(dmdIds.toString()));
+                        for (Element fileGrp : fileGroups) {
+                            out.writeElement(createFileGroupDiv(fileGrp));
+                        }
+                        out.writeEndElement();
+                    } else {
+                        out.writeElement(readElement(reader));
+                    }
+                } else {
+                    writeContent(reader, out);
+                }
+            }
+            out.writeEndElement();
+        }
+
+        private void changeFileSec(XMLStreamReader reader) throws IOException, XMLStreamException {
+            Element fileSec = createElement(reader);
+            fileSec.setAttribute("ID", newId()); // CSIP59
+            out.writeStartElement(fileSec);
+            while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+                if (reader.isStartElement()) {
+                    if (METS_URI.equals(reader.getNamespaceURI()) && "fileGrp".equals(reader.getLocalName())) {
+                        changeFileGroup(reader);
+                    } else {
+                        out.writeElement(readElement(reader));
+                    }
+                } else {
+                    writeContent(reader, out);
+                }
+            }
+            out.writeEndElement();
+        }
+
+        private void changeFileGroup(XMLStreamReader reader) throws IOException, XMLStreamException {
+            Element fileGrp = createElement(reader);
+            fileGrp.setAttribute("ID", newId());
+
+            String name = fileGrp.getAttributeValue("USE");
+            FileList fl = files.get(name);
+            // remove filegrp if file list is empty
+            if (fl.getFiles().isEmpty()) {
+                skipElement(reader);
+                return;
+            }
+            fileGroups.add(fileGrp);
+            if (name.startsWith("Representations")) {
+                // create separate file for each fileGrp, create link to the file with mdRef (CSIP76 - SIP35)
+                Element file = createFileGroupFile(reader, fileGrp.clone(), fl, creationDate);
+                fileGrp.addContent(file);
+                out.writeElement(fileGrp);
+            } else {
+                // replace existing files with the files in the folder
+                skipElement(reader);
+                out.writeStartElement(fileGrp);
+                for (PayloadFile payloadFile : fl.getPayloadFiles()) {
+                    out.writeElement(createFileElement(fl, name, payloadFile));
+                }
+                out.writeEndElement();
+            }
+        }
+
+        private Element createFileGroupFile(XMLStreamReader reader, Element fileGrp, FileList fl, String creationDate)
+                throws IOException, XMLStreamException {
+            String use = fileGrp.getAttributeValue("USE");
+            fileGrp.setAttribute("USE", "Data"); // replace use value
+            String fileGrpType = getFileGroupType(use);
+            BagEvent event = phaseTimer.newEvent(BagEvent.REPRESENTATION);
+
+            //  create new mets file
+            try (XmlFragmentWriter representation = new XmlFragmentWriter(createRepresentationRoot(fileGrpType))) {
+                representation.writeElement(createRepresentationHeader(creationDate));
+                representation.writeStartElement(createRepresentationFileSec());
+                representation.writeStartElement(fileGrp);
+
+                int numberOfFiles = 0;
+                int index = 0;
+                Set<String> fileIdentifier = new HashSet<>();
+                while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+                    if (reader.isStartElement()) {
+                        if (METS_URI.equals(reader.getNamespaceURI()) && "file".equals(reader.getLocalName())) {
+                            Element fileElement = readElement(reader);
+                            // if actual filesize is smaller than filegroup size, remove superfluous files
+                            if (index < fl.getFiles().size()) {
+                                changeRepresentationFile(fileElement, fl, index);
+                                fileIdentifier.add(changeFileIdentifier(fileElement));
+                                numberOfFiles++;
+                                representation.writeElement(fileElement);
+                            }
+                            index++;
+                        } else {
+                            representation.writeElement(readElement(reader));
+                        }
+                    } else {
+                        writeContent(reader, representation);
+                    }
+                }
+                representation.writeEndElement();
+                representation.writeEndElement();
+
+                // the pages and links are read from a second reader
+                writeRepresentationStructure(metsFile, representation, fileGrpType, fileIdentifier, numberOfFiles);
+
+                PayloadFile fileInformation = representation.finish(getRepresentationMetsFile(use, fileGrpType), store);
+                commitEvent(event, use, fileInformation);
+                return createRepresentationFileElement(fileInformation, use);
+            }
+        }
+    }
+
+    /**
+     * Copy the pages of the representation from the physical structMap and the links to these pages from the structLink section
+     */
+    private void writeRepresentationStructure(Path metsFile, XmlFragmentWriter out, String fileGrpType, Set<String> fileIdentifier,
+            int numberOfFiles) throws IOException, XMLStreamException {
+        Set<String> pageIDs = new HashSet<>();
+        try (InputStream in = Files.newInputStream(metsFile)) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            try {
+                reader.nextTag();
+                boolean structLinkFound = false;
+                while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+                    if (!reader.isStartElement()) {
+                        continue;
+                    }
+                    boolean metsElement = METS_URI.equals(reader.getNamespaceURI());
+                    if (metsElement && "structMap".equals(reader.getLocalName()) && "PHYSICAL".equals(reader.getAttributeValue(null, "TYPE"))) {
+                        pageIDs = writePhysicalStructMap(reader, out, fileGrpType, fileIdentifier, numberOfFiles);
+                    } else if (metsElement && "structLink".equals(reader.getLocalName()) && !structLinkFound) {
+                        structLinkFound = true;
+                        writeStructLink(reader, out, pageIDs);
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private Set<String> writePhysicalStructMap(XMLStreamReader reader, XmlFragmentWriter out, String fileGrpType, Set<String> fileIdentifier,
+            int numberOfFiles) throws IOException, XMLStreamException {
+        Set<String> idList = new HashSet<>();
+        // find the first div, all other elements are ignored
+        boolean sequenceFound = false;
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (!reader.isStartElement()) {
+                continue;
+            }
+            if (sequenceFound || !METS_URI.equals(reader.getNamespaceURI()) || !"div".equals(reader.getLocalName())) {
+                skipElement(reader);
+                continue;
+            }
+            sequenceFound = true;
+            Element physicalStructMap = createRepresentationStructMap(fileGrpType);
+            Element div = physicalStructMap.getChild("div", metsNamespace);
+            div.detach();
+            out.writeStartElement(physicalStructMap);
+            out.writeStartElement(div);
+
+            Element physSequence = createElement(reader);
+            physSequence.setAttribute("LABEL", "Data");
+            out.writeStartElement(physSequence);
+            // remove non existing, superfluous files
+            int pageNo = 0;
+            while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+                if (reader.isStartElement()) {
+                    if (METS_URI.equals(reader.getNamespaceURI()) && "div".equals(reader.getLocalName())) {
+                        Element page = readElement(reader);
+                        if (pageNo < numberOfFiles) {
+                            changeRepresentationPage(page, fileIdentifier);
+                            collectPageIdentifier(page, idList);
+                            out.writeElement(page);
+                        }
+                        pageNo++;
+                    } else {
+                        out.writeElement(readElement(reader));
+                    }
+                } else {
+                    writeContent(reader, out);
+                }
+            }
+            out.writeEndElement();
+            out.writeEndElement();
+            out.writeEndElement();
+        }
+        return idList;
+    }
+
+    private void writeStructLink(XMLStreamReader reader, XmlFragmentWriter out, Set<String> pageIDs) throws IOException, XMLStreamException {
+        out.writeStartElement(createElement(reader));
+        //  remove non existing, superfluous files
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.isStartElement()) {
+                Element smLink = readElement(reader);
+                if (changeStructLink(smLink, pageIDs)) {
+                    out.writeElement(smLink);
+                }
+            } else {
+                writeContent(reader, out);
+            }
+        }
+        out.writeEndElement();
+    }
+
+    /**
+     * Check if the first element of the logical structMap points to an anchor file. The dmdSec for the anchor is created before the logical
+     * structMap is read.
+     */
+    private boolean hasAnchorPointer(Path metsFile) throws IOException, XMLStreamException {
+        try (InputStream in = Files.newInputStream(metsFile)) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            try {
+                reader.nextTag();
+                while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+                    if (!reader.isStartElement()) {
+                        continue;
+                    }
+                    if (METS_URI.equals(reader.getNamespaceURI()) && "structMap".equals(reader.getLocalName())
+                            && "LOGICAL".equals(reader.getAttributeValue(null, "TYPE"))) {
+                        // first child of the first element
+                        return nextChildElement(reader) && nextChildElement(reader) && "mptr".equals(reader.getLocalName());
+                    }
+                    skipElement(reader);
+                }
+                return false;
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Move to the first child element of the current element
+     *
+     * @return false, if the element has no child elements
+     */
+    private static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create an element with the name, namespace declarations and attributes of the current start element. The content is not read.
+     */
+    static Element createElement(XMLStreamReader reader) {
+        Namespace namespace = Namespace.getNamespace(nullToEmpty(reader.getPrefix()), nullToEmpty(reader.getNamespaceURI()));
+        Element element = new Element(reader.getLocalName(), namespace);
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            Namespace declaration = Namespace.getNamespace(nullToEmpty(reader.getNamespacePrefix(i)), nullToEmpty(reader.getNamespaceURI(i)));
+            if (declaration != namespace) {
+                element.addNamespaceDeclaration(declaration);
+            }
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String uri = nullToEmpty(reader.getAttributeNamespace(i));
+            Namespace attributeNamespace = uri.isEmpty() ? Namespace.NO_NAMESPACE : Namespace.getNamespace(reader.getAttributePrefix(i), uri);
+            element.setAttribute(new Attribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i), attributeNamespace));
+        }
+        return element;
+    }
+
+    /**
+     * Read the current element with its complete content. The reader is positioned on the end tag of the element afterwards.
+     */
+    static Element readElement(XMLStreamReader reader) throws XMLStreamException {
+        Element element = createElement(reader);
+        StringBuilder text = new StringBuilder();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+                // a text can be reported in several parts
+                text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                continue;
+            }
+            if (text.length() > 0) {
+                element.addContent(new Text(text.toString()));
+                text.setLength(0);
+            }
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                element.addContent(readElement(reader));
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            } else {
+                addContent(reader, element);
+            }
+        }
+        return element;
+    }
+
+    private static void addContent(XMLStreamReader reader, Element element) {
+        switch (reader.getEventType()) {
+            case XMLStreamConstants.CDATA:
+                element.addContent(new CDATA(reader.getText()));
+                break;
+            case XMLStreamConstants.COMMENT:
+                element.addContent(new Comment(reader.getText()));
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                element.addContent(new ProcessingInstruction(reader.getPITarget(), nullToEmpty(reader.getPIData())));
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                element.addContent(new Text(reader.getText()));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void writeContent(XMLStreamReader reader, XmlFragmentWriter out) throws IOException {
+        Content content = readContent(reader);
+        if (content != null) {
+            out.writeContent(content);
+        }
+    }
+
+    private static boolean isText(Content content) {
+        // CDATA is a subclass of Text, but kept in its own node
+        return content != null && content.getCType() == Content.CType.Text;
+    }
+
+    private static Content readContent(XMLStreamReader reader) {
+        switch (reader.getEventType()) {
+            case XMLStreamConstants.COMMENT:
+                return new Comment(reader.getText());
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                return new ProcessingInstruction(reader.getPITarget(), nullToEmpty(reader.getPIData()));
+            case XMLStreamConstants.CDATA:
+                return new CDATA(reader.getText());
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                return new Text(reader.getText());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Skip the current element with its complete content
+     */
+    static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,247 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import lombok.Setter;
+
+/**
+ * Writes all files of the bag directly into a tar file, the bag folder structure is never created on disk. As the tar file is written
+ * sequentially, only one file can be written at the same time.
+ * 
+ * The bag declaration, bag-info.txt and the manifest files are created from the checksums registered during the creation of the bag.
+ */
+public class TarBagWriter implements BagWriter {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Path bagitRoot;
+
+    private final ArchiveTarget target;
+
+    private final TarArchiveOutputStream tar;
+
+    private final BagManifest manifest;
+
+    private final Map<Path, String> creationTimes = new ConcurrentHashMap<>();
+
+    private final Set<String> directories = new HashSet<>();
+
+    private boolean entryOpen = false;
+
+    private boolean finished = false;
+
+    // receives an event for each file written into the archive
+    @Setter
+    private PhaseTimer phaseTimer = new PhaseTimer();
+
+    /**
+     * 
+     * @param bagitRoot root folder of the bag, used to determine the names of the entries in the archive
+     * @param archiveFile tar file to create
+     * @throws IOException
+     */
+    public TarBagWriter(Path bagitRoot, Path archiveFile) throws IOException {
+        this(bagitRoot, new ArchiveTarget.LocalFile(archiveFile), false, 1);
+    }
+
+    /**
+     * 
+     * @param bagitRoot root folder of the bag, used to determine the names of the entries in the archive
+     * @param target destination of the tar file, e.g. a local file or an upload to the archive server
+     * @param compress create a gzip compressed tar file
+     * @param compressionThreads number of threads used for the compression
+     * @throws IOException
+     */
+    public TarBagWriter(Path bagitRoot, ArchiveTarget target, boolean compress, int compressionThreads) throws IOException {
+        this.bagitRoot = bagitRoot;
+        this.target = target;
+        this.manifest = new BagManifest(bagitRoot);
+        try {
+            OutputStream out = new BufferedOutputStream(target.open(), BUFFER_SIZE);
+            if (compress) {
+                out = new ParallelGzipOutputStream(out, compressionThreads, Deflater.DEFAULT_COMPRESSION);
+            }
+            tar = new TarArchiveOutputStream(out);
+        } catch (IOException e) {
+            target.abort();
+            throw e;
+        }
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    }
+
+    @Override
+    public synchronized OutputStream newOutputStream(Path file, long size) throws IOException {
+        if (entryOpen) {
+            throw new IllegalStateException("Another file is still written into the archive");
+        }
+        BagEvent event = phaseTimer.newEvent(PhaseTimer.TAR);
+        String name = getEntryName(file);
+        addDirectories(name);
+
+        Instant now = Instant.now();
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(size);
+        entry.setModTime(FileTime.from(now));
+        tar.putArchiveEntry(entry);
+        entryOpen = true;
+        creationTimes.put(file, FileTime.from(now).toString());
+
+        manifest.addFile(file, size);
+        event.setFile(manifest.getBagPath(file));
+        return new EntryOutputStream(tar, event);
+    }
+
+    @Override
+    public void prepareLinks(List<Path> sources, List<Path> files) {
+        // the content is always copied into the archive
+    }
+
+    @Override
+    public boolean linkFile(Path source, Path file, long size) {
+        // the content is always copied into the archive
+        return false;
+    }
+
+    @Override
+    public void addChecksum(Path file, String checksum) {
+        manifest.addChecksum(file, checksum);
+    }
+
+    @Override
+    public String getCreationTime(Path file) {
+        return creationTimes.get(file);
+    }
+
+    @Override
+    public boolean isParallelWriteSupported() {
+        return false;
+    }
+
+    @Override
+    public long getPayloadSize() {
+        return manifest.getPayloadSize();
+    }
+
+    @Override
+    public long getStagedSize() {
+        // the files are written directly into the archive
+        return 0;
+    }
+
+    @Override
+    public synchronized void finish(Map<String, String> bagInfo) throws IOException {
+        String rootName = bagitRoot.getFileName().toString() + "/";
+
+        for (Entry<String, byte[]> entry : manifest.createTagFiles(bagInfo).entrySet()) {
+            writeEntry(rootName + entry.getKey(), entry.getValue());
+        }
+
+        tar.finish();
+        tar.close();
+        target.commit();
+        finished = true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!finished) {
+            // incomplete archive, remove it
+            try {
+                tar.close();
+            } finally {
+                target.abort();
+            }
+        }
+    }
+
+    private void writeEntry(String name, byte[] content) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        entry.setModTime(FileTime.from(Instant.now()));
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+        BagMetrics.getInstance().addBytesTarred(content.length);
+    }
+
+    private void addDirectories(String name) throws IOException {
+        int index = name.indexOf('/');
+        while (index != -1) {
+            String directory = name.substring(0, index + 1);
+            if (directories.add(directory)) {
+                TarArchiveEntry entry = new TarArchiveEntry(directory);
+                entry.setModTime(FileTime.from(Instant.now()));
+                tar.putArchiveEntry(entry);
+                tar.closeArchiveEntry();
+            }
+            index = name.indexOf('/', index + 1);
+        }
+    }
+
+    /**
+     * name of the file within the archive, starting with the name of the bag root folder
+     */
+    private String getEntryName(Path file) {
+        return bagitRoot.getFileName().toString() + "/" + manifest.getBagPath(file);
+    }
+
+    private class EntryOutputStream extends FilterOutputStream {
+
+        private final BagEvent event;
+
+        private boolean closed = false;
+
+        private EntryOutputStream(OutputStream out, BagEvent event) {
+            super(out);
+            this.event = event;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            BagMetrics.getInstance().addBytesTarred(len);
+            event.addBytes(len);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            BagMetrics.getInstance().addBytesTarred(1);
+            event.addBytes(1);
+        }
+
+        @Override
+        public void flush() {
+            // the tar stream is flushed when the archive is finished
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                synchronized (TarBagWriter.this) {
+                    entryOpen = false;
+                    tar.closeArchiveEntry();
+                }
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jdom2.Comment;
+import org.jdom2.Content;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.ProcessingInstruction;
+import org.jdom2.Text;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.jdom2.output.support.AbstractXMLOutputProcessor;
+import org.jdom2.output.support.FormatStack;
+import org.jdom2.util.NamespaceStack;
+
+/**
+ * Writes an XML document element by element. The result is identical to the output of {@link XMLOutputter} with the pretty format for the
+ * complete document, but only the elements that are currently written need to be kept in memory.
+ *
+ * The content of the root element is written into a temporary file. The namespace declarations and the schemaLocation of the root element are
+ * cleaned up at the end, when all used namespaces are known.
+ */
+class XmlFragmentWriter implements Closeable {
+
+    private static final String PLACEHOLDER = "xml-fragment-writer-placeholder";
+
+    private static final String PLACEHOLDER_COMMENT = "<!--" + PLACEHOLDER + "-->";
+
+    private final Format format = Format.getPrettyFormat();
+
+    private final FragmentProcessor processor = new FragmentProcessor();
+
+    private final Element root;
+
+    private final Path bodyFile;
+
+    private final Writer body;
+
+    private final NamespaceStack namespaces = new NamespaceStack();
+
+    // elements with open start tag, the root element is at the bottom
+    private final Deque<OpenElement> openElements = new ArrayDeque<>();
+
+    // used prefixes in the order of their first occurrence
+    private final Set<String> usedPrefixes = new LinkedHashSet<>();
+
+    // text and CDATA since the last written node, JDOM formats adjacent text nodes together
+    private final List<Text> pendingText = new ArrayList<>();
+
+    private boolean closed = false;
+
+    /**
+     *
+     * @param root the root element without content
+     * @throws IOException
+     */
+    XmlFragmentWriter(Element root) throws IOException {
+        this.root = root;
+        bodyFile = Files.createTempFile("mets", ".xml");
+        body = Files.newBufferedWriter(bodyFile, StandardCharsets.UTF_8);
+        SipMetsConverter.addUsedNamespaces(root, usedPrefixes);
+        namespaces.push(root);
+        OpenElement rootElement = new OpenElement(root, 0);
+        rootElement.started = true;
+        openElements.push(rootElement);
+    }
+
+    /**
+     * Open a new element, all following elements are written as its children until {@link #writeEndElement()} is called
+     *
+     * @param element element without content, must not be changed afterwards
+     * @throws IOException
+     */
+    void writeStartElement(Element element) throws IOException {
+        writePendingText();
+        SipMetsConverter.addUsedNamespaces(element, usedPrefixes);
+        openElements.push(new OpenElement(element, openElements.peek().depth + 1));
+    }
+
+    /**
+     * Close the last opened element
+     *
+     * @throws IOException
+     */
+    void writeEndElement() throws IOException {
+        OpenElement current = openElements.peek();
+        if (!current.started && !pendingText.isEmpty()) {
+            // text only, the element is written like in the complete document
+            Element copy = current.element.clone();
+            addPendingText(copy);
+            openElements.pop();
+            startParents();
+            newLine(current.depth);
+            processor.element(body, createFormatStack(current.depth), namespaces, copy);
+            return;
+        }
+        writePendingText();
+        openElements.pop();
+        if (current.started) {
+            newLine(current.depth);
+            body.write(current.endTag);
+            namespaces.pop();
+        } else {
+            // no content, write an empty element
+            startParents();
+            newLine(current.depth);
+            processor.element(body, createFormatStack(current.depth), namespaces, current.element);
+        }
+    }
+
+    /**
+     * Write a complete element with all its content
+     *
+     * @param element
+     * @throws IOException
+     */
+    void writeElement(Element element) throws IOException {
+        SipMetsConverter.getUsedNamespaceList(element, usedPrefixes);
+        writePendingText();
+        startParents();
+        int depth = openElements.peek().depth + 1;
+        newLine(depth);
+        processor.element(body, createFormatStack(depth), namespaces, element);
+    }
+
+    /**
+     * Write a comment, processing instruction, text or CDATA section between the child elements. Text and CDATA are written together with the
+     * following text nodes.
+     *
+     * @param content
+     * @throws IOException
+     */
+    void writeContent(Content content) throws IOException {
+        if (content instanceof Text) {
+            pendingText.add(((Text) content).clone());
+            return;
+        }
+        writePendingText();
+        startParents();
+        int depth = openElements.peek().depth + 1;
+        FormatStack fstack = createFormatStack(depth);
+        newLine(depth);
+        if (content instanceof Comment) {
+            processor.comment(body, fstack, (Comment) content);
+        } else if (content instanceof ProcessingInstruction) {
+            processor.processingInstruction(body, fstack, (ProcessingInstruction) content);
+        }
+    }
+
+    /**
+     * Write the document into the bag. All open elements are closed.
+     *
+     * @param fileName destination of the document
+     * @param store
+     * @return size and checksum of the file
+     * @throws IOException
+     */
+    PayloadFile finish(Path fileName, GeneratedFileStore store) throws IOException {
+        while (openElements.size() > 1) {
+            writeEndElement();
+        }
+        writePendingText();
+        body.close();
+
+        SipMetsConverter.cleanUpNamespacesAndSchemaLocation(root, usedPrefixes);
+        Element copy = root.clone();
+        copy.addContent(new Comment(PLACEHOLDER));
+        String document = new XMLOutputter(format).outputString(new Document(copy));
+        int index = document.indexOf(PLACEHOLDER_COMMENT);
+        byte[] header = trimEnd(document.substring(0, index)).getBytes(StandardCharsets.UTF_8);
+        byte[] footer = document.substring(index + PLACEHOLDER_COMMENT.length()).getBytes(StandardCharsets.UTF_8);
+
+        long size = header.length + Files.size(bodyFile) + footer.length;
+        try (InputStream content = new SequenceInputStream(Collections.enumeration(
+                List.of(new ByteArrayInputStream(header), Files.newInputStream(bodyFile), new ByteArrayInputStream(footer))))) {
+            return store.writeFile(fileName, size, content);
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            body.close();
+            Files.deleteIfExists(bodyFile);
+        }
+    }
+
+    /**
+     * Write the start tags of all open elements that were not written yet
+     */
+    private void startParents() throws IOException {
+        Iterator<OpenElement> iterator = openElements.descendingIterator();
+        while (iterator.hasNext()) {
+            OpenElement open = iterator.next();
+            if (!open.started) {
+                // print the element with a placeholder as content and split the result into start and end tag
+                Element copy = open.element.clone();
+                copy.addContent(new Comment(PLACEHOLDER));
+                StringWriter out = new StringWriter();
+                processor.element(out, createFormatStack(open.depth), namespaces, copy);
+                String text = out.toString();
+                int index = text.indexOf(PLACEHOLDER_COMMENT);
+                open.endTag = text.substring(index + PLACEHOLDER_COMMENT.length()).trim();
+
+                newLine(open.depth);
+                body.write(trimEnd(text.substring(0, index)));
+                namespaces.push(open.element);
+                open.started = true;
+            }
+        }
+    }
+
+    /**
+     * Write the collected text nodes. They are printed between two placeholders, so that JDOM trims and indents them like in the complete
+     * document. Whitespace between elements is dropped.
+     */
+    private void writePendingText() throws IOException {
+        if (pendingText.isEmpty()) {
+            return;
+        }
+        Element copy = new Element("text");
+        copy.addContent(new Comment(PLACEHOLDER));
+        addPendingText(copy);
+        copy.addContent(new Comment(PLACEHOLDER));
+        StringWriter out = new StringWriter();
+        processor.element(out, createFormatStack(openElements.peek().depth), namespaces, copy);
+        String text = out.toString();
+        int start = text.indexOf(PLACEHOLDER_COMMENT) + PLACEHOLDER_COMMENT.length();
+        String formatted = trimEnd(text.substring(start, text.lastIndexOf(PLACEHOLDER_COMMENT)));
+        if (!formatted.isEmpty()) {
+            startParents();
+            body.write(formatted);
+        }
+    }
+
+    private void addPendingText(Element element) {
+        for (Text text : pendingText) {
+            element.addContent(text);
+        }
+        pendingText.clear();
+    }
+
+    private void newLine(int depth) throws IOException {
+        body.write(format.getLineSeparator());
+        for (int i = 0; i < depth; i++) {
+            body.write(format.getIndent());
+        }
+    }
+
+    private FormatStack createFormatStack(int depth) {
+        FormatStack fstack = new FormatStack(format);
+        for (int i = 0; i < depth; i++) {
+            fstack.push();
+        }
+        return fstack;
+    }
+
+    private static String trimEnd(String text) {
+        int end = text.length();
+        while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    private static class OpenElement {
+        private final Element element;
+        private final int depth;
+        private boolean started;
+        private String endTag;
+
+        private OpenElement(Element element, int depth) {
+            this.element = element;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Gives access to the methods that print single nodes
+     */
+    private static class FragmentProcessor extends AbstractXMLOutputProcessor {
+
+        void element(Writer out, FormatStack fstack, NamespaceStack nstack, Element element) throws IOException {
+            printElement(out, fstack, nstack, element);
+        }
+
+        void comment(Writer out, FormatStack fstack, Comment comment) throws IOException {
+            printComment(out, fstack, comment);
+        }
+
+        void processingInstruction(Writer out, FormatStack fstack, ProcessingInstruction pi) throws IOException {
+            printProcessingInstruction(out, fstack, pi);
+        }
+    }
+}
@@ -1,19 +1,57 @@
 package ugh.fileformats.mets;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.SubnodeConfiguration;
 
+/**
+ * Adds the additional metadata of the plugin configuration to the MODS mapping of the ruleset. The mappings are created once for each
+ * configuration and added to every exported file format.
+ */
 public class RulesetExtension {
 
+    // configuration -> mappings by internal name, the configuration is replaced when the file changes
+    private static final Map<SubnodeConfiguration, Map<String, MatchingMetadataObject>> cache = Collections.synchronizedMap(new WeakHashMap<>());
+
     private RulesetExtension() {
     }
 
+    /**
+     * Add the additional metadata and groups of the configuration to the MODS mapping, if the ruleset does not contain a mapping for them
+     *
+     * @param config plugin configuration
+     * @param fileformat
+     */
     public static void extentRuleset(SubnodeConfiguration config, MetsModsImportExport fileformat) {
+        Map<String, MatchingMetadataObject> extension = cache.computeIfAbsent(config, RulesetExtension::readExtension);
+
+        // check, if an export mapping exists
+        List<MatchingMetadataObject> mapping = fileformat.getModsNamesMD();
+        Set<String> existingNames = new HashSet<>();
+        for (MatchingMetadataObject mmo : mapping) {
+            existingNames.add(mmo.getInternalName());
+        }
+        // if not, add the new mapping to the list
+        for (Map.Entry<String, MatchingMetadataObject> entry : extension.entrySet()) {
+            if (!existingNames.contains(entry.getKey())) {
+                mapping.add(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Read the configured fields and groups, indexed by their name. If a name is used more than once, the first entry is used.
+     */
+    private static Map<String, MatchingMetadataObject> readExtension(SubnodeConfiguration config) {
+        Map<String, MatchingMetadataObject> extension = new LinkedHashMap<>();
 
         // for each configured field
         List<HierarchicalConfiguration> list = config.configurationsAt("/additionalMetadata/Metadata");
@@ -21,20 +59,10 @@ public class RulesetExtension {
             String internalName = hc.getString("/InternalName");
             String xpath = hc.getString("/WriteXPath");
 
-            // check, if an export mapping exists
-            boolean matchFound = false;
-            for (MatchingMetadataObject mmo : fileformat.getModsNamesMD()) {
-                if (mmo.getInternalName().equals(internalName)) {
-                    matchFound = true;
-                }
-            }
-            // if not, add a new mapping to the list
-            if (!matchFound) {
-                MatchingMetadataObject mmo = new MatchingMetadataObject();
-                mmo.setInternalName(internalName);
-                mmo.setWriteXQuery(xpath);
-                fileformat.getModsNamesMD().add(mmo);
-            }
+            MatchingMetadataObject mmo = new MatchingMetadataObject();
+            mmo.setInternalName(internalName);
+            mmo.setWriteXQuery(xpath);
+            extension.putIfAbsent(internalName, mmo);
         }
 
         List<HierarchicalConfiguration> groups = config.configurationsAt("/additionalMetadata/Group");
@@ -42,38 +70,31 @@ public class RulesetExtension {
         for (HierarchicalConfiguration group : groups) {
             String internalName = group.getString("/InternalName");
             String xpath = group.getString("/WriteXPath");
+            if (extension.containsKey(internalName)) {
+                continue;
+            }
 
-            // check, if an export mapping exists
-            boolean matchFound = false;
-            for (MatchingMetadataObject mmo : fileformat.getModsNamesMD()) {
-                if (mmo.getInternalName().equals(internalName)) {
-                    matchFound = true;
-                    break;
-                }
+            MatchingMetadataObject mmo = new MatchingMetadataObject();
+            mmo.setInternalName(internalName.trim());
+            mmo.setWriteXQuery(xpath.trim());
+
+            List<HierarchicalConfiguration> metadataList = group.configurationsAt("Metadata");
+            for (HierarchicalConfiguration md : metadataList) {
+                String metadataName = md.getString("InternalName");
+                String metadataXpath = md.getString("WriteXPath");
+                Map<String, String> map = new LinkedHashMap<>();
+                map.put(metadataName, metadataXpath);
+                mmo.addToMap(metadataName, map);
             }
-            // if not, add a new mapping to the list
-            if (!matchFound) {
-                MatchingMetadataObject mmo = new MatchingMetadataObject();
-                mmo.setInternalName(internalName.trim());
-                mmo.setWriteXQuery(xpath.trim());
-
-                List<HierarchicalConfiguration> metadataList = group.configurationsAt("Metadata");
-                for (HierarchicalConfiguration md : metadataList) {
-                    String metadataName = md.getString("InternalName");
-                    String metadataXpath = md.getString("WriteXPath");
-                    Map<String, String> map = new LinkedHashMap<>();
-                    map.put(metadataName, metadataXpath);
-                    mmo.addToMap(metadataName, map);
-                }
-
-                metadataList = group.configurationsAt("Person");
-                for (HierarchicalConfiguration md : metadataList) {
-                    parsePerson(mmo, md);
-
-                }
-                fileformat.getModsNamesMD().add(mmo);
+
+            metadataList = group.configurationsAt("Person");
+            for (HierarchicalConfiguration md : metadataList) {
+                parsePerson(mmo, md);
+
             }
+            extension.put(internalName, mmo);
         }
+        return Collections.unmodifiableMap(extension);
     }
 
     private static void parsePerson(MatchingMetadataObject mmo, HierarchicalConfiguration md) {
@@ -0,0 +1,143 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the ActaPro session against a local http server, which issues tokens for POST requests and returns a document for GET requests with a
+ * valid token
+ */
+public class ActaProSessionTest {
+
+    private static final String DOCUMENT = "{\"id\":\"node\",\"title\":\"Test\"}";
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    private volatile int tokenRequests;
+
+    private volatile int documentRequests;
+
+    private volatile int expiresIn = 300;
+
+    // token accepted by the server, null if all tokens are rejected
+    private volatile String validToken;
+
+    // called while a document request is handled
+    private volatile Runnable documentRequestHandler;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private synchronized void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        if ("POST".equals(exchange.getRequestMethod())) {
+            tokenRequests++;
+            validToken = "token-" + tokenRequests;
+            respond(exchange, 200, "{\"access_token\":\"" + validToken + "\",\"expires_in\":" + expiresIn
+                    + ",\"refresh_expires_in\":1800,\"refresh_token\":\"refresh\",\"token_type\":\"Bearer\",\"not-before-policy\":0,"
+                    + "\"session_state\":\"state\",\"scope\":\"profile email\"}");
+        } else {
+            documentRequests++;
+            if (documentRequestHandler != null) {
+                documentRequestHandler.run();
+            }
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (validToken != null && ("Bearer " + validToken).equals(authorization)) {
+                respond(exchange, 200, DOCUMENT);
+            } else {
+                respond(exchange, 401, "{\"error\":\"invalid_token\"}");
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+    }
+
+    private ActaProSession createSession() {
+        return new ActaProSession(baseUrl + "/auth/realms/actapro/protocol/openid-connect/token", "Basic Y2xpZW50OnNlY3JldA==", "user",
+                "password", baseUrl + "/connector");
+    }
+
+    @Test
+    public void testTokenIsReused() {
+        ActaProSession session = createSession();
+        assertEquals(DOCUMENT, session.getJsonDocument("node"));
+        assertEquals(DOCUMENT, session.getJsonDocument("node"));
+        assertEquals(DOCUMENT, session.getJsonDocument("node"));
+        assertEquals(1, tokenRequests);
+        assertEquals(3, documentRequests);
+        assertEquals(1, session.getAuthentications());
+    }
+
+    @Test
+    public void testRejectedTokenIsRenewed() {
+        ActaProSession session = createSession();
+        assertEquals(DOCUMENT, session.getJsonDocument("node"));
+
+        // the server forgets the token, the next request is rejected and repeated with a new token
+        validToken = null;
+        assertEquals(DOCUMENT, session.getJsonDocument("node"));
+        assertEquals(2, tokenRequests);
+        assertEquals(3, documentRequests);
+
+        assertEquals(DOCUMENT, session.getJsonDocument("node"));
+        assertEquals(2, tokenRequests);
+    }
+
+    @Test
+    public void testExpiredTokenIsRenewed() {
+        // tokens expiring within the safety margin are never reused
+        expiresIn = 10;
+        ActaProSession session = createSession();
+        assertEquals(DOCUMENT, session.getJsonDocument("node"));
+        assertEquals(DOCUMENT, session.getJsonDocument("node"));
+        assertEquals(2, tokenRequests);
+        // no request was rejected
+        assertEquals(2, documentRequests);
+    }
+
+    @Test
+    public void testReplacedSessionIsClosedAfterRunningRequest() {
+        ActaProSession session = createSession();
+        boolean[] closedDuringRequest = new boolean[1];
+        documentRequestHandler = () -> {
+            session.replace();
+            closedDuringRequest[0] = session.isClosed();
+        };
+        assertEquals(DOCUMENT, session.getJsonDocument("node"));
+        assertFalse(closedDuringRequest[0]);
+        assertTrue(session.isClosed());
+    }
+}
@@ -0,0 +1,310 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the resumable upload against an in-memory archive server, which can drop the connection after a given number of bytes
+ */
+public class ResumableUploadTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // content of the remote files
+    private final Map<String, byte[]> remoteFiles = new ConcurrentHashMap<>();
+
+    // number of bytes the server accepts before the connection drops, -1 means no limit
+    private volatile long bytesUntilFailure = -1;
+
+    // all connection attempts fail
+    private volatile boolean serverDown;
+
+    // the server loses the last byte of each file
+    private volatile boolean truncateFiles;
+
+    private volatile long bytesReceived;
+
+    private final List<String> appendedFiles = new ArrayList<>();
+
+    // remote files in the order they were completed
+    private final List<String> closedFiles = new ArrayList<>();
+
+    private final List<Long> delays = new ArrayList<>();
+
+    private ConnectionConfiguration connection;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        connection = new ConnectionConfiguration();
+        connection.setRetries(3);
+        connection.setRetryDelay(1);
+        connection.setMaxRetryDelay(300);
+        connection.setConnections(1);
+        connection.setPartSize(1);
+
+        byte[] content = new byte[3 * MB];
+        new Random(1).nextBytes(content);
+        file = folder.getRoot().toPath().resolve("bag.tar");
+        Files.write(file, content);
+    }
+
+    private ResumableUpload createUpload() {
+        return new ResumableUpload(connection) {
+            @Override
+            protected ArchiveUploader openConnection() throws IOException {
+                if (serverDown) {
+                    throw new IOException("Connection refused");
+                }
+                return new MemoryUploader();
+            }
+
+            @Override
+            protected void sleep(long millis) {
+                delays.add(millis);
+            }
+        };
+    }
+
+    @Test
+    public void testExistingFileIsReplaced() throws IOException {
+        remoteFiles.put("bag.tar", new byte[10]);
+        createUpload().upload(file);
+        assertArrayEquals(Files.readAllBytes(file), remoteFiles.get("bag.tar"));
+        assertFalse(remoteFiles.containsKey("bag.tar.part"));
+        assertFalse(Files.exists(file.resolveSibling("bag.tar.checkpoint")));
+        assertTrue(delays.isEmpty());
+    }
+
+    @Test
+    public void testInterruptedUploadIsResumed() throws IOException {
+        bytesUntilFailure = MB + MB / 2;
+        createUpload().upload(file);
+
+        assertArrayEquals(Files.readAllBytes(file), remoteFiles.get("bag.tar"));
+        // the second attempt only transferred the missing data
+        assertEquals(3 * MB, bytesReceived);
+        assertEquals(Arrays.asList("bag.tar.part"), appendedFiles);
+        assertEquals(Arrays.asList(1000L), delays);
+    }
+
+    @Test
+    public void testUploadIsResumedInNextRun() throws IOException {
+        connection.setRetries(0);
+        bytesUntilFailure = 2 * MB;
+        try {
+            createUpload().upload(file);
+            fail("Upload did not fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(Files.exists(file.resolveSibling("bag.tar.checkpoint")));
+
+        // the checkpoint of the failed run is used
+        createUpload().upload(file);
+        assertArrayEquals(Files.readAllBytes(file), remoteFiles.get("bag.tar"));
+        assertEquals(3 * MB, bytesReceived);
+        assertFalse(Files.exists(file.resolveSibling("bag.tar.checkpoint")));
+    }
+
+    @Test
+    public void testChangedFileIsNotResumed() throws IOException {
+        connection.setRetries(0);
+        bytesUntilFailure = 2 * MB;
+        try {
+            createUpload().upload(file);
+            fail("Upload did not fail");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the local file was created again, the data on the server belongs to the old file
+        Files.write(file, new byte[3 * MB]);
+        createUpload().upload(file);
+        assertArrayEquals(new byte[3 * MB], remoteFiles.get("bag.tar"));
+        assertTrue(appendedFiles.isEmpty());
+    }
+
+    @Test
+    public void testRetryDelayIsDoubled() {
+        connection.setRetries(4);
+        connection.setRetryDelay(1);
+        connection.setMaxRetryDelay(3);
+        serverDown = true;
+        try {
+            createUpload().upload(file);
+            fail("Upload did not fail");
+        } catch (IOException e) {
+            assertEquals("Connection refused", e.getMessage());
+        }
+        assertEquals(Arrays.asList(1000L, 2000L, 3000L, 3000L), delays);
+    }
+
+    @Test
+    public void testRemoteSizeIsVerified() {
+        connection.setRetries(1);
+        truncateFiles = true;
+        try {
+            createUpload().upload(file);
+            fail("Incomplete upload was accepted");
+        } catch (IOException e) {
+            assertEquals("Remote file bag.tar.part has " + (3 * MB - 1) + " bytes, expected " + 3 * MB, e.getMessage());
+        }
+        // the corrupt remote file is not continued
+        assertTrue(appendedFiles.isEmpty());
+        assertFalse(remoteFiles.containsKey("bag.tar"));
+    }
+
+    @Test
+    public void testLargeFileIsUploadedInParts() throws IOException {
+        connection.setConnections(2);
+        createUpload().upload(file);
+        assertPartsUploaded();
+        // the list of parts is written last
+        assertEquals(4, closedFiles.size());
+        assertEquals("bag.tar.parts.part", closedFiles.get(3));
+    }
+
+    @Test
+    public void testInterruptedPartIsResumed() throws IOException {
+        connection.setConnections(2);
+        bytesUntilFailure = MB / 2;
+        createUpload().upload(file);
+        // the checksum of the resumed part covers the data sent in both attempts
+        assertPartsUploaded();
+        assertEquals(3 * MB + remoteFiles.get("bag.tar.parts").length, bytesReceived);
+        assertEquals(1, appendedFiles.size());
+    }
+
+    private void assertPartsUploaded() throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        StringBuilder expectedManifest = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            byte[] part = Arrays.copyOfRange(content, i * MB, (i + 1) * MB);
+            String partName = "bag.tar.00" + (i + 1);
+            assertArrayEquals(part, remoteFiles.get(partName));
+            expectedManifest.append(DigestUtils.sha256Hex(part)).append(' ').append(MB).append(' ').append(partName).append('\n');
+        }
+        assertEquals(expectedManifest.toString(), new String(remoteFiles.get("bag.tar.parts"), StandardCharsets.UTF_8));
+        assertFalse(remoteFiles.containsKey("bag.tar"));
+        assertFalse(Files.exists(file.resolveSibling("bag.tar.checkpoint")));
+    }
+
+    /**
+     * Connection to the in-memory server. Data is stored while it is written, so it remains on the server if the connection drops.
+     */
+    private class MemoryUploader implements ArchiveUploader {
+
+        @Override
+        public OutputStream newOutputStream(String remoteName) {
+            remoteFiles.put(remoteName, new byte[0]);
+            return new RemoteOutputStream(remoteName);
+        }
+
+        @Override
+        public OutputStream newAppendingOutputStream(String remoteName) {
+            synchronized (appendedFiles) {
+                appendedFiles.add(remoteName);
+            }
+            remoteFiles.putIfAbsent(remoteName, new byte[0]);
+            return new RemoteOutputStream(remoteName);
+        }
+
+        @Override
+        public long getSize(String remoteName) {
+            byte[] content = remoteFiles.get(remoteName);
+            return content == null ? -1 : content.length;
+        }
+
+        @Override
+        public void rename(String from, String to) throws IOException {
+            byte[] content = remoteFiles.remove(from);
+            if (content == null) {
+                throw new IOException(from + " not found");
+            }
+            remoteFiles.put(to, content);
+        }
+
+        @Override
+        public void delete(String remoteName) {
+            remoteFiles.remove(remoteName);
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+
+    private class RemoteOutputStream extends OutputStream {
+
+        private final String remoteName;
+
+        private RemoteOutputStream(String remoteName) {
+            this.remoteName = remoteName;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (ResumableUploadTest.this) {
+                int accepted = len;
+                if (bytesUntilFailure >= 0) {
+                    accepted = (int) Math.min(len, bytesUntilFailure);
+                    bytesUntilFailure -= accepted;
+                }
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                content.write(remoteFiles.get(remoteName));
+                content.write(b, off, accepted);
+                remoteFiles.put(remoteName, content.toByteArray());
+                bytesReceived += accepted;
+                if (accepted < len) {
+                    // the connection works again for the next attempt
+                    bytesUntilFailure = -1;
+                    throw new IOException("Connection reset");
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (closedFiles) {
+                closedFiles.add(remoteName);
+            }
+            if (truncateFiles) {
+                byte[] content = remoteFiles.get(remoteName);
+                remoteFiles.put(remoteName, Arrays.copyOf(content, content.length - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.Collections;
+
+import org.apache.sshd.common.config.keys.PublicKeyEntry;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the SFTP uploader against a local SFTP server, the remote folder is a temporary folder
+ */
+public class SftpArchiveUploaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SshServer server;
+
+    private Path remoteFolder;
+
+    private Path knownHostsFile;
+
+    @Before
+    public void setUp() throws Exception {
+        remoteFolder = folder.newFolder("remote").toPath();
+        SimpleGeneratorHostKeyProvider hostKeyProvider = new SimpleGeneratorHostKeyProvider(folder.getRoot().toPath().resolve("hostkey.ser"));
+        hostKeyProvider.setAlgorithm("RSA");
+
+        server = SshServer.setUpDefaultServer();
+        server.setHost("127.0.0.1");
+        server.setPort(0);
+        server.setKeyPairProvider(hostKeyProvider);
+        server.setPasswordAuthenticator((username, password, session) -> "user".equals(username) && "password".equals(password));
+        server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        server.setFileSystemFactory(new VirtualFileSystemFactory(remoteFolder));
+        server.start();
+
+        KeyPair hostKey = hostKeyProvider.loadKeys(null).iterator().next();
+        knownHostsFile = folder.getRoot().toPath().resolve("known_hosts");
+        Files.write(knownHostsFile, ("[127.0.0.1]:" + server.getPort() + " " + PublicKeyEntry.toString(hostKey.getPublic()) + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(true);
+    }
+
+    private ConnectionConfiguration createConnection(String knownHosts) {
+        ConnectionConfiguration cc = new ConnectionConfiguration();
+        cc.setType("sftp");
+        cc.setUserName("user");
+        cc.setPassword("password");
+        cc.setHostname("127.0.0.1");
+        cc.setPort(server.getPort());
+        cc.setKnownHostsFile(knownHosts);
+        return cc;
+    }
+
+    @Test
+    public void testUploadAppendAndRenameOverExistingFile() throws IOException {
+        Files.write(remoteFolder.resolve("bag.tar"), "old content".getBytes(StandardCharsets.UTF_8));
+        try (ArchiveUploader uploader = new SftpArchiveUploader(createConnection(knownHostsFile.toString()))) {
+            assertEquals(-1, uploader.getSize("bag.tar.part"));
+            try (OutputStream out = uploader.newOutputStream("bag.tar.part")) {
+                out.write("new ".getBytes(StandardCharsets.UTF_8));
+            }
+            try (OutputStream out = uploader.newAppendingOutputStream("bag.tar.part")) {
+                out.write("content".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(11, uploader.getSize("bag.tar.part"));
+
+            uploader.rename("bag.tar.part", "bag.tar");
+        }
+        assertArrayEquals("new content".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(remoteFolder.resolve("bag.tar")));
+        assertFalse(Files.exists(remoteFolder.resolve("bag.tar.part")));
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        Files.write(remoteFolder.resolve("bag.tar.part"), new byte[10]);
+        try (ArchiveUploader uploader = new SftpArchiveUploader(createConnection(knownHostsFile.toString()))) {
+            uploader.delete("bag.tar.part");
+            // a missing file is ignored
+            uploader.delete("bag.tar.part");
+        }
+        assertFalse(Files.exists(remoteFolder.resolve("bag.tar.part")));
+    }
+
+    @Test
+    public void testUnknownHostIsRejected() throws IOException {
+        Path emptyKnownHosts = folder.newFile("empty_known_hosts").toPath();
+        try (ArchiveUploader uploader = new SftpArchiveUploader(createConnection(emptyKnownHosts.toString()))) {
+            fail("Connection to an unknown host was accepted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Host key of 127.0.0.1"));
+        }
+    }
+}
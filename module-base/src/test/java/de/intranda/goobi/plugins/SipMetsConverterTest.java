@@ -0,0 +1,319 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.goobi.production.GoobiVersion;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.sub.goobi.helper.BagCreation;
+
+public class SipMetsConverterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String resourcesFolder;
+
+    private static final String IDENTIFIER = "10.33510/nls.js.1511270477762";
+
+    private static final String AMD_SEC = "<mets:amdSec ID=\"AMD\">"
+            + "<mets:rightsMD ID=\"RIGHTS\"><mets:mdWrap MDTYPE=\"OTHER\" MIMETYPE=\"text/xml\" OTHERMDTYPE=\"DVRIGHTS\"><mets:xmlData>"
+            + "<dv:rights xmlns:dv=\"http://dfg-viewer.de/\"><dv:owner>Owner &amp; Co.</dv:owner></dv:rights>"
+            + "</mets:xmlData></mets:mdWrap></mets:rightsMD>"
+            + "<mets:digiprovMD ID=\"DIGIPROV\"><mets:mdWrap MDTYPE=\"OTHER\" MIMETYPE=\"text/xml\" OTHERMDTYPE=\"DVLINKS\"><mets:xmlData>"
+            + "<dv:links xmlns:dv=\"http://dfg-viewer.de/\"><dv:presentation>https://example.org/viewer</dv:presentation></dv:links>"
+            + "</mets:xmlData></mets:mdWrap></mets:digiprovMD>"
+            + "</mets:amdSec>";
+
+    private BagCreation bag;
+
+    private String metsContent;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
+
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        bag = new BagCreation(folder.newFolder("bag").toString());
+        bag.createIEFolder("id", "representations");
+        metsContent = new String(Files.readAllBytes(Paths.get(resourcesFolder, "meta.xml")), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testFileGroup() throws Exception {
+        assertSameResult("filegroup", metsContent, "LOCAL", false, false);
+    }
+
+    @Test
+    public void testRepresentation() throws Exception {
+        String mets = metsContent.replace("USE=\"LOCAL\"", "USE=\"Representations/images\"");
+        Map<Path, byte[]> result = assertSameResult("representation", mets, "Representations/images", false, false);
+        assertTrue(result.containsKey(Paths.get(bag.getObjectsFolder().toString(), "images", "METS.xml")));
+    }
+
+    @Test
+    public void testAdministrativeAndArchiveMetadata() throws Exception {
+        String mets = metsContent.replace("USE=\"LOCAL\"", "USE=\"Representations/images\"")
+                .replace("<mets:fileSec>", AMD_SEC + "<mets:fileSec>");
+        assertSameResult("archive", mets, "Representations/images", true, true);
+    }
+
+    @Test
+    public void testLargeStructure() throws Exception {
+        int pages = 2000;
+        int files = pages - pages / 10;
+        Map<Path, byte[]> expected = convert(false, createLargeMets(pages), "Representations/images", files);
+        Map<Path, byte[]> actual = convert(true, createLargeMets(pages), "Representations/images", files);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<Path, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey().toString(), entry.getValue(), actual.get(entry.getKey()));
+        }
+
+        // pages without file are removed together with their links, every chapter keeps its dmdSec
+        String mets = new String(expected.get(Paths.get(bag.getIeFolder().toString(), "METS.xml")), StandardCharsets.UTF_8);
+        String representation =
+                new String(expected.get(Paths.get(bag.getObjectsFolder().toString(), "images", "METS.xml")), StandardCharsets.UTF_8);
+        assertEquals(files, countOccurrences(representation, "<mets:file "));
+        assertEquals(files, countOccurrences(representation, "TYPE=\"page\""));
+        assertEquals(pages / 10, countOccurrences(mets, "TYPE=\"Chapter\""));
+    }
+
+    @Test
+    public void testMixedContentAndCdata() throws Exception {
+        String mets = metsContent.replace("USE=\"LOCAL\"", "USE=\"Representations/images\"")
+                .replace("</mets:metsHdr>", "</mets:metsHdr>\n   header <![CDATA[a < b]]> &amp; more\n")
+                .replace(">Title<", ">Title <![CDATA[& subtitle]]><")
+                .replace("<mets:fileSec>", "<mets:fileSec>files <![CDATA[<list>]]><!-- comment -->")
+                .replace("<mets:fileGrp USE=\"Representations/images\">", "<mets:fileGrp USE=\"Representations/images\"><![CDATA[ images ]]>  tiff ")
+                .replace("<mets:structMap TYPE=\"PHYSICAL\">", "<mets:structMap TYPE=\"PHYSICAL\">pages <![CDATA[1-10]]>")
+                .replace("<mets:structLink>", "<mets:structLink>\n links\n <![CDATA[ to pages ]]>\n")
+                .replace("</mets:structLink>", "</mets:structLink>end <![CDATA[ ]]>");
+        Map<Path, byte[]> expected = convert(false, mets, "Representations/images", false, false);
+        Map<Path, byte[]> actual = convert(true, mets, "Representations/images", false, false);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<Path, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey().toString(), entry.getValue(), actual.get(entry.getKey()));
+        }
+
+        // CDATA sections are not converted into text
+        String result = new String(actual.get(Paths.get(bag.getIeFolder().toString(), "METS.xml")), StandardCharsets.UTF_8);
+        assertTrue(result.contains("header <![CDATA[a < b]]> &amp; more"));
+        assertTrue(result.contains("files <![CDATA[<list>]]>"));
+        assertTrue(result.contains("pages <![CDATA[1-10]]>"));
+        String representation =
+                new String(actual.get(Paths.get(bag.getObjectsFolder().toString(), "images", "METS.xml")), StandardCharsets.UTF_8);
+        // the text run is trimmed at its ends like by JDOM, even inside of a CDATA section
+        assertTrue(representation.contains("<![CDATA[images ]]>  tiff"));
+    }
+
+    /**
+     * Create a METS file with the given number of pages, a dmdSec for every tenth page and a file for each page
+     */
+    private String createLargeMets(int pages) {
+        StringBuilder dmdSecs = new StringBuilder();
+        StringBuilder logicalDivs = new StringBuilder();
+        StringBuilder files = new StringBuilder();
+        StringBuilder physicalDivs = new StringBuilder();
+        StringBuilder smLinks = new StringBuilder();
+        for (int i = 1; i <= pages; i++) {
+            if (i % 10 == 0) {
+                dmdSecs.append(String.format("<mets:dmdSec ID=\"DMDLOG_1%06d\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods>", i))
+                        .append("<mods:titleInfo><mods:title>Chapter ").append(i).append("</mods:title></mods:titleInfo>")
+                        .append("</mods:mods></mets:xmlData></mets:mdWrap></mets:dmdSec>\n");
+                logicalDivs.append(String.format("<mets:div DMDID=\"DMDLOG_1%06d\" ID=\"LOG_1%06d\" TYPE=\"Chapter\"/>\n", i, i));
+                smLinks.append(String.format("<mets:smLink xlink:to=\"PHYS_1%06d\" xlink:from=\"LOG_1%06d\"/>\n", i, i));
+            }
+            files.append(String.format("<mets:file ID=\"FILE_1%06d\" MIMETYPE=\"image/tiff\"><mets:FLocat LOCTYPE=\"URL\" ", i))
+                    .append(String.format("xlink:href=\"file:///opt/digiverso/goobi/metadata/1/images/master_media/%08d.tif\"/></mets:file>\n", i));
+            physicalDivs.append(String.format("<mets:div ID=\"PHYS_1%06d\" ORDER=\"%d\" TYPE=\"page\">", i, i))
+                    .append(String.format("<mets:fptr FILEID=\"FILE_1%06d\"/></mets:div>\n", i));
+            smLinks.append(String.format("<mets:smLink xlink:to=\"PHYS_1%06d\" xlink:from=\"LOG_0003\"/>\n", i));
+        }
+        String mets = metsContent.replace("<mets:dmdSec ID=\"DMDPHYS_0000\">", dmdSecs + "<mets:dmdSec ID=\"DMDPHYS_0000\">")
+                .replace("<mets:div DMDID=\"DMDLOG_0004\" ID=\"LOG_0006\" TYPE=\"Figure\"/>",
+                        "<mets:div DMDID=\"DMDLOG_0004\" ID=\"LOG_0006\" TYPE=\"Figure\"/>" + logicalDivs);
+        mets = replaceSection(mets, "<mets:fileGrp USE=\"LOCAL\">", "</mets:fileGrp>", files.toString());
+        mets = replaceSection(mets, "TYPE=\"BoundBook\">", "</mets:div>\n   </mets:structMap>", physicalDivs.toString());
+        mets = replaceSection(mets, "<mets:structLink>", "</mets:structLink>", smLinks.toString());
+        return mets.replace("USE=\"LOCAL\"", "USE=\"Representations/images\"");
+    }
+
+    private static int countOccurrences(String text, String value) {
+        int count = 0;
+        for (int index = text.indexOf(value); index >= 0; index = text.indexOf(value, index + value.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String replaceSection(String text, String start, String end, String content) {
+        int from = text.indexOf(start) + start.length();
+        int to = text.indexOf(end, from);
+        return text.substring(0, from) + content + text.substring(to);
+    }
+
+    /**
+     * Convert the file with both converters and compare the results with the files in the golden folder of the scenario. They were created with the conversion
+     * of the plugin before it was moved into SipMetsConverter.
+     */
+    private Map<Path, byte[]> assertSameResult(String scenario, String mets, String fileGroup, boolean archiveMetadata, boolean anchor)
+            throws Exception {
+        Map<Path, byte[]> expected = convert(false, mets, fileGroup, archiveMetadata, anchor);
+        Map<Path, byte[]> actual = convert(true, mets, fileGroup, archiveMetadata, anchor);
+        assertGoldenFiles(scenario, expected);
+
+        Path metsFile = Paths.get(bag.getIeFolder().toString(), "METS.xml");
+        assertTrue(expected.containsKey(metsFile));
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<Path, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey().toString(), entry.getValue(), actual.get(entry.getKey()));
+        }
+        return actual;
+    }
+
+    private void assertGoldenFiles(String scenario, Map<Path, byte[]> result) throws IOException {
+        Path goldenFolder = Paths.get(resourcesFolder, "golden", scenario);
+        Map<String, String> expected = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(goldenFolder)) {
+            for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                expected.put(goldenFolder.relativize(file).toString(), normalize(Files.readAllBytes(file)));
+            }
+        }
+        Map<String, String> actual = new TreeMap<>();
+        for (Map.Entry<Path, byte[]> entry : result.entrySet()) {
+            actual.put(bag.getIeFolder().relativize(entry.getKey()).toString(), normalize(entry.getValue()));
+        }
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    private static String normalize(byte[] content) {
+        // the golden files do not depend on the Goobi version and line separators of the checkout
+        return new String(content, StandardCharsets.UTF_8).replace("\r\n", "\n")
+                .replace("\"SOFTWARE VERSION\">" + GoobiVersion.getVersion() + "<", "\"SOFTWARE VERSION\">${goobi.version}<");
+    }
+
+    private Map<Path, byte[]> convert(boolean streaming, String mets, String fileGroup, int numberOfFiles) throws Exception {
+        TestStore store = new TestStore();
+        SipMetsConverter converter = streaming ? new StreamingSipMetsConverter(bag, store) : new SipMetsConverter(bag, store);
+        AtomicInteger counter = new AtomicInteger();
+        converter.setIdGenerator(() -> "uuid-" + counter.incrementAndGet());
+        Path metsFile = folder.getRoot().toPath().resolve("METS.xml");
+        Files.write(metsFile, mets.getBytes(StandardCharsets.UTF_8));
+        converter.convert(metsFile, IDENTIFIER, createFileLists(fileGroup, numberOfFiles));
+        return store.files;
+    }
+
+    private Map<Path, byte[]> convert(boolean streaming, String mets, String fileGroup, boolean archiveMetadata, boolean anchor)
+            throws Exception {
+        TestStore store = new TestStore();
+        SipMetsConverter converter = streaming ? new StreamingSipMetsConverter(bag, store) : new SipMetsConverter(bag, store);
+        AtomicInteger counter = new AtomicInteger();
+        converter.setIdGenerator(() -> "uuid-" + counter.incrementAndGet());
+        converter.setSoftwareName("Goobi");
+        converter.setOrganizationName("Organization");
+        converter.setOrganizationAddress("Address");
+        converter.setOrganizationIdentifier("1");
+        converter.setContactName("Contact");
+        converter.setContactEmail("contact@example.org");
+        converter.setIncludeArchiveMetadata(archiveMetadata);
+        if (anchor) {
+            converter.convertAnchor(Paths.get(resourcesFolder, "meta_anchor.xml"));
+            for (String name : new String[] { "DVRIGHTS-anchor.xml", "DIGIPROV-anchor.xml" }) {
+                byte[] content = "<anchor />".getBytes(StandardCharsets.UTF_8);
+                store.files.put(Paths.get(bag.getMetadataFolder().toString(), "other", name), content);
+            }
+        }
+
+        // the exported file is located outside of the bag, the result is kept in memory by the store
+        Path metsFile = folder.getRoot().toPath().resolve("METS.xml");
+        Files.write(metsFile, mets.getBytes(StandardCharsets.UTF_8));
+        converter.convert(metsFile, IDENTIFIER, createFileLists(fileGroup, 8));
+        return store.files;
+    }
+
+    private Map<String, FileList> createFileLists(String fileGroup, int numberOfFiles) {
+        // less files than in the METS file, the remaining file elements and pages are removed
+        Path sourceFolder = Paths.get("/opt/digiverso/goobi/metadata/1/images/master_media");
+        List<Path> files = new ArrayList<>();
+        List<PayloadFile> payloadFiles = new ArrayList<>();
+        for (int i = 1; i <= numberOfFiles; i++) {
+            Path file = sourceFolder.resolve(String.format("%08d.tif", i));
+            files.add(file);
+            PayloadFile payloadFile = new PayloadFile();
+            payloadFile.setSource(file);
+            payloadFile.setSize(1000 + i);
+            payloadFile.setChecksum(DigestUtils.sha256Hex(file.toString()));
+            payloadFile.setCreationTime("2024-01-01T00:00:00Z");
+            payloadFiles.add(payloadFile);
+        }
+        FileList fl = new FileList();
+        fl.setFileGroupName(fileGroup);
+        fl.setSourceFolder(sourceFolder);
+        fl.setFiles(files);
+        fl.setPayloadFiles(payloadFiles);
+        fl.setMimetype("image/tiff");
+        Map<String, FileList> fileLists = new HashMap<>();
+        fileLists.put(fileGroup, fl);
+        return fileLists;
+    }
+
+    private static class TestStore implements GeneratedFileStore {
+
+        private final Map<Path, byte[]> files = new HashMap<>();
+
+        @Override
+        public PayloadFile writeFile(Path fileName, long size, InputStream content) throws IOException {
+            byte[] data = content.readAllBytes();
+            assertEquals(size, data.length);
+            files.put(fileName, data);
+            return getFileInformation(fileName);
+        }
+
+        @Override
+        public boolean isFileInBag(Path file) {
+            return files.containsKey(file);
+        }
+
+        @Override
+        public PayloadFile getFileInformation(Path file) {
+            byte[] data = files.getOrDefault(file, new byte[0]);
+            PayloadFile fileInformation = new PayloadFile();
+            fileInformation.setDestination(file);
+            fileInformation.setSize(data.length);
+            fileInformation.setChecksum(DigestUtils.sha256Hex(data));
+            fileInformation.setCreationTime("2024-01-01T00:00:00Z");
+            return fileInformation;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Test data for the benchmarks. The fixtures of module-base are used as templates, large objects are generated from them.
+ */
+public final class BenchmarkData {
+
+    public static final String FILE_GROUP = "Representations/images";
+
+    private static final Path SOURCE_FOLDER = Paths.get("/opt/digiverso/goobi/metadata/1/images/master_media");
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Find the test resources of module-base, the location can be set with the system property benchmark.resources
+     *
+     * @return
+     */
+    public static Path getResourcesFolder() {
+        String configured = System.getProperty("benchmark.resources");
+        if (configured != null) {
+            return Paths.get(configured);
+        }
+        for (String folder : new String[] { "module-base/src/test/resources", "../module-base/src/test/resources" }) {
+            if (Files.isDirectory(Paths.get(folder))) {
+                return Paths.get(folder);
+            }
+        }
+        throw new IllegalStateException("test resources not found, set -Dbenchmark.resources");
+    }
+
+    /**
+     * Create a METS file with the given number of pages based on meta.xml. Every tenth page starts a chapter with its own dmdSec, the
+     * structLink links each page to the volume and the first page of each chapter to the chapter.
+     *
+     * @param metsFile file to create
+     * @param pages number of pages and files
+     * @throws IOException
+     */
+    public static void createMetsFile(Path metsFile, int pages) throws IOException {
+        String metsContent = new String(Files.readAllBytes(getResourcesFolder().resolve("meta.xml")), StandardCharsets.UTF_8);
+
+        StringBuilder dmdSecs = new StringBuilder();
+        StringBuilder logicalDivs = new StringBuilder();
+        StringBuilder files = new StringBuilder();
+        StringBuilder physicalDivs = new StringBuilder();
+        StringBuilder smLinks = new StringBuilder();
+        for (int i = 1; i <= pages; i++) {
+            if (i % 10 == 0) {
+                dmdSecs.append(String.format("<mets:dmdSec ID=\"DMDLOG_1%06d\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods>", i))
+                        .append("<mods:titleInfo><mods:title>Chapter ").append(i).append("</mods:title></mods:titleInfo>")
+                        .append("</mods:mods></mets:xmlData></mets:mdWrap></mets:dmdSec>\n");
+                logicalDivs.append(String.format("<mets:div DMDID=\"DMDLOG_1%06d\" ID=\"LOG_1%06d\" TYPE=\"Chapter\"/>\n", i, i));
+                smLinks.append(String.format("<mets:smLink xlink:to=\"PHYS_1%06d\" xlink:from=\"LOG_1%06d\"/>\n", i, i));
+            }
+            files.append(String.format("<mets:file ID=\"FILE_1%06d\" MIMETYPE=\"image/tiff\"><mets:FLocat LOCTYPE=\"URL\" ", i))
+                    .append(String.format("xlink:href=\"file://%s/%08d.tif\"/></mets:file>\n", SOURCE_FOLDER, i));
+            physicalDivs.append(String.format("<mets:div ID=\"PHYS_1%06d\" ORDER=\"%d\" TYPE=\"page\">", i, i))
+                    .append(String.format("<mets:fptr FILEID=\"FILE_1%06d\"/></mets:div>\n", i));
+            smLinks.append(String.format("<mets:smLink xlink:to=\"PHYS_1%06d\" xlink:from=\"LOG_0003\"/>\n", i));
+        }
+        String mets = metsContent.replace("<mets:dmdSec ID=\"DMDPHYS_0000\">", dmdSecs + "<mets:dmdSec ID=\"DMDPHYS_0000\">")
+                .replace("<mets:div DMDID=\"DMDLOG_0004\" ID=\"LOG_0006\" TYPE=\"Figure\"/>",
+                        "<mets:div DMDID=\"DMDLOG_0004\" ID=\"LOG_0006\" TYPE=\"Figure\"/>" + logicalDivs);
+        mets = replaceSection(mets, "<mets:fileGrp USE=\"LOCAL\">", "</mets:fileGrp>", files.toString());
+        mets = replaceSection(mets, "TYPE=\"BoundBook\">", "</mets:div>\n   </mets:structMap>", physicalDivs.toString());
+        mets = replaceSection(mets, "<mets:structLink>", "</mets:structLink>", smLinks.toString());
+        mets = mets.replace("USE=\"LOCAL\"", "USE=\"" + FILE_GROUP + "\"");
+        Files.write(metsFile, mets.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Create the file list for the images of the generated METS file. Size and checksum are made up, the files do not exist.
+     *
+     * @param numberOfFiles
+     * @return
+     */
+    public static Map<String, FileList> createFileLists(int numberOfFiles) {
+        List<Path> files = new ArrayList<>();
+        List<PayloadFile> payloadFiles = new ArrayList<>();
+        for (int i = 1; i <= numberOfFiles; i++) {
+            Path file = SOURCE_FOLDER.resolve(String.format("%08d.tif", i));
+            files.add(file);
+            PayloadFile payloadFile = new PayloadFile();
+            payloadFile.setSource(file);
+            payloadFile.setSize(1000000L + i);
+            payloadFile.setChecksum(String.format("%064x", i));
+            payloadFile.setCreationTime("2024-01-01T00:00:00Z");
+            payloadFiles.add(payloadFile);
+        }
+        FileList fl = new FileList();
+        fl.setFileGroupName(FILE_GROUP);
+        fl.setSourceFolder(SOURCE_FOLDER);
+        fl.setFiles(files);
+        fl.setPayloadFiles(payloadFiles);
+        fl.setMimetype("image/tiff");
+        Map<String, FileList> fileLists = new HashMap<>();
+        fileLists.put(FILE_GROUP, fl);
+        return fileLists;
+    }
+
+    /**
+     * Create payload files with random content, spread over a few sub folders
+     *
+     * @param folder
+     * @param numberOfFiles
+     * @param fileSize size of each file in bytes
+     * @return the created files
+     * @throws IOException
+     */
+    public static List<Path> createPayload(Path folder, int numberOfFiles, int fileSize) throws IOException {
+        Random random = new Random(42);
+        byte[] content = new byte[fileSize];
+        List<Path> files = new ArrayList<>();
+        for (int i = 1; i <= numberOfFiles; i++) {
+            Path file = folder.resolve(String.format("folder_%02d/%08d.tif", i % 10, i));
+            Files.createDirectories(file.getParent());
+            random.nextBytes(content);
+            Files.write(file, content);
+            files.add(file);
+        }
+        return files;
+    }
+
+    public static void deleteFolder(Path folder) throws IOException {
+        if (folder == null || !Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> stream = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) stream.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static String replaceSection(String text, String start, String end, String content) {
+        int from = text.indexOf(start) + start.length();
+        int to = text.indexOf(end, from);
+        return text.substring(0, from) + content + text.substring(to);
+    }
+
+    /**
+     * Reads the generated files without keeping them, only the size is known afterwards
+     */
+    public static class DiscardingStore implements GeneratedFileStore {
+
+        @Override
+        public PayloadFile writeFile(Path fileName, long size, InputStream content) throws IOException {
+            PayloadFile fileInformation = new PayloadFile();
+            fileInformation.setDestination(fileName);
+            fileInformation.setSize(content.transferTo(OutputStream.nullOutputStream()));
+            fileInformation.setChecksum("");
+            fileInformation.setCreationTime("2024-01-01T00:00:00Z");
+            return fileInformation;
+        }
+
+        @Override
+        public boolean isFileInBag(Path file) {
+            return false;
+        }
+
+        @Override
+        public PayloadFile getFileInformation(Path file) {
+            PayloadFile fileInformation = new PayloadFile();
+            fileInformation.setDestination(file);
+            fileInformation.setChecksum("");
+            fileInformation.setCreationTime("2024-01-01T00:00:00Z");
+            return fileInformation;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.sub.goobi.helper.BagCreation;
+
+/**
+ * Conversion of the exported METS file into the SIP METS files. This covers the file groups, the physical structMap and the structLink of the
+ * representations. 10 percent of the pages have no file and are removed during the conversion. The time per page should stay the same for all
+ * page counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class MetsConversionBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    private int pages;
+
+    @Param({ "false", "true" })
+    private boolean streaming;
+
+    private Path folder;
+
+    private Path metsFile;
+
+    private BagCreation bag;
+
+    private Map<String, FileList> fileLists;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("benchmark");
+        metsFile = folder.resolve("METS.xml");
+        BenchmarkData.createMetsFile(metsFile, pages);
+        fileLists = BenchmarkData.createFileLists(pages - pages / 10);
+        bag = new BagCreation(folder.resolve("bag").toString());
+        bag.createIEFolder("id", "representations");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public void convert() throws Exception {
+        SipMetsConverter converter = streaming ? new StreamingSipMetsConverter(bag, new BenchmarkData.DiscardingStore())
+                : new SipMetsConverter(bag, new BenchmarkData.DiscardingStore());
+        converter.convert(metsFile, "10.33510/nls.js.1511270477762", fileLists);
+    }
+}
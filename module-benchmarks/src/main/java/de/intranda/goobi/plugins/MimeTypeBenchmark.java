@@ -0,0 +1,77 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.sub.goobi.helper.NIOFileUtils;
+
+/**
+ * Mime type detection of the payload files. {@link #probeEachFile()} probes every file like the pagination did before, the resolver probes one
+ * file per extension.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MimeTypeBenchmark {
+
+    @Param({ "1", "4" })
+    private int threads;
+
+    @Param({ "2000" })
+    private int numberOfFiles;
+
+    private Path folder;
+
+    private List<Path> files;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("benchmark");
+        files = BenchmarkData.createPayload(folder.resolve("images"), numberOfFiles, 1024);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public List<String> probeEachFile() {
+        List<String> mimetypes = new ArrayList<>(files.size());
+        for (Path file : files) {
+            mimetypes.add(NIOFileUtils.getMimeTypeFromFile(file));
+        }
+        return mimetypes;
+    }
+
+    @Benchmark
+    public List<String> resolveByExtension() {
+        MimeTypeResolver resolver = new MimeTypeResolver();
+        resolver.resolveAll(BenchmarkData.FILE_GROUP, files, threads);
+        List<String> mimetypes = new ArrayList<>(files.size());
+        for (Path file : files) {
+            mimetypes.add(resolver.getMimeType(BenchmarkData.FILE_GROUP, file));
+        }
+        return mimetypes;
+    }
+}
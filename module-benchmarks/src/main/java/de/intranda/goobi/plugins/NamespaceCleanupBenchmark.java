@@ -0,0 +1,54 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Search for the used namespaces in a complete METS document. The unused declarations are removed in the first run, all following runs only
+ * traverse the document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class NamespaceCleanupBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    private int pages;
+
+    private Element mets;
+
+    @Setup
+    public void setUp() throws Exception {
+        Path metsFile = Files.createTempFile("benchmark", ".xml");
+        try {
+            BenchmarkData.createMetsFile(metsFile, pages);
+            mets = new SAXBuilder().build(metsFile.toFile()).getRootElement();
+        } finally {
+            Files.delete(metsFile);
+        }
+    }
+
+    @Benchmark
+    public Element cleanUpNamespacesAndSchemaLocation() {
+        SipMetsConverter.cleanUpNamespacesAndSchemaLocation(mets);
+        return mets;
+    }
+}
@@ -0,0 +1,92 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.sub.goobi.helper.BagCreation;
+
+/**
+ * Copy of the payload files into the temporary bag folder, size and SHA-256 checksum are calculated while the files are copied. With copy
+ * disabled the files are only read to calculate the checksum.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PayloadIngesterBenchmark {
+
+    @Param({ "1", "4" })
+    private int threads;
+
+    @Param({ "false", "true" })
+    private boolean copy;
+
+    @Param({ "200" })
+    private int numberOfFiles;
+
+    @Param({ "1048576" })
+    private int fileSize;
+
+    private Path folder;
+
+    private List<Path> sources;
+
+    private BagCreation bag;
+
+    private List<Path> destinations;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("benchmark");
+        sources = BenchmarkData.createPayload(folder.resolve("images"), numberOfFiles, fileSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void createBag() throws IOException {
+        bag = new BagCreation(folder.resolve("bag").toString());
+        bag.createIEFolder("id", "representations");
+        destinations = new ArrayList<>();
+        for (Path source : sources) {
+            destinations.add(copy ? Paths.get(bag.getObjectsFolder().toString(), "images", "data", source.getFileName().toString()) : null);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteBag() throws IOException {
+        BenchmarkData.deleteFolder(folder.resolve("bag"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public List<PayloadFile> ingestAll() throws IOException {
+        try (FolderBagWriter writer = new FolderBagWriter(bag, folder.resolve("bag.tar"));
+                PayloadIngester ingester = new PayloadIngester(threads, null, writer)) {
+            return ingester.ingestAll(sources, destinations);
+        }
+    }
+}
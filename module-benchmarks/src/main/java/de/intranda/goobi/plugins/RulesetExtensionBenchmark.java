@@ -0,0 +1,97 @@
+package de.intranda.goobi.plugins;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MatchingMetadataObject;
+import ugh.fileformats.mets.MetsModsImportExport;
+import ugh.fileformats.mets.RulesetExtension;
+
+/**
+ * Extension of the MODS mapping of the ruleset with the additional metadata of the plugin configuration. The configuration of the test
+ * resources is extended with the given number of generated metadata fields.
+ *
+ * The mappings are cached per configuration, {@link #extentRulesetNewConfiguration()} measures the first use of a configuration, e.g. after
+ * the configuration file was changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RulesetExtensionBenchmark {
+
+    @Param({ "0", "100", "1000" })
+    private int additionalFields;
+
+    private XMLConfiguration xmlConfig;
+
+    private SubnodeConfiguration config;
+
+    private MetsModsImportExport fileformat;
+
+    private int mappingSize;
+
+    @Setup
+    public void setUp() throws Exception {
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(BenchmarkData.getResourcesFolder().resolve("ruleset.xml").toString());
+        fileformat = new MetsModsImportExport(prefs);
+        mappingSize = fileformat.getModsNamesMD().size();
+
+        String content = new String(Files.readAllBytes(BenchmarkData.getResourcesFolder().resolve("plugin_intranda_step_bagcreation.xml")),
+                StandardCharsets.UTF_8);
+        StringBuilder fields = new StringBuilder();
+        for (int i = 0; i < additionalFields; i++) {
+            fields.append("<Metadata><InternalName>Generated")
+                    .append(i)
+                    .append("</InternalName><WriteXPath>./mods:mods/mods:note[@type='generated")
+                    .append(i)
+                    .append("']</WriteXPath></Metadata>");
+        }
+        content = content.replace("</additionalMetadata>", fields + "</additionalMetadata>");
+
+        xmlConfig = new XMLConfiguration();
+        xmlConfig.setDelimiterParsingDisabled(true);
+        xmlConfig.load(new StringReader(content));
+        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+        config = xmlConfig.configurationAt("//config[1]");
+    }
+
+    @Benchmark
+    public List<MatchingMetadataObject> extentRuleset() {
+        List<MatchingMetadataObject> mapping = fileformat.getModsNamesMD();
+        // remove the mappings of the last run, otherwise all fields are found in the existing mapping
+        mapping.subList(mappingSize, mapping.size()).clear();
+        RulesetExtension.extentRuleset(config, fileformat);
+        return mapping;
+    }
+
+    @Benchmark
+    public List<MatchingMetadataObject> extentRulesetNewConfiguration() {
+        List<MatchingMetadataObject> mapping = fileformat.getModsNamesMD();
+        mapping.subList(mappingSize, mapping.size()).clear();
+        RulesetExtension.extentRuleset(xmlConfig.configurationAt("//config[1]"), fileformat);
+        return mapping;
+    }
+}
@@ -0,0 +1,65 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.sub.goobi.helper.files.TarUtils;
+
+/**
+ * Creation of the tar file from a temporary bag folder with generated payload files
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TarBenchmark {
+
+    @Param({ "100", "1000" })
+    private int numberOfFiles;
+
+    @Param({ "102400" })
+    private int fileSize;
+
+    private Path folder;
+
+    private Path bagFolder;
+
+    private Path tarFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("benchmark");
+        bagFolder = folder.resolve("bag");
+        BenchmarkData.createPayload(bagFolder.resolve("id_bag/data"), numberOfFiles, fileSize);
+        tarFile = folder.resolve("bag.tar");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public Path createTar() throws IOException {
+        Files.deleteIfExists(tarFile);
+        TarUtils.createTar(bagFolder, tarFile);
+        return tarFile;
+    }
+}